@@ -1,10 +1,12 @@
 package hu.schrenk.blesdremotedroid;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.ProgressDialog;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
@@ -13,6 +15,8 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.support.v7.app.AppCompatActivity;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -22,24 +26,40 @@ import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.nononsenseapps.filepicker.FilePickerActivity;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Stack;
 
-import hu.schrenk.blesdremotedroid.ble.FileUploadAsyncTask;
-import hu.schrenk.blesdremotedroid.ble.UartGattAsyncTask;
+import hu.schrenk.blesdremotedroid.ble.BatchDeleteCommand;
+import hu.schrenk.blesdremotedroid.ble.DownloadQueue;
+import hu.schrenk.blesdremotedroid.ble.FolderSync;
+import hu.schrenk.blesdremotedroid.ble.InfoCommand;
+import hu.schrenk.blesdremotedroid.ble.ListCommand;
+import hu.schrenk.blesdremotedroid.ble.ListingCache;
+import hu.schrenk.blesdremotedroid.ble.ListingPrefetcher;
+import hu.schrenk.blesdremotedroid.ble.MetadataCache;
+import hu.schrenk.blesdremotedroid.ble.MetadataFetcher;
+import hu.schrenk.blesdremotedroid.ble.PutFileCommand;
+import hu.schrenk.blesdremotedroid.ble.RemoteFileInfo;
+import hu.schrenk.blesdremotedroid.ble.RemoteIndex;
+import hu.schrenk.blesdremotedroid.ble.RemoteIndexer;
+import hu.schrenk.blesdremotedroid.ble.SyncPlan;
+import hu.schrenk.blesdremotedroid.ble.UartCommand;
+import hu.schrenk.blesdremotedroid.ble.UartConnectionState;
 import hu.schrenk.blesdremotedroid.ble.UartGattCallback;
-import hu.schrenk.blesdremotedroid.ble.UartMessageType;
+import hu.schrenk.blesdremotedroid.ble.UartTelemetry;
+import hu.schrenk.blesdremotedroid.ble.UartWriteMode;
 
 public class BrowseActivity extends AppCompatActivity implements AdapterView.OnItemClickListener{
 
@@ -47,6 +67,16 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
 
     private static final int FILE_DOWNLOAD_CODE = 456;
     private static final int FILE_UPLOAD_CODE = 789;
+    private static final int FOLDER_SYNC_CODE = 790;
+
+    private static final String UPLOAD_JOURNAL_DIRECTORY = "upload_journals";
+
+    private static final int DOWNLOAD_PROGRESS_SCALE = 1000;
+
+    private static final String REMOTE_INDEX_DIRECTORY = "remote_index";
+    private static final int SEARCH_RESULT_LIMIT = 200;
+
+    private static final long TRANSFER_STATS_REFRESH = 1000; //ms
 
     private BluetoothDevice bluetoothDevice;
     private BluetoothGatt bluetoothGatt;
@@ -59,12 +89,25 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
     private ProgressDialog transferDialog;
 
     private String currentPath = ""; //ROOT
+    private String displayedPath;
+    private String displayedListing;
+    private String streamedListingPath;
+    private final ListingCache listingCache = new ListingCache();
+    private ListingPrefetcher listingPrefetcher;
+    private boolean prefetchListings = true;
+    private RemoteIndex remoteIndex;
+    private RemoteIndexer remoteIndexer;
+    private final MetadataCache metadataCache = new MetadataCache();
+    private MetadataFetcher metadataFetcher;
 
-    private Stack<File> downloadDestinationFilesStack = new Stack<>();
-    private Stack<String> deleteDestinationFilesStack = new Stack<>();
 
     //TODO Change this to a stack
     private File uploadFile;
+    private String uploadFileName;
+    private boolean fastUpload = false;
+    private boolean compressTransfers = false;
+    private boolean verifyDownloads = false;
+    private FolderSync folderSync;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -86,6 +129,17 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
         this.browseMessageHandler = new BrowseMessageHandler(Looper.getMainLooper());
         this.uartGattCallback = new UartGattCallback(this.browseMessageHandler);
         this.bluetoothGatt = this.bluetoothDevice.connectGatt(this, false, this.uartGattCallback);
+        this.listingPrefetcher = new ListingPrefetcher(this.uartGattCallback.getCommandExecutor(), this.listingCache);
+        this.metadataFetcher = new MetadataFetcher(this.uartGattCallback.getCommandExecutor(), this.metadataCache, this.browseMessageHandler);
+
+        //Every card gets its own index, it is crawled in the background the first time
+        File indexFile = new File(new File(this.getFilesDir(), REMOTE_INDEX_DIRECTORY), this.bluetoothDevice.getAddress().replace(":", "") + ".index");
+        this.remoteIndex = RemoteIndex.load(indexFile);
+        this.remoteIndexer = new RemoteIndexer(this.uartGattCallback.getCommandExecutor(), this.remoteIndex, this.browseMessageHandler);
+        this.remoteIndexer.setFetchInfo(true);
+        if (this.remoteIndex.getCrawlFinished() == 0) {
+            this.remoteIndexer.start();
+        }
 
         this.nodesListView = (ListView)findViewById(R.id.nodesListView);
 
@@ -106,6 +160,13 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
             this.bluetoothGatt.close();
             Log.i(TAG, "Bluetooth LE connection was closed.");
         }
+        Log.i(TAG, "Transfer statistics: " + this.uartGattCallback.getTelemetry().snapshot().toJson());
+        this.remoteIndexer.cancel();
+        this.metadataFetcher.cancel();
+        if (this.folderSync != null) {
+            this.folderSync.cancel();
+        }
+        this.uartGattCallback.close();
     }
 
     @Override
@@ -120,6 +181,7 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
         if (this.loadingDialog.isShowing()) {
             this.loadingDialog.dismiss();
         }
+        this.saveRemoteIndex();
     }
 
     @Override
@@ -155,7 +217,7 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
             startActivityForResult(i, FILE_DOWNLOAD_CODE);
             return true;
         } else if (id == R.id.action_delete) {
-            this.deleteDestinationFilesStack.clear();
+            List<String> deletedFileNames = new ArrayList<>();
             for (FileSystemNode node : this.nodesListAdapter.nodes()) {
                 if (node.isSelected && !node.isDirectory && !node.isLevelUp) {
                     String fileName;
@@ -165,18 +227,17 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
                         fileName = this.currentPath + "/" + node.name;
                     }
 
-                    this.deleteDestinationFilesStack.push(fileName);
+                    deletedFileNames.add(fileName);
                 }
             }
 
-            if (!this.deleteDestinationFilesStack.isEmpty()) {
+            if (!deletedFileNames.isEmpty()) {
                 loadingDialog.setMessage(getString(R.string.dialog_deleting));
                 loadingDialog.show();
 
-                //Delete the first file in the row
-                String fileName = this.deleteDestinationFilesStack.pop();
-                Log.i(TAG, "Delete file: " + fileName);
-                this.startFileDelete(fileName);
+                //The DELF commands are streamed, the listing is refreshed once at the end
+                Log.i(TAG, "Delete files: " + deletedFileNames.size());
+                this.submit(new BatchDeleteCommand(deletedFileNames));
             }
 
             return true;
@@ -205,10 +266,215 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
         } else if (id == R.id.action_unselect_all) {
             unselectAll();
             return true;
+        } else if (id == R.id.action_fast_upload) {
+            this.fastUpload = !item.isChecked();
+            item.setChecked(this.fastUpload);
+            return true;
+        } else if (id == R.id.action_compress_transfers) {
+            this.compressTransfers = !item.isChecked();
+            item.setChecked(this.compressTransfers);
+            return true;
+        } else if (id == R.id.action_verify_downloads) {
+            this.verifyDownloads = !item.isChecked();
+            item.setChecked(this.verifyDownloads);
+            return true;
+        } else if (id == R.id.action_prefetch) {
+            this.prefetchListings = !item.isChecked();
+            item.setChecked(this.prefetchListings);
+            if (!this.prefetchListings) {
+                this.listingPrefetcher.cancel();
+            }
+            return true;
+        } else if (id == R.id.action_search) {
+            this.showSearchDialog();
+            return true;
+        } else if (id == R.id.action_sync_folder) {
+            Intent i = new Intent(Intent.ACTION_GET_CONTENT);
+            i.putExtra(FilePickerActivity.EXTRA_ALLOW_MULTIPLE, false);
+            i.putExtra(FilePickerActivity.EXTRA_ALLOW_CREATE_DIR, true);
+            i.putExtra(FilePickerActivity.EXTRA_MODE, FilePickerActivity.MODE_DIR);
+            i.putExtra(FilePickerActivity.EXTRA_START_PATH, Environment.getExternalStorageDirectory().getPath());
+            startActivityForResult(i, FOLDER_SYNC_CODE);
+            return true;
+        } else if (id == R.id.action_transfer_stats) {
+            this.showTransferStats();
+            return true;
+        } else if (id == R.id.action_rebuild_index) {
+            this.remoteIndexer.cancel();
+            this.remoteIndexer.start();
+            Toast.makeText(this, R.string.index_rebuild_started, Toast.LENGTH_SHORT).show();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    private void showSearchDialog() {
+        final EditText queryEditText = new EditText(this);
+        queryEditText.setSingleLine(true);
+        queryEditText.setHint(R.string.search_hint);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_search)
+                .setView(queryEditText)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showSearchResults(queryEditText.getText().toString().trim());
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Lists the indexed files matching the query. Selecting one opens its directory.
+     *
+     * @param query
+     */
+    private void showSearchResults(String query) {
+        if (query.isEmpty()) {
+            return;
+        }
+        final List<RemoteIndex.Entry> results = this.remoteIndex.search(query, false, SEARCH_RESULT_LIMIT);
+        if (results.isEmpty()) {
+            Toast.makeText(this, R.string.search_no_results, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        String[] resultPaths = new String[results.size()];
+        for (int i = 0; i < results.size(); i++) {
+            resultPaths[i] = results.get(i).getPath();
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(query)
+                .setItems(resultPaths, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        currentPath = sendListDirectory(results.get(which).getParentPath());
+                        Log.i(TAG, "The current path is: " + currentPath);
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Shows what the folder sync is going to transfer, it is started only if the user accepts it.
+     *
+     * @param plan
+     */
+    private void showSyncPlan(final SyncPlan plan) {
+        String message = getString(R.string.sync_plan,
+                plan.getCount(SyncPlan.ActionType.DOWNLOAD), Formatter.formatFileSize(this, plan.getSize(SyncPlan.ActionType.DOWNLOAD)),
+                plan.getCount(SyncPlan.ActionType.UPLOAD), Formatter.formatFileSize(this, plan.getSize(SyncPlan.ActionType.UPLOAD)),
+                plan.getUnchangedCount(), plan.getCount(SyncPlan.ActionType.CONFLICT), plan.getDeletedCount());
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle(R.string.action_sync_folder)
+                .setMessage(message);
+        if (plan.isEmpty()) {
+            builder.setPositiveButton(android.R.string.ok, null);
+        } else {
+            builder.setPositiveButton(R.string.sync_start, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    transferDialog = new ProgressDialog(BrowseActivity.this);
+                    transferDialog.setIndeterminate(false);
+                    transferDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+                    transferDialog.setCancelable(false);
+                    transferDialog.setTitle(getString(R.string.action_sync_folder));
+                    transferDialog.setMax(plan.getActions().size());
+                    transferDialog.show();
+                    folderSync.startSync(plan);
+                }
+            }).setNegativeButton(android.R.string.cancel, null);
+        }
+        builder.show();
+    }
+
+    /**
+     * Shows the transfer metrics of the connection, refreshed every second while the dialog is
+     * open. The rates are measured between two refreshes.
+     */
+    private void showTransferStats() {
+        final UartTelemetry telemetry = this.uartGattCallback.getTelemetry();
+        final UartTelemetry.Snapshot[] previous = { telemetry.snapshot() };
+        final AlertDialog statsDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.action_transfer_stats)
+                .setMessage(this.formatTransferStats(previous[0], previous[0]))
+                .setPositiveButton(android.R.string.ok, null)
+                .setNeutralButton(R.string.transfer_stats_share, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String json = telemetry.snapshot().toJson();
+                        Log.i(TAG, "Transfer statistics: " + json);
+                        Intent shareIntent = new Intent(Intent.ACTION_SEND);
+                        shareIntent.setType("application/json");
+                        shareIntent.putExtra(Intent.EXTRA_TEXT, json);
+                        startActivity(Intent.createChooser(shareIntent, getString(R.string.transfer_stats_share)));
+                    }
+                })
+                .setNegativeButton(R.string.transfer_stats_reset, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        telemetry.reset();
+                    }
+                })
+                .show();
+
+        final Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+                UartTelemetry.Snapshot snapshot = telemetry.snapshot();
+                statsDialog.setMessage(formatTransferStats(snapshot, previous[0]));
+                previous[0] = snapshot;
+                browseMessageHandler.postDelayed(this, TRANSFER_STATS_REFRESH);
+            }
+        };
+        this.browseMessageHandler.postDelayed(refresh, TRANSFER_STATS_REFRESH);
+        statsDialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialog) {
+                browseMessageHandler.removeCallbacks(refresh);
+            }
+        });
+    }
+
+    private String formatTransferStats(UartTelemetry.Snapshot snapshot, UartTelemetry.Snapshot previous) {
+        StringBuilder stateTimes = new StringBuilder();
+        for (UartConnectionState state : UartConnectionState.values()) {
+            stateTimes.append(state).append(": ").append(DateUtils.formatElapsedTime(snapshot.getStateTime(state) / 1000));
+            if (state == snapshot.getConnectionState()) {
+                stateTimes.append(" *");
+            }
+            stateTimes.append('\n');
+        }
+        //The latencies are measured in microseconds
+        return getString(R.string.transfer_stats,
+                Formatter.formatFileSize(this, snapshot.getSendRate(previous)),
+                Formatter.formatFileSize(this, snapshot.getSendRate()),
+                Formatter.formatFileSize(this, snapshot.getBytesSent()),
+                Formatter.formatFileSize(this, snapshot.getReceiveRate(previous)),
+                Formatter.formatFileSize(this, snapshot.getReceiveRate()),
+                Formatter.formatFileSize(this, snapshot.getBytesReceived()),
+                snapshot.getWriteLatency().getPercentile(0.5) / 1000f,
+                snapshot.getWriteLatency().getPercentile(0.9) / 1000f,
+                snapshot.getWriteLatency().getPercentile(0.99) / 1000f,
+                snapshot.getNotificationInterval().getPercentile(0.5) / 1000f,
+                snapshot.getNotificationInterval().getPercentile(0.99) / 1000f,
+                snapshot.getWriteRetries(), snapshot.getWriteRefusals(), snapshot.getWriteTimeouts(),
+                snapshot.getReceiveStalls(), snapshot.getReplyTimeouts(), snapshot.getCommandsFailed(),
+                stateTimes.toString().trim());
+    }
+
+    private void saveRemoteIndex() {
+        if (this.remoteIndex.isModified()) {
+            try {
+                this.remoteIndex.save();
+            } catch (IOException e) {
+                Log.e(TAG, "Remote index could not be saved.", e);
+            }
+        }
+    }
+
     private void unselectAll() {
         for (FileSystemNode node : this.nodesListAdapter.nodes()) {
             if (!node.isDirectory && !node.isLevelUp) {
@@ -226,25 +492,47 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
             Uri directoryUri = data.getData();
             Log.i(TAG, "Selected download directory: " + new File(directoryUri.getPath()).getPath());
 
-            this.downloadDestinationFilesStack.clear();
-
+            DownloadQueue downloadQueue = new DownloadQueue(this.uartGattCallback.getCommandExecutor(), this.browseMessageHandler);
+            downloadQueue.setCompression(this.compressTransfers);
+            downloadQueue.setVerifiedBlocks(this.verifyDownloads);
+            int fileCount = 0;
             for (FileSystemNode node : this.nodesListAdapter.nodes()) {
                 if (node.isSelected && !node.isDirectory && !node.isLevelUp) {
-                    this.downloadDestinationFilesStack.push(new File(directoryUri.getPath(), node.name ));
+                    String fileName;
+                    if ("".equals(currentPath)) {
+                        fileName = node.name;
+                    } else {
+                        fileName = this.currentPath + "/" + node.name;
+                    }
+                    downloadQueue.add(fileName, new File(directoryUri.getPath(), node.name));
+                    fileCount++;
                 }
             }
 
-            if (!downloadDestinationFilesStack.isEmpty()) {
-                File nextDownloadableFile = this.downloadDestinationFilesStack.pop();
+            if (fileCount > 0) {
                 this.transferDialog = new ProgressDialog(this);
                 this.transferDialog.setIndeterminate(false);
                 this.transferDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
                 this.transferDialog.setCancelable(false);
                 this.transferDialog.setTitle(getString(R.string.dialog_downloading));
-                this.transferDialog.setMessage(nextDownloadableFile.getName());
+                this.transferDialog.setMessage(getString(R.string.dialog_download_queue_progress, 0, fileCount, "-"));
+                this.transferDialog.setMax(DOWNLOAD_PROGRESS_SCALE);
                 this.transferDialog.show();
-                startFileDownload(nextDownloadableFile);
+                //The next file is requested as soon as the previous one has arrived
+                downloadQueue.start();
+            }
+        } else if (requestCode == FOLDER_SYNC_CODE && resultCode == Activity.RESULT_OK) {
+            File localDirectory = new File(data.getData().getPath());
+            Log.i(TAG, "Synchronizing " + localDirectory.getPath() + " with: " + this.currentPath);
+            if (this.folderSync != null && this.folderSync.isRunning()) {
+                return;
             }
+            this.folderSync = new FolderSync(this.uartGattCallback.getCommandExecutor(), localDirectory, this.currentPath, this.browseMessageHandler);
+            this.folderSync.setCompression(this.compressTransfers);
+            this.folderSync.setVerifiedBlocks(this.verifyDownloads);
+            this.loadingDialog.setMessage(getString(R.string.dialog_sync_planning));
+            this.loadingDialog.show();
+            this.folderSync.startPlanning();
         } else if (requestCode == FILE_UPLOAD_CODE && resultCode == Activity.RESULT_OK) {
             Uri fileUri = data.getData();
             this.uploadFile = new File(fileUri.getPath());
@@ -259,47 +547,34 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
                     fileName = this.currentPath + "/" + uploadFile.getName();
                 }
                 Log.i(TAG, "Upload file location:" + fileName);
+                this.uploadFileName = fileName;
 
-                if (this.uartGattCallback.startUpload(this.uploadFile)) {
-                    this.transferDialog = new ProgressDialog(this);
-                    this.transferDialog.setIndeterminate(false);
-                    this.transferDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-                    this.transferDialog.setCancelable(false);
-                    this.transferDialog.setTitle(getString(R.string.dialog_upload));
-                    this.transferDialog.setMessage(this.uploadFile.getName());
-                    this.transferDialog.setMax((int)this.uploadFile.length());
-                    this.transferDialog.show();
-
-                    UartGattAsyncTask uartGattAsyncTask = new UartGattAsyncTask(UartMessageType.PUT_FILE, this.uartGattCallback, this.bluetoothGatt);
-                    uartGattAsyncTask.execute("@PUTF:" + fileName + "%" + uploadFile.length() + "#");
-                } else {
-                    this.uploadFile = null;
-                    Log.e(TAG, "File upload can not be started!");
-                }
-            }
-        }
-    }
-
-    private void startFileDownload(File file) {
-        String fileName;
-        if ("".equals(currentPath)) {
-            fileName = file.getName();
-        } else {
-            fileName = this.currentPath + "/" + file.getName();
-        }
-        Log.i(TAG, "Start to download: " + fileName);
+                this.transferDialog = new ProgressDialog(this);
+                this.transferDialog.setIndeterminate(false);
+                this.transferDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+                this.transferDialog.setCancelable(false);
+                this.transferDialog.setTitle(getString(R.string.dialog_upload));
+                this.transferDialog.setMessage(this.uploadFile.getName());
+                this.transferDialog.setMax((int)this.uploadFile.length());
+                this.transferDialog.show();
 
-        if (this.uartGattCallback.startDownload(file)) {
-            UartGattAsyncTask uartGattAsyncTask = new UartGattAsyncTask(UartMessageType.GET_FILE, this.uartGattCallback, this.bluetoothGatt);
-            uartGattAsyncTask.execute("@GETF:" + fileName + "#");
-        } else {
-            Log.e(TAG, fileName + " download was failed to start!");
+                PutFileCommand putFileCommand = new PutFileCommand(this.uploadFile, fileName);
+                putFileCommand.setWriteMode(this.fastUpload ? UartWriteMode.WITHOUT_RESPONSE : UartWriteMode.ACKNOWLEDGED);
+                putFileCommand.setJournalDirectory(new File(this.getFilesDir(), UPLOAD_JOURNAL_DIRECTORY));
+                putFileCommand.setCompression(this.compressTransfers);
+                this.submit(putFileCommand);
+            }
         }
     }
 
-    private void startFileDelete(String fileName) {
-        UartGattAsyncTask uartGattAsyncTask = new UartGattAsyncTask(UartMessageType.DELETE_FILE, this.uartGattCallback, this.bluetoothGatt);
-        uartGattAsyncTask.execute("@DELF:" + fileName + "#");
+    /**
+     * Queues a command, which reports its progress and result to the browse message handler.
+     *
+     * @param command
+     */
+    private void submit(UartCommand<?> command) {
+        command.setReplyHandler(this.browseMessageHandler);
+        this.uartGattCallback.submit(command);
     }
 
     @Override
@@ -323,8 +598,7 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
             } else {
                 fileName = this.currentPath + "/" + selectedNode.name;
             }
-            UartGattAsyncTask uartGattAsyncTask = new UartGattAsyncTask(UartMessageType.INFO, this.uartGattCallback, this.bluetoothGatt);
-            uartGattAsyncTask.execute("@INFO:" + fileName + "#");
+            this.submit(new InfoCommand(fileName));
             this.loadingDialog.setMessage(getString(R.string.dialog_loading));
             this.loadingDialog.show();
             Log.i(TAG, "File info message was sent: " + fileName);
@@ -338,9 +612,6 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
 
     private String sendListDirectory(String path, String directoryName) {
 
-        this.loadingDialog.setMessage(getString(R.string.dialog_loading));
-        this.loadingDialog.show();
-
         String extendedPath = path;
         if (directoryName != null) {
             if ("".equals(path)) {
@@ -350,16 +621,107 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
             }
         }
 
-        UartGattAsyncTask uartGattAsyncTask = new UartGattAsyncTask(UartMessageType.LIST, this.uartGattCallback, this.bluetoothGatt);
-        if ("".equals(extendedPath)) {
-            uartGattAsyncTask.execute("@LIST#"); //ROOT
+        //A cached listing is shown immediately, an expired one is revalidated in the background
+        ListingCache.Entry cachedListing = this.listingCache.get(extendedPath);
+        if (cachedListing != null) {
+            this.showListing(extendedPath, cachedListing.getListing());
+            if (!this.listingCache.isExpired(cachedListing)) {
+                return extendedPath;
+            }
+            this.submit(new ListCommand(extendedPath));
         } else {
-            uartGattAsyncTask.execute("@LIST:" + extendedPath + "#");
+            this.loadingDialog.setMessage(getString(R.string.dialog_loading));
+            this.loadingDialog.show();
+            //The entries are shown as they arrive, a huge directory does not wait for the whole listing
+            ListCommand listCommand = new ListCommand(extendedPath);
+            listCommand.setStreaming(true);
+            this.submit(listCommand);
         }
 
         return extendedPath;
     }
 
+    /**
+     * Shows a directory listing. The list is not rebuilt, if the same listing of the same path is
+     * shown already, so the selection is kept when a revalidated listing did not change.
+     *
+     * @param path
+     * @param listing
+     */
+    private void showListing(String path, String listing) {
+        if (path.equals(this.displayedPath) && listing.equals(this.displayedListing)) {
+            return;
+        }
+        this.displayedPath = path;
+        this.displayedListing = listing;
+        this.streamedListingPath = null;
+        this.nodesListAdapter.addNodes(FileSystemNode.parseListing(listing));
+        this.nodesListAdapter.sort();
+        this.nodesListAdapter.notifyDataSetChanged();
+        this.prefetchSubdirectories(path);
+        this.fetchMetadata(path);
+    }
+
+    /**
+     * Shows a batch of a streamed listing. The first batch replaces the shown listing, the
+     * entries are inserted in sorted position, so the list does not have to be sorted again.
+     *
+     * @param path
+     * @param entries
+     * @param first
+     */
+    private void showPartialListing(String path, List<String> entries, boolean first) {
+        if (first) {
+            this.displayedPath = null;
+            this.displayedListing = null;
+            this.streamedListingPath = path;
+            this.nodesListAdapter.clear();
+            this.loadingDialog.dismiss();
+        }
+        for (String entry : entries) {
+            this.nodesListAdapter.insertNode(FileSystemNode.parse(entry));
+        }
+        this.nodesListAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Completes a streamed listing, its entries are shown already.
+     *
+     * @param path
+     * @param listing
+     */
+    private void finishStreamedListing(String path, String listing) {
+        this.displayedPath = path;
+        this.displayedListing = listing;
+        this.streamedListingPath = null;
+        this.prefetchSubdirectories(path);
+        this.fetchMetadata(path);
+    }
+
+    private void prefetchSubdirectories(String path) {
+        if (this.prefetchListings) {
+            //The subdirectories are listed while the link is idle, so opening them is instant
+            List<String> subdirectoryPaths = new ArrayList<>();
+            for (FileSystemNode node : this.nodesListAdapter.nodes()) {
+                if (node.isDirectory) {
+                    subdirectoryPaths.add("".equals(path) ? node.name : path + "/" + node.name);
+                }
+            }
+            this.listingPrefetcher.prefetch(subdirectoryPaths);
+        }
+    }
+
+    private void fetchMetadata(String path) {
+        //The sizes and dates of the files are fetched in batches, the list is updated as they arrive
+        List<String> fileNames = new ArrayList<>();
+        for (FileSystemNode node : this.nodesListAdapter.nodes()) {
+            if (!node.isDirectory && !node.isLevelUp) {
+                fileNames.add(node.name);
+            }
+        }
+        this.metadataFetcher.fetch(path, fileNames);
+    }
+
     private class BrowseMessageHandler extends Handler {
 
         BrowseMessageHandler(Looper looper) {
@@ -370,48 +732,57 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
         public void handleMessage(Message msg) {
             super.handleMessage(msg);
             if (msg.what == UartGattCallback.MESSAGE_BROWSE_COMPLETE) {
-                nodesListAdapter.addNodes(this.parseBrowseReplyMessage((String)msg.obj));
-                nodesListAdapter.sort();
-                nodesListAdapter.notifyDataSetChanged();
-                loadingDialog.dismiss();
-            } else if (msg.what == UartGattCallback.FILE_DOWNLOAD_STARTED) {
-                transferDialog.setMax((Integer)msg.obj);
-            } else if (msg.what == UartGattCallback.FILE_DOWNLOAD_IN_PROGRESS) {
-                transferDialog.setProgress((Integer)msg.obj);
-            } else if (msg.what == UartGattCallback.FILE_DOWNLOAD_FINISHED) {
-                if (!downloadDestinationFilesStack.isEmpty()) {
-                    //Wait some time to allow the channel to settle
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException e) {
+                String path = msg.getData().getString("PATH");
+                String listing = (String)msg.obj;
+                listingCache.put(path, listing);
+                remoteIndex.updateDirectory(path, listing);
+                if (path.equals(currentPath)) {
+                    if (path.equals(streamedListingPath)) {
+                        finishStreamedListing(path, listing);
+                    } else {
+                        showListing(path, listing);
                     }
-                    //Download the next file
-                    transferDialog.setProgress(0);
-                    File nextDownloadableFile = downloadDestinationFilesStack.pop();
-                    transferDialog.setMessage(nextDownloadableFile.getName());
-                    transferDialog.setMax((int)nextDownloadableFile.length());
-                    startFileDownload(nextDownloadableFile);
-                } else {
-                    unselectAll();
-                    //All files are downloaded - dismiss the loading dialog
-                    transferDialog.dismiss();
-                    transferDialog.setProgress(0);
-                }
-            } else if (msg.what == UartGattCallback.FILE_DELETE_FINISHED) {
-                if (!deleteDestinationFilesStack.isEmpty()) {
-                    //Wait some time to allow the channel to settle
-                    try { Thread.sleep(500); } catch (InterruptedException e) {}
-                    //Delete the next file
-                    startFileDelete(deleteDestinationFilesStack.pop());
-                } else {
                     loadingDialog.dismiss();
-                    sendListDirectory(currentPath); //Update the directory listing
                 }
+            } else if (msg.what == UartGattCallback.MESSAGE_BROWSE_PARTIAL) {
+                String path = msg.getData().getString("PATH");
+                if (currentPath.equals(path)) {
+                    @SuppressWarnings("unchecked")
+                    List<String> entries = (List<String>)msg.obj;
+                    showPartialListing(path, entries, msg.arg1 == 0);
+                }
+            } else if (msg.what == UartGattCallback.DOWNLOAD_QUEUE_PROGRESS) {
+                DownloadQueue.Progress progress = (DownloadQueue.Progress)msg.obj;
+                if (progress.getTotalBytes() > 0) {
+                    transferDialog.setProgress((int)(progress.getBytesDone() * DOWNLOAD_PROGRESS_SCALE / progress.getTotalBytes()));
+                }
+                String remaining = progress.getRemainingMillis() < 0 ? "-" : DateUtils.formatElapsedTime(progress.getRemainingMillis() / 1000);
+                transferDialog.setMessage(getString(R.string.dialog_download_queue_progress, progress.getFilesDone(), progress.getFileCount(), remaining));
+            } else if (msg.what == UartGattCallback.DOWNLOAD_QUEUE_FINISHED) {
+                Log.i(TAG, "Downloaded files: " + ((List<?>)msg.obj).size());
+                unselectAll();
+                //All files are downloaded - dismiss the loading dialog
+                transferDialog.dismiss();
+                transferDialog.setProgress(0);
+            } else if (msg.what == UartGattCallback.FILE_BATCH_DELETE_FINISHED || msg.what == UartGattCallback.FILE_DELETE_ERROR) {
+                Log.i(TAG, "Deleted files: " + ((List<?>)msg.obj).size());
+                for (Object fileName : (List<?>)msg.obj) {
+                    listingCache.invalidateParent((String)fileName);
+                    metadataCache.invalidate((String)fileName);
+                    remoteIndex.remove((String)fileName);
+                }
+                loadingDialog.dismiss();
+                sendListDirectory(currentPath); //Update the directory listing
             } else if (msg.what == UartGattCallback.FILE_INFO_READY) {
+                String path = msg.getData().getString("PATH");
                 String fileName = msg.getData().getString("NAME");
                 Integer fileSize = msg.getData().getInt("SIZE");
                 String creationDate = msg.getData().getString("CREATION_DATE");
                 String modificationDate = msg.getData().getString("MODIFICATION_DATE");
+                if (path != null) {
+                    //The list looks the files up by their full path
+                    metadataCache.put(new RemoteFileInfo(path, fileSize, creationDate, modificationDate));
+                }
 
                 Dialog infoDialog = new Dialog(BrowseActivity.this);
                 infoDialog.setTitle(fileName);
@@ -429,16 +800,52 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
 
                 loadingDialog.dismiss();
                 infoDialog.show();
+            } else if (msg.what == UartGattCallback.FILE_METADATA_READY) {
+                String path = msg.getData().getString("PATH");
+                if (currentPath.equals(path)) {
+                    //The fetcher caches the records only when the batch is complete
+                    for (Object fileInfo : (List<?>)msg.obj) {
+                        metadataCache.put((RemoteFileInfo)fileInfo);
+                    }
+                    nodesListAdapter.notifyDataSetChanged();
+                }
             } else if (msg.what == UartGattCallback.FILE_UPLOAD_STARTED) {
                 Log.i(TAG, "Start file upload for: " + ((File)msg.obj).getName());
-                //File upload will be done in a separate thread
-                FileUploadAsyncTask fileUploadAsyncTask = new FileUploadAsyncTask(UartMessageType.UPLOAD, uartGattCallback, bluetoothGatt);
-                fileUploadAsyncTask.setProgressDialog(transferDialog);
-                fileUploadAsyncTask.execute((File)msg.obj);
+            } else if (msg.what == UartGattCallback.FILE_UPLOAD_IN_PROGRESS) {
+                transferDialog.setProgress(msg.arg1);
             } else if (msg.what == UartGattCallback.FILE_UPLOAD_ERROR) {
                 transferDialog.dismiss();
+            } else if (msg.what == UartGattCallback.CONNECTION_LOST) {
+                Log.e(TAG, "UART connection was lost.");
+                loadingDialog.dismiss();
+                if (transferDialog != null) {
+                    transferDialog.dismiss();
+                }
+                Toast.makeText(BrowseActivity.this, R.string.connection_lost, Toast.LENGTH_SHORT).show();
+            } else if (msg.what == UartGattCallback.SYNC_PLAN_READY) {
+                loadingDialog.dismiss();
+                showSyncPlan((SyncPlan)msg.obj);
+            } else if (msg.what == UartGattCallback.SYNC_ERROR) {
+                loadingDialog.dismiss();
+                transferDialog.dismiss();
+                Toast.makeText(BrowseActivity.this, R.string.sync_failed, Toast.LENGTH_SHORT).show();
+            } else if (msg.what == UartGattCallback.SYNC_PROGRESS) {
+                transferDialog.setProgress(msg.arg1);
+            } else if (msg.what == UartGattCallback.SYNC_FINISHED) {
+                transferDialog.dismiss();
+                Toast.makeText(BrowseActivity.this, getString(R.string.sync_finished, msg.arg1, msg.arg2), Toast.LENGTH_LONG).show();
+                listingCache.invalidateTree(currentPath);
+                metadataCache.invalidateTree(currentPath);
+                sendListDirectory(currentPath);
+            } else if (msg.what == UartGattCallback.INDEX_CRAWL_FINISHED) {
+                Log.i(TAG, "Remote index was built, entries: " + msg.obj);
             } else if (msg.what == UartGattCallback.FILE_UPLOAD_FINISHED) {
                 Log.i(TAG, "File upload was finished.");
+                listingCache.invalidate(currentPath);
+                if (uploadFileName != null) {
+                    metadataCache.invalidate(uploadFileName);
+                    remoteIndex.putFile(uploadFileName, ((File)msg.obj).length(), null);
+                }
                 this.postDelayed(new Runnable() {
                     @Override
                     public void run() {
@@ -448,25 +855,6 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
                 }, 1000);
             }
         }
-
-        private List<FileSystemNode> parseBrowseReplyMessage(String replyMessage) {
-            List<FileSystemNode> nodes = new ArrayList<>();
-            String[] fileSystemNodesArray = replyMessage.split(",");
-            for (String part : fileSystemNodesArray) {
-                FileSystemNode node = new FileSystemNode();
-                if (part.equalsIgnoreCase("../")) {
-                    node.isLevelUp = true;
-                    node.name = "..";
-                } else if (part.contains("/")) {
-                    node.isDirectory = true;
-                    node.name = part.substring(0, part.indexOf('/'));
-                } else {
-                    node.name = part;
-                }
-                nodes.add(node);
-            }
-            return nodes;
-        }
     }
 
     private class NodesListAdapter extends BaseAdapter {
@@ -486,28 +874,20 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
         }
 
         public void sort() {
-            //Directories come first - otherwise alphabetical sort
-            Collections.sort(this.fileSystemNodes, new Comparator<FileSystemNode>() {
-                @Override
-                public int compare(FileSystemNode o1, FileSystemNode o2) {
-                    if (o1.name.contains("..")) {
-                        return -1;
-                    }
-                    if (o2.name.contains("..")) {
-                        return 1;
-                    }
+            FileSystemNode.sort(this.fileSystemNodes);
+        }
 
-                    if (o1.isDirectory && o2.isDirectory) {
-                        return o1.name.compareTo(o2.name);
-                    } else if (o1.isDirectory && !o2.isDirectory) {
-                        return -1;
-                    } else if (!o1.isDirectory && o2.isDirectory) {
-                        return 1;
-                    } else {
-                        return o1.name.compareTo(o2.name);
-                    }
-                }
-            });
+        /**
+         * Inserts a node in sorted position.
+         *
+         * @param node
+         */
+        public void insertNode(FileSystemNode node) {
+            int index = Collections.binarySearch(this.fileSystemNodes, node, FileSystemNode.COMPARATOR);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            this.fileSystemNodes.add(index, node);
         }
 
         @Override
@@ -534,6 +914,7 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
                 view = inflater.inflate(R.layout.listitem_file, parent, false);
                 viewHolder = new BrowseActivity.ViewHolder();
                 viewHolder.nodeNameTextView = (TextView) view.findViewById(R.id.nodeNameTextView);
+                viewHolder.nodeDetailsTextView = (TextView) view.findViewById(R.id.nodeDetailsTextView);
                 viewHolder.nodeTypeImageView = (ImageView) view.findViewById(R.id.nodeTypeImageView);
                 viewHolder.nodeSelectionCheckBox = (CheckBox) view.findViewById(R.id.nodeSelectionCheckBox);
                 view.setTag(viewHolder);
@@ -554,6 +935,7 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
             FileSystemNode fileSystemNode = fileSystemNodes.get(i);
 
             viewHolder.nodeNameTextView.setText(fileSystemNode.name);
+            viewHolder.nodeDetailsTextView.setVisibility(View.GONE);
             if (fileSystemNode.isLevelUp) {
                 viewHolder.nodeTypeImageView.setImageResource(R.drawable.folder_open);
                 viewHolder.nodeSelectionCheckBox.setVisibility(View.INVISIBLE);
@@ -568,6 +950,15 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
                     viewHolder.nodeSelectionCheckBox.setChecked(false);
                 }
                 viewHolder.nodeSelectionCheckBox.setVisibility(View.VISIBLE);
+
+                String filePath = "".equals(currentPath) ? fileSystemNode.name : currentPath + "/" + fileSystemNode.name;
+                MetadataCache.Entry entry = metadataCache.get(filePath);
+                if (entry != null) {
+                    RemoteFileInfo fileInfo = entry.getFileInfo();
+                    viewHolder.nodeDetailsTextView.setText(Formatter.formatFileSize(BrowseActivity.this, fileInfo.getSize())
+                            + "  " + fileInfo.getModificationDate());
+                    viewHolder.nodeDetailsTextView.setVisibility(View.VISIBLE);
+                }
             }
 
             viewHolder.nodeSelectionCheckBox.setTag(fileSystemNode);
@@ -576,15 +967,9 @@ public class BrowseActivity extends AppCompatActivity implements AdapterView.OnI
         }
     }
 
-    private class FileSystemNode {
-        String name;
-        boolean isLevelUp = false;
-        boolean isDirectory = false;
-        boolean isSelected = false;
-    }
-
     static class ViewHolder {
         TextView nodeNameTextView;
+        TextView nodeDetailsTextView;
         ImageView nodeTypeImageView;
         CheckBox nodeSelectionCheckBox;
     }
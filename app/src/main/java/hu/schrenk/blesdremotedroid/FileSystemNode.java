@@ -0,0 +1,82 @@
+package hu.schrenk.blesdremotedroid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An entry of a directory listing, as it is shown in the browser. The listing reply is a comma
+ * separated list, directories end with a slash, the parent directory is <code>../</code>.
+ */
+public class FileSystemNode {
+
+    //Directories come first - otherwise alphabetical sort
+    static final Comparator<FileSystemNode> COMPARATOR = new Comparator<FileSystemNode>() {
+        @Override
+        public int compare(FileSystemNode o1, FileSystemNode o2) {
+            if (o1.isLevelUp || o2.isLevelUp) {
+                return (o1.isLevelUp ? 0 : 1) - (o2.isLevelUp ? 0 : 1);
+            }
+
+            if (o1.isDirectory && o2.isDirectory) {
+                return o1.name.compareTo(o2.name);
+            } else if (o1.isDirectory && !o2.isDirectory) {
+                return -1;
+            } else if (!o1.isDirectory && o2.isDirectory) {
+                return 1;
+            } else {
+                return o1.name.compareTo(o2.name);
+            }
+        }
+    };
+
+    String name;
+    boolean isLevelUp = false;
+    boolean isDirectory = false;
+    boolean isSelected = false;
+
+    /**
+     * Parses a listing reply.
+     *
+     * @param replyMessage
+     * @return the nodes in the order of the listing
+     */
+    public static List<FileSystemNode> parseListing(String replyMessage) {
+        List<FileSystemNode> nodes = new ArrayList<>();
+        String[] fileSystemNodesArray = replyMessage.split(",");
+        for (String part : fileSystemNodesArray) {
+            nodes.add(parse(part));
+        }
+        return nodes;
+    }
+
+    /**
+     * Parses an entry of a listing reply.
+     *
+     * @param part
+     */
+    public static FileSystemNode parse(String part) {
+        FileSystemNode node = new FileSystemNode();
+        if (part.equalsIgnoreCase("../")) {
+            node.isLevelUp = true;
+            node.name = "..";
+        } else if (part.contains("/")) {
+            node.isDirectory = true;
+            node.name = part.substring(0, part.indexOf('/'));
+        } else {
+            node.name = part;
+        }
+        return node;
+    }
+
+    /**
+     * Sorts the nodes in the order they are shown: the parent directory, the directories, then
+     * the files.
+     *
+     * @param nodes
+     */
+    public static void sort(List<FileSystemNode> nodes) {
+        Collections.sort(nodes, COMPARATOR);
+    }
+}
@@ -0,0 +1,166 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Deletes several remote files. The DELF commands are streamed without waiting for each reply,
+ * only the number of unanswered commands is limited. The <code>@OK%name#</code> replies are
+ * matched to the requests by the file name, a reply without a name is matched to the oldest
+ * unanswered request. The result is the list of deleted files.
+ */
+public class BatchDeleteCommand extends UartCommand<List<String>> {
+
+    private static final String TAG = "BatchDeleteCommand";
+
+    public static final int DEFAULT_WINDOW = 4;
+
+    private final List<String> fileNames;
+    private int window = DEFAULT_WINDOW;
+
+    private final Object windowLock = new Object();
+    private final LinkedList<String> pending = new LinkedList<>();
+    private final List<String> deletedFileNames = new ArrayList<>();
+    private final List<String> failedFileNames = new ArrayList<>();
+    private volatile String lastCommandText = "@DELF#";
+
+    /**
+     * @param fileNames the remote file paths
+     */
+    public BatchDeleteCommand(List<String> fileNames) {
+        super(UartMessageType.DELETE_FILE);
+        this.fileNames = new ArrayList<>(fileNames);
+    }
+
+    /**
+     * Sets the maximum number of DELF commands waiting for their replies.
+     *
+     * @param window
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * Returns the files, which could not be deleted.
+     */
+    public List<String> getFailedFileNames() {
+        synchronized (this.windowLock) {
+            return new ArrayList<>(this.failedFileNames);
+        }
+    }
+
+    /**
+     * Returns the last DELF command sent.
+     */
+    @Override
+    protected String getCommandText() {
+        return this.lastCommandText;
+    }
+
+    @Override
+    protected void execute(UartLink link) throws IOException, InterruptedException {
+        if (this.fileNames.isEmpty()) {
+            this.complete(new ArrayList<String>());
+            return;
+        }
+        for (String fileName : this.fileNames) {
+            if (!this.awaitWindow(fileName)) {
+                return;
+            }
+            this.lastCommandText = "@DELF:" + fileName + "#";
+            if (!link.sendCommand(this.lastCommandText)) {
+                throw new IOException("Command could not be sent: " + this.lastCommandText);
+            }
+        }
+    }
+
+    /**
+     * Waits until a new request fits into the window, then registers it as pending.
+     *
+     * @param fileName
+     * @return <code>false</code>, if the command failed or no reply arrived within the reply timeout
+     */
+    private boolean awaitWindow(String fileName) throws InterruptedException {
+        synchronized (this.windowLock) {
+            int answered = this.answeredCount();
+            long deadline = System.currentTimeMillis() + this.getReplyTimeout();
+            while (this.pending.size() >= this.window && !this.getFuture().isDone()) {
+                if (this.answeredCount() != answered) {
+                    answered = this.answeredCount();
+                    deadline = System.currentTimeMillis() + this.getReplyTimeout();
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    this.onTimeout();
+                    return false;
+                }
+                this.windowLock.wait(remaining);
+            }
+            if (this.getFuture().isDone()) {
+                return false;
+            }
+            this.pending.add(fileName);
+            return true;
+        }
+    }
+
+    //Has to be called holding the windowLock
+    private int answeredCount() {
+        return this.deletedFileNames.size() + this.failedFileNames.size();
+    }
+
+    @Override
+    protected void onFrame(UartFrameParser frame) {
+        List<String> result = null;
+        synchronized (this.windowLock) {
+            String fileName = frame.getFieldCount() > 1 ? frame.getField(1) : null;
+            String request;
+            if (fileName != null && this.pending.remove(fileName)) {
+                request = fileName;
+            } else {
+                request = this.pending.poll();
+            }
+            if (request == null) {
+                Log.w(TAG, "Unexpected reply: " + frame.getPayload());
+                return;
+            }
+
+            if ("OK".equals(frame.getField(0))) {
+                Log.i(TAG, request + " was deleted.");
+                this.deletedFileNames.add(request);
+            } else {
+                Log.e(TAG, "File delete error: " + frame.getPayload());
+                this.failedFileNames.add(request);
+            }
+            this.touch();
+            this.windowLock.notifyAll();
+            if (this.answeredCount() == this.fileNames.size()) {
+                result = new ArrayList<>(this.deletedFileNames);
+            }
+        }
+        if (result != null) {
+            this.sendMessage(UartGattCallback.FILE_BATCH_DELETE_FINISHED, result);
+            this.complete(result);
+        }
+    }
+
+    @Override
+    protected void fail(Exception failure) {
+        List<String> deleted = null;
+        synchronized (this.windowLock) {
+            if (!this.getFuture().isDone()) {
+                deleted = new ArrayList<>(this.deletedFileNames);
+            }
+            this.windowLock.notifyAll();
+        }
+        if (deleted != null) {
+            this.sendMessage(UartGattCallback.FILE_DELETE_ERROR, deleted);
+        }
+        super.fail(failure);
+    }
+}
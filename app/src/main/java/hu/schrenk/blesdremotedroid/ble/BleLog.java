@@ -0,0 +1,119 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import hu.schrenk.blesdremotedroid.BuildConfig;
+
+/**
+ * Logging of the per packet transfer events. Every category has its own minimum level and
+ * sampling rate: a sampling rate of <code>n</code> lets only every n-th loggable event through.
+ * The message text is built only for the events which are really logged.
+ *
+ * Hot path calls have to be guarded with {@link #HOT_PATH}. It is a compile-time constant,
+ * so in release builds the guarded calls are removed by the compiler together with their
+ * arguments.
+ */
+public final class BleLog {
+
+    public static final boolean HOT_PATH = BuildConfig.BLE_HOT_PATH_LOGGING;
+
+    public static final int OFF = Integer.MAX_VALUE;
+
+    public enum Category {
+        SEND(Log.INFO, 1),
+        RECEIVE(Log.INFO, 1),
+        DOWNLOAD(Log.INFO, 64),
+        UPLOAD(Log.INFO, 16);
+
+        private final int defaultLevel;
+        private final int defaultSampling;
+
+        Category(int defaultLevel, int defaultSampling) {
+            this.defaultLevel = defaultLevel;
+            this.defaultSampling = defaultSampling;
+        }
+    }
+
+    private static final int[] levels = new int[Category.values().length];
+    private static final int[] samplings = new int[Category.values().length];
+    private static final int[] counters = new int[Category.values().length];
+
+    static {
+        reset();
+    }
+
+    private BleLog() {
+    }
+
+    /**
+     * Restores the default level and sampling rate of every category.
+     */
+    public static void reset() {
+        for (Category category : Category.values()) {
+            levels[category.ordinal()] = category.defaultLevel;
+            samplings[category.ordinal()] = category.defaultSampling;
+            counters[category.ordinal()] = 0;
+        }
+    }
+
+    /**
+     * Sets the minimum level of the category, use {@link #OFF} to switch it off.
+     *
+     * @param category
+     * @param level one of the {@link Log} priority constants
+     */
+    public static void setLevel(Category category, int level) {
+        levels[category.ordinal()] = level;
+    }
+
+    /**
+     * Lets only every n-th loggable event of the category through.
+     *
+     * @param category
+     * @param sampling
+     */
+    public static void setSampling(Category category, int sampling) {
+        samplings[category.ordinal()] = Math.max(1, sampling);
+    }
+
+    /**
+     * Returns <code>true</code>, if an event of the category with the given level has to be
+     * logged. Each call counts as an event for the sampling.
+     *
+     * @param category
+     * @param level
+     * @return
+     */
+    public static boolean isLoggable(Category category, int level) {
+        int index = category.ordinal();
+        if (level < levels[index]) {
+            return false;
+        }
+        //Races between threads only shift the sampling a bit
+        int counter = counters[index] + 1;
+        if (counter >= samplings[index]) {
+            counters[index] = 0;
+            return true;
+        }
+        counters[index] = counter;
+        return false;
+    }
+
+    /**
+     * Logs <code>message + argument</code> with INFO level.
+     */
+    public static void i(Category category, String tag, String message, String argument) {
+        if (isLoggable(category, Log.INFO)) {
+            Log.println(Log.INFO, tag, message + argument);
+        }
+    }
+
+    /**
+     * Logs <code>done/total</code> with INFO level.
+     */
+    public static void progress(Category category, String tag, long done, long total) {
+        if (isLoggable(category, Log.INFO)) {
+            Log.println(Log.INFO, tag, done + "/" + total);
+        }
+    }
+}
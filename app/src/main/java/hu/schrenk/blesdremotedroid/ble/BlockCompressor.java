@@ -0,0 +1,65 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compresses file content for a compressed transfer. The content is cut into blocks of
+ * {@link #BLOCK_SIZE} bytes, and every block is deflated on its own, so a transfer can be resumed
+ * at any block boundary. A block is sent as a two byte big-endian header and the payload. The
+ * header holds the payload length, its highest bit is set if the block is stored as it is,
+ * because deflate could not make it smaller.
+ */
+public class BlockCompressor {
+
+    public static final int BLOCK_SIZE = 4096;
+    public static final int HEADER_SIZE = 2;
+    public static final int STORED_FLAG = 0x8000;
+
+    /**
+     * The largest encoded block: a stored block with its header.
+     */
+    public static final int MAX_ENCODED_SIZE = BLOCK_SIZE + HEADER_SIZE;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+    /**
+     * Encodes one block.
+     *
+     * @param data
+     * @param offset
+     * @param length at most {@link #BLOCK_SIZE} bytes
+     * @param encoded the buffer of the encoded block, at least {@link #MAX_ENCODED_SIZE} bytes
+     * @return the length of the encoded block
+     */
+    public int encode(byte[] data, int offset, int length, byte[] encoded) {
+        if (length > BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block is too large: " + length);
+        }
+        this.deflater.reset();
+        this.deflater.setInput(data, offset, length);
+        this.deflater.finish();
+        // A deflated block is worth sending only if it is smaller, than the stored one
+        int deflatedLength = 0;
+        while (!this.deflater.finished() && deflatedLength < length) {
+            deflatedLength += this.deflater.deflate(encoded, HEADER_SIZE + deflatedLength, length - deflatedLength);
+        }
+
+        int header;
+        if (this.deflater.finished() && deflatedLength < length) {
+            header = deflatedLength;
+        } else {
+            System.arraycopy(data, offset, encoded, HEADER_SIZE, length);
+            header = length | STORED_FLAG;
+        }
+        encoded[0] = (byte)(header >> 8);
+        encoded[1] = (byte)header;
+        return HEADER_SIZE + (header & ~STORED_FLAG);
+    }
+
+    /**
+     * Frees the native memory of the deflater.
+     */
+    public void end() {
+        this.deflater.end();
+    }
+}
@@ -0,0 +1,127 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the blocks of a compressed transfer written by {@link BlockCompressor}. The encoded
+ * bytes are fed in as they arrive, a block is decoded and passed on as soon as it is complete.
+ * The decoder stops after the expected number of decoded bytes, so the caller gets back the
+ * bytes following the last block.
+ */
+public class BlockDecompressor {
+
+    public interface Output {
+
+        /**
+         * Receives a decoded block.
+         *
+         * @param data
+         * @param offset
+         * @param length
+         * @return <code>false</code>, if the decoding has to be stopped
+         */
+        boolean write(byte[] data, int offset, int length);
+    }
+
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] encodedBlock = new byte[BlockCompressor.MAX_ENCODED_SIZE];
+    //One spare byte, so the inflater can reach the end of a full block
+    private final byte[] decodedBlock = new byte[BlockCompressor.BLOCK_SIZE + 1];
+    private int encodedSize = 0;
+    private long remaining;
+
+    /**
+     * @param decodedLength the number of bytes the blocks decode to
+     */
+    public BlockDecompressor(long decodedLength) {
+        this.remaining = decodedLength;
+    }
+
+    /**
+     * Returns <code>true</code>, if all blocks were decoded.
+     */
+    public boolean isFinished() {
+        return this.remaining <= 0;
+    }
+
+    /**
+     * Processes encoded bytes.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param output
+     * @return the number of consumed bytes
+     * @throws IOException if a block is corrupt
+     */
+    public int decode(byte[] data, int offset, int length, Output output) throws IOException {
+        int consumed = 0;
+        while (consumed < length && !this.isFinished()) {
+            int needed = this.encodedSize < BlockCompressor.HEADER_SIZE
+                    ? BlockCompressor.HEADER_SIZE - this.encodedSize
+                    : BlockCompressor.HEADER_SIZE + this.payloadLength() - this.encodedSize;
+            int copied = Math.min(needed, length - consumed);
+            System.arraycopy(data, offset + consumed, this.encodedBlock, this.encodedSize, copied);
+            this.encodedSize += copied;
+            consumed += copied;
+
+            if (this.encodedSize == BlockCompressor.HEADER_SIZE && this.payloadLength() > BlockCompressor.BLOCK_SIZE) {
+                throw new IOException("Invalid block length: " + this.payloadLength());
+            }
+            if (this.encodedSize >= BlockCompressor.HEADER_SIZE
+                    && this.encodedSize == BlockCompressor.HEADER_SIZE + this.payloadLength()) {
+                int decodedLength = this.decodeBlock();
+                this.encodedSize = 0;
+                this.remaining -= decodedLength;
+                if (!output.write(this.decodedBlock, 0, decodedLength)) {
+                    break;
+                }
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * Frees the native memory of the inflater.
+     */
+    public void end() {
+        this.inflater.end();
+    }
+
+    private int header() {
+        return (this.encodedBlock[0] & 0xFF) << 8 | (this.encodedBlock[1] & 0xFF);
+    }
+
+    private int payloadLength() {
+        return this.header() & ~BlockCompressor.STORED_FLAG;
+    }
+
+    private int decodeBlock() throws IOException {
+        int payloadLength = this.payloadLength();
+        if ((this.header() & BlockCompressor.STORED_FLAG) != 0) {
+            System.arraycopy(this.encodedBlock, BlockCompressor.HEADER_SIZE, this.decodedBlock, 0, payloadLength);
+            return payloadLength;
+        }
+
+        this.inflater.reset();
+        this.inflater.setInput(this.encodedBlock, BlockCompressor.HEADER_SIZE, payloadLength);
+        try {
+            int decodedLength = 0;
+            while (!this.inflater.finished() && decodedLength < this.decodedBlock.length) {
+                int inflated = this.inflater.inflate(this.decodedBlock, decodedLength, this.decodedBlock.length - decodedLength);
+                if (inflated == 0 && !this.inflater.finished()) {
+                    throw new IOException("Truncated block");
+                }
+                decodedLength += inflated;
+            }
+            if (!this.inflater.finished() || decodedLength > BlockCompressor.BLOCK_SIZE) {
+                throw new IOException("Block is too large");
+            }
+            return decodedLength;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block", e);
+        }
+    }
+}
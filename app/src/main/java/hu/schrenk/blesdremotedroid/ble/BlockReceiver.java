@@ -0,0 +1,246 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Receives the content of a block-framed download. Every notification carries one block: a four
+ * byte big-endian sequence number, the big-endian CRC32 of the payload and the payload. A lost
+ * notification loses exactly one block, so the framing can not slip.
+ *
+ * The first pass writes the blocks in sequence. A lost or corrupt block is written as zeros and
+ * recorded as missing, so the following blocks stay at their offsets. The resent blocks are kept
+ * in memory, and they are patched into the file, when the writer finished it.
+ */
+class BlockReceiver {
+
+    /**
+     * The sequence number and the CRC32 in front of every payload.
+     */
+    static final int BLOCK_HEADER_SIZE = 8;
+
+    private final long length;
+    private final int blockSize;
+    private final int blockCount;
+    private final DownloadFileWriter writer;
+    private final byte[] placeholder;
+    private final CRC32 crc32 = new CRC32();
+
+    private final BitSet missing = new BitSet();
+    private final Map<Integer, byte[]> resentBlocks = new TreeMap<>();
+    private int nextSequence = 0;
+    private int firstHole = -1;
+    private boolean firstPassDone = false;
+    private int corruptBlocks = 0;
+    private long lastActivity = System.currentTimeMillis();
+
+    /**
+     * @param length the length of the transferred range
+     * @param blockSize the payload length of every block but the last one
+     * @param writer the writer of the range, it is started already
+     */
+    BlockReceiver(long length, int blockSize, DownloadFileWriter writer) {
+        this.length = length;
+        this.blockSize = blockSize;
+        this.blockCount = (int)((length + blockSize - 1) / blockSize);
+        this.writer = writer;
+        this.placeholder = new byte[blockSize];
+        this.firstPassDone = this.blockCount == 0;
+    }
+
+    int getBlockCount() {
+        return this.blockCount;
+    }
+
+    synchronized int getCorruptBlocks() {
+        return this.corruptBlocks;
+    }
+
+    synchronized int getResentBlocks() {
+        return this.resentBlocks.size();
+    }
+
+    /**
+     * Processes a notification.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return the number of new payload bytes, 0 for a corrupt or duplicate block, -1 if the
+     * writer failed
+     */
+    synchronized int receive(byte[] data, int offset, int length) {
+        this.lastActivity = System.currentTimeMillis();
+        this.notifyAll();
+
+        int payloadLength = length - BLOCK_HEADER_SIZE;
+        int sequence = payloadLength < 0 ? -1 : readInt(data, offset);
+        if (sequence < 0 || sequence >= this.blockCount || payloadLength != this.getPayloadLength(sequence)) {
+            this.corruptBlocks++;
+            return 0;
+        }
+        this.crc32.reset();
+        this.crc32.update(data, offset + BLOCK_HEADER_SIZE, payloadLength);
+        if ((int)this.crc32.getValue() != readInt(data, offset + 4)) {
+            this.corruptBlocks++;
+            return 0;
+        }
+
+        if (!this.firstPassDone && sequence >= this.nextSequence) {
+            // The skipped blocks were lost or corrupt
+            if (!this.fillHoles(sequence)
+                    || !this.writer.write(data, offset + BLOCK_HEADER_SIZE, payloadLength)) {
+                return -1;
+            }
+            this.nextSequence = sequence + 1;
+            this.firstPassDone = this.nextSequence == this.blockCount;
+            return payloadLength;
+        }
+        if (this.missing.get(sequence)) {
+            byte[] payload = new byte[payloadLength];
+            System.arraycopy(data, offset + BLOCK_HEADER_SIZE, payload, 0, payloadLength);
+            this.resentBlocks.put(sequence, payload);
+            this.missing.clear(sequence);
+            return payloadLength;
+        }
+        return 0;
+    }
+
+    /**
+     * Ends the first pass, the blocks not received yet are missing.
+     *
+     * @return <code>false</code>, if the writer failed
+     */
+    synchronized boolean endFirstPass() {
+        if (this.firstPassDone) {
+            return true;
+        }
+        this.firstPassDone = true;
+        return this.fillHoles(this.blockCount);
+    }
+
+    private boolean fillHoles(int sequence) {
+        for (; this.nextSequence < sequence; this.nextSequence++) {
+            if (!this.writer.write(this.placeholder, 0, this.getPayloadLength(this.nextSequence))) {
+                return false;
+            }
+            this.missing.set(this.nextSequence);
+            if (this.firstHole < 0) {
+                this.firstHole = this.nextSequence;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code>, if every block was received.
+     */
+    synchronized boolean isComplete() {
+        return this.firstPassDone && this.missing.isEmpty();
+    }
+
+    synchronized int getMissingCount() {
+        return this.missing.cardinality();
+    }
+
+    /**
+     * Returns the first missing sequence numbers.
+     *
+     * @param limit
+     */
+    synchronized List<Integer> getMissing(int limit) {
+        List<Integer> sequences = new ArrayList<>();
+        for (int i = this.missing.nextSetBit(0); i >= 0 && sequences.size() < limit; i = this.missing.nextSetBit(i + 1)) {
+            sequences.add(i);
+        }
+        return sequences;
+    }
+
+    /**
+     * Returns the length from the start of the range, which is in the file without a hole. The
+     * resent blocks are patched only at the end, so a hole counts until then.
+     */
+    synchronized long getContiguousLength() {
+        int sequence = this.firstHole >= 0 ? this.firstHole : this.nextSequence;
+        return Math.min(this.length, (long)sequence * this.blockSize);
+    }
+
+    /**
+     * Waits until the first pass is done, or no block arrives for the given time.
+     *
+     * @param idleTimeout
+     * @throws InterruptedException
+     */
+    synchronized void awaitFirstPass(long idleTimeout) throws InterruptedException {
+        while (!this.firstPassDone) {
+            if (!this.waitIdle(idleTimeout)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits until the given blocks are received, or no block arrives for the given time. The idle
+     * time is counted from the call.
+     *
+     * @param sequences
+     * @param idleTimeout
+     * @throws InterruptedException
+     */
+    synchronized void awaitBlocks(List<Integer> sequences, long idleTimeout) throws InterruptedException {
+        this.lastActivity = System.currentTimeMillis();
+        while (this.isAnyMissing(sequences)) {
+            if (!this.waitIdle(idleTimeout)) {
+                return;
+            }
+        }
+    }
+
+    private boolean isAnyMissing(List<Integer> sequences) {
+        for (int sequence : sequences) {
+            if (this.missing.get(sequence)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Returns false, if the idle timeout elapsed
+    private boolean waitIdle(long idleTimeout) throws InterruptedException {
+        long remaining = this.lastActivity + idleTimeout - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return false;
+        }
+        this.wait(remaining);
+        return true;
+    }
+
+    /**
+     * Writes the resent blocks into the finished file.
+     *
+     * @param file
+     * @param rangeOffset the file offset of the first block
+     * @throws IOException
+     */
+    synchronized void patch(RandomAccessFile file, long rangeOffset) throws IOException {
+        for (Map.Entry<Integer, byte[]> block : this.resentBlocks.entrySet()) {
+            file.seek(rangeOffset + (long)block.getKey() * this.blockSize);
+            file.write(block.getValue());
+        }
+    }
+
+    private int getPayloadLength(int sequence) {
+        return (int)Math.min(this.blockSize, this.length - (long)sequence * this.blockSize);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,150 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs a long task, e.g. a crawl or a sync, on its own thread. The task sends its commands one
+ * at a time with {@link #request(UartCommand)} and waits for their results, so it can be written
+ * as plain blocking code. Cancelling the task cancels its running command too.
+ *
+ * A command failing on its own is returned as a <code>null</code> result, but a lost connection
+ * is thrown, so the task does not wait for the connection with every following command.
+ */
+class BlockingCommandRunner {
+
+    private final UartCommandExecutor executor;
+    private final String tag;
+    private UartCommandPriority priority;
+    private long requestInterval = 0;
+
+    private Thread thread;
+    private boolean cancelled = false;
+    private volatile UartCommand<?> currentCommand;
+    private long lastRequestTime = 0;
+
+    /**
+     * @param executor
+     * @param tag the name of the thread and the log tag
+     */
+    BlockingCommandRunner(UartCommandExecutor executor, String tag) {
+        this.executor = executor;
+        this.tag = tag;
+    }
+
+    /**
+     * Sets the priority of the requests, <code>null</code> keeps the priority of the commands.
+     *
+     * @param priority
+     */
+    void setPriority(UartCommandPriority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Sets the minimum time between the start of two requests.
+     *
+     * @param requestInterval the interval in milliseconds
+     */
+    void setRequestInterval(long requestInterval) {
+        this.requestInterval = requestInterval;
+    }
+
+    /**
+     * Starts the task on a new thread. If a cancelled task has not exited yet, the new one waits
+     * for it, so two tasks never share the runner.
+     *
+     * @param task
+     * @return <code>false</code>, if a task is running already
+     */
+    synchronized boolean start(final Runnable task) {
+        if (this.isRunning() && !this.cancelled) {
+            return false;
+        }
+        final Thread previousThread = this.thread;
+        this.cancelled = false;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (previousThread != null && !awaitExit(previousThread)) {
+                    //Cancelled while waiting, the task stops at its first request
+                    Thread.currentThread().interrupt();
+                }
+                task.run();
+            }
+        }, this.tag);
+        this.thread.start();
+        return true;
+    }
+
+    /**
+     * Interrupts the task and cancels its running command. The task is running, until it has
+     * exited.
+     */
+    synchronized void cancel() {
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.cancelled = true;
+        }
+        UartCommand<?> command = this.currentCommand;
+        if (command != null) {
+            command.getFuture().cancel(false);
+        }
+    }
+
+    synchronized boolean isRunning() {
+        return this.thread != null && this.thread.isAlive();
+    }
+
+    //Returns false, if the waiting thread was interrupted
+    private static boolean awaitExit(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        return !interrupted;
+    }
+
+    /**
+     * Sends a command, when the request interval has elapsed, and waits for its result. Called
+     * on the thread of the task.
+     *
+     * @return <code>null</code>, if the command failed
+     * @throws UartConnectionException if the connection is not available
+     * @throws InterruptedException if the task was cancelled
+     */
+    <T> T request(UartCommand<T> command) throws UartConnectionException, InterruptedException {
+        long waitTime = this.lastRequestTime + this.requestInterval - System.currentTimeMillis();
+        if (waitTime > 0) {
+            Thread.sleep(waitTime);
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        this.lastRequestTime = System.currentTimeMillis();
+
+        if (this.priority != null) {
+            command.setPriority(this.priority);
+        }
+        this.currentCommand = command;
+        try {
+            return this.executor.submit(command).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UartConnectionException) {
+                throw (UartConnectionException)e.getCause();
+            }
+            Log.w(this.tag, "Request failed: " + command.getCommandText(), e.getCause());
+            return null;
+        } catch (CancellationException e) {
+            throw new InterruptedException();
+        } finally {
+            this.currentCommand = null;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Deletes a remote file. The result is the name of the deleted file.
+ */
+public class DeleteFileCommand extends UartCommand<String> {
+
+    private static final String TAG = "DeleteFileCommand";
+
+    private final String fileName;
+
+    public DeleteFileCommand(String fileName) {
+        super(UartMessageType.DELETE_FILE);
+        this.fileName = fileName;
+    }
+
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    @Override
+    protected String getCommandText() {
+        return "@DELF:" + this.fileName + "#";
+    }
+
+    @Override
+    protected void onFrame(UartFrameParser frame) {
+        if (frame.getFieldCount() > 1 && "OK".equals(frame.getField(0))) {
+            String fileName = frame.getField(1);
+            Log.i(TAG, fileName + " was deleted.");
+            this.sendMessage(UartGattCallback.FILE_DELETE_FINISHED, fileName);
+            this.complete(fileName);
+        } else {
+            Log.e(TAG, "File delete error: " + frame.getPayload());
+            this.fail(new IOException("File delete error: " + frame.getPayload()));
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes the received file content on its own thread, so a slow storage does not block the
+ * Bluetooth callback thread. The received bytes are copied into a bounded ring buffer, which
+ * is drained by the writer thread with large buffered writes. The file is synced to the storage
+ * once, when the download is finished.
+ *
+ * When the ring buffer fill level goes above the high watermark the writer reports backpressure,
+ * and it reports the end of it below the low watermark. If the ring buffer gets full the receiving
+ * thread has to wait for the writer, otherwise data would be lost.
+ *
+ * The written length is reported regularly after a flush, so an interrupted download can be
+ * resumed from the last checkpoint.
+ */
+public class DownloadFileWriter {
+
+    private static final String TAG = "DownloadFileWriter";
+
+    public static final int DEFAULT_CAPACITY = 256 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 128 * 1024;
+
+    public interface Listener {
+
+        /**
+         * Called when the writer starts or stops lagging behind the received data.
+         */
+        void onBackpressure(boolean lagging);
+
+        /**
+         * Called on the writer thread, when the first <code>length</code> bytes of the file were
+         * flushed. It is called after an abort as well.
+         */
+        void onCheckpoint(File file, long length);
+
+        /**
+         * Called on the writer thread, when all data is written and synced to the storage.
+         */
+        void onFinished(File file);
+
+        /**
+         * Called on the writer thread, when the file could not be written.
+         */
+        void onError(File file, IOException e);
+    }
+
+    private final File file;
+    private final Listener listener;
+
+    private final Object lock = new Object();
+    private final byte[] ring;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private int readPosition = 0;
+    private int count = 0;
+    private boolean finished = false;
+    private volatile boolean aborted = false;
+    private boolean lagging = false;
+    private IOException error;
+    private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private long writtenLength = 0;
+    private Thread writerThread;
+
+    public DownloadFileWriter(File file, Listener listener) {
+        this(file, DEFAULT_CAPACITY, listener);
+    }
+
+    public DownloadFileWriter(File file, int capacity, Listener listener) {
+        this.file = file;
+        this.listener = listener;
+        this.ring = new byte[capacity];
+        this.highWatermark = capacity * 3 / 4;
+        this.lowWatermark = capacity / 4;
+    }
+
+    /**
+     * Sets the number of written bytes between two checkpoints.
+     *
+     * @param checkpointInterval
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Truncates the file and starts the writer thread.
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        this.start(0);
+    }
+
+    /**
+     * Opens the file and starts the writer thread. The file has to be exactly <code>offset</code>
+     * bytes long, the received data is appended to it.
+     *
+     * @param offset
+     * @throws IOException
+     */
+    public void start(long offset) throws IOException {
+        final FileOutputStream fileStream = new FileOutputStream(this.file, offset > 0);
+        this.writtenLength = offset;
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain(fileStream);
+            }
+        }, TAG);
+        this.writerThread.start();
+    }
+
+    /**
+     * Copies the data into the ring buffer. Blocks only when the ring buffer is full.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return <code>false</code>, if the writer already failed or was aborted
+     */
+    public boolean write(byte[] data, int offset, int length) {
+        boolean lagStarted = false;
+        synchronized (this.lock) {
+            while (length > 0) {
+                if (this.error != null || this.aborted) {
+                    return false;
+                }
+                int free = this.ring.length - this.count;
+                if (free == 0) {
+                    this.waitForLock();
+                    continue;
+                }
+                int writePosition = (this.readPosition + this.count) % this.ring.length;
+                int size = Math.min(length, Math.min(free, this.ring.length - writePosition));
+                System.arraycopy(data, offset, this.ring, writePosition, size);
+                this.count += size;
+                offset += size;
+                length -= size;
+                this.lock.notifyAll();
+            }
+            if (!this.lagging && this.count > this.highWatermark) {
+                this.lagging = true;
+                lagStarted = true;
+            }
+        }
+        if (lagStarted) {
+            Log.w(TAG, "Writer is lagging behind the received data.");
+            this.listener.onBackpressure(true);
+        }
+        return true;
+    }
+
+    /**
+     * Signals that no more data will come. The remaining data is written and synced on the writer
+     * thread, then {@link Listener#onFinished(File)} is called.
+     */
+    public void finish() {
+        synchronized (this.lock) {
+            this.finished = true;
+            this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops the writer. The data received so far is written, but the file is not synced and
+     * {@link Listener#onFinished(File)} is not called. Waits until the file is closed, so the last
+     * checkpoint is reported, when it returns.
+     */
+    public void abort() {
+        synchronized (this.lock) {
+            this.aborted = true;
+            this.lock.notifyAll();
+        }
+        Thread thread = this.writerThread;
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void drain(FileOutputStream fileStream) {
+        BufferedOutputStream outputStream = new BufferedOutputStream(fileStream, OUTPUT_BUFFER_SIZE);
+        try {
+            while (true) {
+                int position;
+                int size;
+                synchronized (this.lock) {
+                    while (this.count == 0 && !this.finished && !this.aborted) {
+                        this.waitForLock();
+                    }
+                    if (this.count == 0) {
+                        break;
+                    }
+                    position = this.readPosition;
+                    size = Math.min(this.count, this.ring.length - position);
+                }
+
+                //The region is not touched by the receiving thread until the count is decreased
+                outputStream.write(this.ring, position, size);
+                long previousLength = this.writtenLength;
+                this.writtenLength += size;
+                if (previousLength / this.checkpointInterval != this.writtenLength / this.checkpointInterval) {
+                    outputStream.flush();
+                    this.listener.onCheckpoint(this.file, this.writtenLength);
+                }
+
+                boolean lagEnded = false;
+                synchronized (this.lock) {
+                    this.readPosition = (this.readPosition + size) % this.ring.length;
+                    this.count -= size;
+                    if (this.lagging && this.count < this.lowWatermark) {
+                        this.lagging = false;
+                        lagEnded = true;
+                    }
+                    this.lock.notifyAll();
+                }
+                if (lagEnded) {
+                    this.listener.onBackpressure(false);
+                }
+            }
+
+            outputStream.flush();
+            if (!this.aborted) {
+                fileStream.getFD().sync();
+            }
+            outputStream.close();
+            this.listener.onCheckpoint(this.file, this.writtenLength);
+            if (!this.aborted) {
+                this.listener.onFinished(this.file);
+            }
+        } catch (IOException ioe) {
+            Log.e(TAG, "Error during file download operation.", ioe);
+            synchronized (this.lock) {
+                this.error = ioe;
+                this.lock.notifyAll();
+            }
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error during file download file stream close operation.", e);
+            }
+            this.listener.onError(this.file, ioe);
+        }
+    }
+
+    //Has to be called holding the lock
+    private void waitForLock() {
+        try {
+            this.lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.aborted = true;
+        }
+    }
+}
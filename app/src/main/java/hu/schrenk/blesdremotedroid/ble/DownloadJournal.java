@@ -0,0 +1,142 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Records the progress of an interrupted download next to the partial file. The journal is valid
+ * only for the same remote file, so the remote size and modification date are stored with the
+ * confirmed byte count.
+ */
+public class DownloadJournal {
+
+    private static final String TAG = "DownloadJournal";
+
+    public static final String PARTIAL_FILE_SUFFIX = ".part";
+    public static final String JOURNAL_FILE_SUFFIX = ".journal";
+
+    private static final String KEY_REMOTE_NAME = "remoteName";
+    private static final String KEY_REMOTE_SIZE = "remoteSize";
+    private static final String KEY_REMOTE_MODIFIED = "remoteModified";
+    private static final String KEY_CONFIRMED_LENGTH = "confirmedLength";
+
+    private final File journalFile;
+    private final String remoteName;
+    private final long remoteSize;
+    private final String remoteModified;
+    private long confirmedLength = 0;
+
+    public DownloadJournal(File journalFile, RemoteFileInfo remoteFileInfo) {
+        this(journalFile, remoteFileInfo.getName(), remoteFileInfo.getSize(), remoteFileInfo.getModificationDate());
+    }
+
+    private DownloadJournal(File journalFile, String remoteName, long remoteSize, String remoteModified) {
+        this.journalFile = journalFile;
+        this.remoteName = remoteName;
+        this.remoteSize = remoteSize;
+        this.remoteModified = remoteModified;
+    }
+
+    /**
+     * Returns the partial file, which is renamed to the destination when the download is finished.
+     *
+     * @param downloadFile
+     */
+    public static File getPartialFile(File downloadFile) {
+        return new File(downloadFile.getPath() + PARTIAL_FILE_SUFFIX);
+    }
+
+    /**
+     * Returns the journal of the partial file.
+     *
+     * @param downloadFile
+     */
+    public static File getJournalFile(File downloadFile) {
+        return new File(getPartialFile(downloadFile).getPath() + JOURNAL_FILE_SUFFIX);
+    }
+
+    /**
+     * Reads a journal.
+     *
+     * @param journalFile
+     * @return <code>null</code>, if there is no journal or it can not be read
+     */
+    public static DownloadJournal load(File journalFile) {
+        if (!journalFile.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (FileInputStream fis = new FileInputStream(journalFile)) {
+            properties.load(fis);
+            DownloadJournal journal = new DownloadJournal(journalFile,
+                    properties.getProperty(KEY_REMOTE_NAME, ""),
+                    Long.parseLong(properties.getProperty(KEY_REMOTE_SIZE, "-1")),
+                    properties.getProperty(KEY_REMOTE_MODIFIED, ""));
+            journal.confirmedLength = Long.parseLong(properties.getProperty(KEY_CONFIRMED_LENGTH, "0"));
+            return journal;
+        } catch (IOException | NumberFormatException e) {
+            Log.e(TAG, "Journal could not be read: " + journalFile.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code>, if the journal belongs to the same version of the remote file.
+     *
+     * @param remoteFileInfo
+     */
+    public boolean matches(RemoteFileInfo remoteFileInfo) {
+        return this.remoteName.equals(remoteFileInfo.getName())
+                && this.remoteSize == remoteFileInfo.getSize()
+                && this.remoteModified.equals(remoteFileInfo.getModificationDate());
+    }
+
+    public long getRemoteSize() {
+        return this.remoteSize;
+    }
+
+    public long getConfirmedLength() {
+        return this.confirmedLength;
+    }
+
+    public void setConfirmedLength(long confirmedLength) {
+        this.confirmedLength = confirmedLength;
+    }
+
+    /**
+     * Writes the journal. A temporary file is renamed over the old journal, so an interrupted
+     * save does not leave a corrupt journal behind.
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_REMOTE_NAME, this.remoteName);
+        properties.setProperty(KEY_REMOTE_SIZE, String.valueOf(this.remoteSize));
+        properties.setProperty(KEY_REMOTE_MODIFIED, this.remoteModified);
+        properties.setProperty(KEY_CONFIRMED_LENGTH, String.valueOf(this.confirmedLength));
+
+        File temporaryFile = new File(this.journalFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temporaryFile)) {
+            properties.store(fos, null);
+            fos.getFD().sync();
+        }
+        if (!temporaryFile.renameTo(this.journalFile)) {
+            throw new IOException("Journal could not be renamed: " + this.journalFile.getName());
+        }
+    }
+
+    /**
+     * Removes the journal.
+     */
+    public void delete() {
+        if (this.journalFile.exists() && !this.journalFile.delete()) {
+            Log.e(TAG, "Journal could not be deleted: " + this.journalFile.getName());
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Downloads several files back-to-back. The INFO commands of all files are queued first, so the
+ * total size is known before the first byte is downloaded, then the GETF commands follow. The
+ * executor sends the next GETF as soon as the last byte of the previous file has arrived, the
+ * files are synced by their writer threads in the meantime.
+ *
+ * The aggregate progress is posted as {@link UartGattCallback#DOWNLOAD_QUEUE_PROGRESS} messages,
+ * and the list of downloaded files as a {@link UartGattCallback#DOWNLOAD_QUEUE_FINISHED} message.
+ * A failed file does not stop the queue.
+ */
+public class DownloadQueue implements GetFileCommand.ProgressListener {
+
+    private static final String TAG = "DownloadQueue";
+
+    /**
+     * A snapshot of the queue progress.
+     */
+    public static class Progress {
+
+        private final int fileCount;
+        private final int filesDone;
+        private final long totalBytes;
+        private final long bytesDone;
+        private final long remainingMillis;
+
+        Progress(int fileCount, int filesDone, long totalBytes, long bytesDone, long remainingMillis) {
+            this.fileCount = fileCount;
+            this.filesDone = filesDone;
+            this.totalBytes = totalBytes;
+            this.bytesDone = bytesDone;
+            this.remainingMillis = remainingMillis;
+        }
+
+        public int getFileCount() {
+            return this.fileCount;
+        }
+
+        public int getFilesDone() {
+            return this.filesDone;
+        }
+
+        public long getTotalBytes() {
+            return this.totalBytes;
+        }
+
+        public long getBytesDone() {
+            return this.bytesDone;
+        }
+
+        /**
+         * Returns the estimated time left, or -1 if it is not known yet.
+         */
+        public long getRemainingMillis() {
+            return this.remainingMillis;
+        }
+    }
+
+    private static class Entry {
+        final GetFileCommand command;
+        long size = 0;
+        long received = 0;
+
+        Entry(GetFileCommand command) {
+            this.command = command;
+        }
+    }
+
+    private final UartCommandExecutor executor;
+    private final Handler replyHandler;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<File> downloadedFiles = new ArrayList<>();
+    private final List<File> failedFiles = new ArrayList<>();
+    private final UartCommandFuture<List<File>> future = new UartCommandFuture<>();
+    private final ProgressReporter progressReporter = new ProgressReporter();
+    private boolean started = false;
+    private boolean compression = false;
+    private boolean verifiedBlocks = false;
+
+    //Running totals, so the per packet progress does not iterate the entries
+    private long totalBytes = 0;
+    private long bytesDone = 0;
+    private Entry currentEntry;
+
+    //The rate is measured from the first received byte, a resumed offset is not counted
+    private long firstByteTime = -1;
+    private long firstByteDone = 0;
+
+    /**
+     * @param executor the executor of the connection
+     * @param replyHandler the handler of the progress messages, can be <code>null</code>
+     */
+    public DownloadQueue(UartCommandExecutor executor, Handler replyHandler) {
+        this.executor = executor;
+        this.replyHandler = replyHandler;
+    }
+
+    /**
+     * Offers compressed transfers to the device for the files added after this call.
+     *
+     * @param compression
+     */
+    public synchronized void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Offers block-framed transfers with selective retransmission to the device for the files
+     * added after this call.
+     *
+     * @param verifiedBlocks
+     */
+    public synchronized void setVerifiedBlocks(boolean verifiedBlocks) {
+        this.verifiedBlocks = verifiedBlocks;
+    }
+
+    /**
+     * Adds a file to the queue. Has to be called before {@link #start()}.
+     *
+     * @param remoteName the remote file path
+     * @param localFile the local destination
+     */
+    public synchronized void add(String remoteName, File localFile) {
+        if (this.started) {
+            throw new IllegalStateException("Download queue was already started.");
+        }
+        GetFileCommand command = new GetFileCommand(remoteName, localFile);
+        command.setProgressListener(this);
+        command.setCompression(this.compression);
+        command.setVerifiedBlocks(this.verifiedBlocks);
+        this.entries.add(new Entry(command));
+    }
+
+    /**
+     * Queues the commands of all files.
+     *
+     * @return the future of the downloaded files
+     */
+    public UartCommandFuture<List<File>> start() {
+        List<Entry> queuedEntries;
+        synchronized (this) {
+            this.started = true;
+            queuedEntries = new ArrayList<>(this.entries);
+        }
+        if (queuedEntries.isEmpty()) {
+            this.finish();
+            return this.future;
+        }
+
+        for (final Entry entry : queuedEntries) {
+            this.executor.submit(new InfoCommand(entry.command.getFileName())).addListener(new UartCommandFuture.Listener<RemoteFileInfo>() {
+                @Override
+                public void onDone(UartCommandFuture<RemoteFileInfo> future) {
+                    infoReceived(entry, future.getNow());
+                }
+            });
+        }
+        for (final Entry entry : queuedEntries) {
+            this.executor.submit(entry.command).addListener(new UartCommandFuture.Listener<File>() {
+                @Override
+                public void onDone(UartCommandFuture<File> future) {
+                    fileDone(entry, future.isSuccessful());
+                }
+            });
+        }
+        return this.future;
+    }
+
+    /**
+     * Drops the files, which were not started yet.
+     */
+    public void cancel() {
+        List<Entry> cancelledEntries;
+        synchronized (this) {
+            cancelledEntries = new ArrayList<>(this.entries);
+        }
+        for (Entry entry : cancelledEntries) {
+            entry.command.getFuture().cancel(false);
+        }
+    }
+
+    public List<File> getFailedFiles() {
+        synchronized (this) {
+            return new ArrayList<>(this.failedFiles);
+        }
+    }
+
+    private void infoReceived(Entry entry, RemoteFileInfo remoteFileInfo) {
+        // The GETF command is queued after the INFO, so it is not started yet
+        entry.command.setRemoteFileInfo(remoteFileInfo);
+        synchronized (this) {
+            if (remoteFileInfo != null) {
+                this.setSize(entry, remoteFileInfo.getSize());
+            }
+        }
+    }
+
+    @Override
+    public void onProgress(GetFileCommand command, long received, long size) {
+        Progress progress = null;
+        synchronized (this) {
+            Entry entry = this.findEntry(command);
+            if (entry == null) {
+                return;
+            }
+            if (entry.size != size) {
+                // The file changed since the INFO reply
+                this.setSize(entry, size);
+            }
+            this.setReceived(entry, received);
+            if (this.firstByteTime < 0) {
+                this.firstByteTime = System.nanoTime();
+                this.firstByteDone = this.bytesDone;
+            }
+            if (this.progressReporter.update(this.bytesDone)) {
+                progress = this.getProgress();
+            }
+        }
+        if (progress != null && this.replyHandler != null) {
+            this.replyHandler.sendMessage(this.replyHandler.obtainMessage(UartGattCallback.DOWNLOAD_QUEUE_PROGRESS, progress));
+        }
+    }
+
+    private void fileDone(Entry entry, boolean successful) {
+        boolean finished;
+        Progress progress;
+        synchronized (this) {
+            File file = entry.command.getDownloadFile();
+            if (successful) {
+                this.setReceived(entry, entry.size);
+                this.downloadedFiles.add(file);
+            } else {
+                Log.e(TAG, "File download failed: " + file.getName());
+                this.failedFiles.add(file);
+            }
+            finished = this.downloadedFiles.size() + this.failedFiles.size() == this.entries.size();
+            progress = this.getProgress();
+        }
+        if (this.replyHandler != null) {
+            this.replyHandler.sendMessage(this.replyHandler.obtainMessage(UartGattCallback.DOWNLOAD_QUEUE_PROGRESS, progress));
+        }
+        if (finished) {
+            this.finish();
+        }
+    }
+
+    private void finish() {
+        List<File> result;
+        synchronized (this) {
+            result = new ArrayList<>(this.downloadedFiles);
+        }
+        Log.i(TAG, "Download queue was finished, downloaded: " + result.size() + " failed: " + this.getFailedFiles().size());
+        if (this.replyHandler != null) {
+            this.replyHandler.sendMessage(this.replyHandler.obtainMessage(UartGattCallback.DOWNLOAD_QUEUE_FINISHED, result));
+        }
+        this.future.complete(result);
+    }
+
+    /**
+     * Returns the current progress of the queue.
+     */
+    public synchronized Progress getProgress() {
+        long totalBytes = this.totalBytes;
+        long bytesDone = this.bytesDone;
+        long remainingMillis = -1;
+        if (this.firstByteTime >= 0 && bytesDone > this.firstByteDone) {
+            long elapsedMillis = (System.nanoTime() - this.firstByteTime) / 1000000;
+            remainingMillis = (totalBytes - bytesDone) * elapsedMillis / (bytesDone - this.firstByteDone);
+        }
+        return new Progress(this.entries.size(), this.downloadedFiles.size() + this.failedFiles.size(), totalBytes, bytesDone, remainingMillis);
+    }
+
+    //Has to be called holding the monitor
+    private void setSize(Entry entry, long size) {
+        this.totalBytes += size - entry.size;
+        entry.size = size;
+        this.progressReporter.start(this.totalBytes);
+    }
+
+    //Has to be called holding the monitor
+    private void setReceived(Entry entry, long received) {
+        this.bytesDone += received - entry.received;
+        entry.received = received;
+    }
+
+    //Has to be called holding the monitor
+    private Entry findEntry(GetFileCommand command) {
+        // The files are downloaded in order, so the lookup is needed only once per file
+        if (this.currentEntry != null && this.currentEntry.command == command) {
+            return this.currentEntry;
+        }
+        for (Entry entry : this.entries) {
+            if (entry.command == command) {
+                this.currentEntry = entry;
+                return entry;
+            }
+        }
+        return null;
+    }
+}
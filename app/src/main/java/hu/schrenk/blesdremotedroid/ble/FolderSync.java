@@ -0,0 +1,424 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Synchronizes a local folder with a remote folder in both directions. The remote tree is listed
+ * and the remote files are queried in {@link MetadataCommand} batches, or one by one with INFO
+ * on a device without batched metadata. Then both trees are compared with the
+ * {@link SyncState} of the last sync:
+ * <ul>
+ * <li>a file changed only on one side is copied to the other side,</li>
+ * <li>a new file is copied to the side, where it is missing,</li>
+ * <li>a file changed on both sides is a conflict, it is left alone,</li>
+ * <li>a file deleted on one side is not copied back, deletions are not synchronized.</li>
+ * </ul>
+ * Without a state the same size means unchanged, otherwise the newer copy wins.
+ *
+ * The comparison is posted as a {@link SyncPlan} in a {@link UartGattCallback#SYNC_PLAN_READY}
+ * message, and the transfers are made only if the plan is run. They use the normal GETF and PUTF
+ * commands one at a time, the state is saved after every transfer.
+ */
+public class FolderSync {
+
+    private static final String TAG = "FolderSync";
+
+    private static final String REMOTE_DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    private final BlockingCommandRunner runner;
+    private final File localRoot;
+    private final String remoteRoot;
+    private final Handler replyHandler;
+    private boolean compression = false;
+    private boolean verifiedBlocks = false;
+
+    private SyncState state;
+    //Batched metadata is used, until the device fails to answer it the first time
+    private boolean batchedMetadata = true;
+    private boolean batchedMetadataConfirmed = false;
+
+    /**
+     * @param executor
+     * @param localRoot the local folder
+     * @param remoteRoot the remote folder path, "" for the root
+     * @param replyHandler the handler of the plan and progress messages, can be <code>null</code>
+     */
+    public FolderSync(UartCommandExecutor executor, File localRoot, String remoteRoot, Handler replyHandler) {
+        this.runner = new BlockingCommandRunner(executor, TAG);
+        this.localRoot = localRoot;
+        this.remoteRoot = remoteRoot;
+        this.replyHandler = replyHandler;
+    }
+
+    /**
+     * Offers compressed transfers to the device.
+     *
+     * @param compression
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Offers block-framed downloads with selective retransmission to the device.
+     *
+     * @param verifiedBlocks
+     */
+    public void setVerifiedBlocks(boolean verifiedBlocks) {
+        this.verifiedBlocks = verifiedBlocks;
+    }
+
+    /**
+     * Compares the folders on a background thread. The plan is posted in a
+     * {@link UartGattCallback#SYNC_PLAN_READY} message, a failure in a
+     * {@link UartGattCallback#SYNC_ERROR} message.
+     */
+    public synchronized void startPlanning() {
+        this.startThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sendMessage(UartGattCallback.SYNC_PLAN_READY, createPlan());
+                } catch (IOException e) {
+                    Log.e(TAG, "Sync plan could not be created.", e);
+                    sendMessage(UartGattCallback.SYNC_ERROR, e);
+                } catch (InterruptedException e) {
+                    Log.i(TAG, "Sync planning was cancelled.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a plan on a background thread. The progress is posted in
+     * {@link UartGattCallback#SYNC_PROGRESS} messages, the number of the transferred and the failed
+     * files in a {@link UartGattCallback#SYNC_FINISHED} message. A lost connection stops the sync
+     * with a {@link UartGattCallback#SYNC_ERROR} message.
+     *
+     * @param plan the plan created by this sync
+     */
+    public synchronized void startSync(final SyncPlan plan) {
+        this.startThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<SyncPlan.Action> failedActions = sync(plan);
+                    int transferCount = plan.getCount(SyncPlan.ActionType.DOWNLOAD)
+                            + plan.getCount(SyncPlan.ActionType.UPLOAD) - failedActions.size();
+                    sendMessage(UartGattCallback.SYNC_FINISHED, transferCount, failedActions.size());
+                } catch (UartConnectionException e) {
+                    Log.e(TAG, "Sync was stopped.", e);
+                    sendMessage(UartGattCallback.SYNC_ERROR, e);
+                } catch (InterruptedException e) {
+                    Log.i(TAG, "Sync was cancelled.");
+                }
+            }
+        });
+    }
+
+    private void startThread(Runnable runnable) {
+        if (!this.runner.start(runnable)) {
+            throw new IllegalStateException("Sync is running already.");
+        }
+    }
+
+    /**
+     * Stops the planning or the sync. The finished transfers stay recorded in the state.
+     */
+    public void cancel() {
+        this.runner.cancel();
+    }
+
+    public boolean isRunning() {
+        return this.runner.isRunning();
+    }
+
+    /**
+     * Compares the folders on the calling thread.
+     *
+     * @return the plan
+     * @throws IOException if the remote tree could not be listed
+     * @throws InterruptedException if the planning was cancelled
+     */
+    public SyncPlan createPlan() throws IOException, InterruptedException {
+        this.state = SyncState.load(this.localRoot, this.remoteRoot);
+        Map<String, RemoteFileInfo> remoteFiles = this.scanRemote();
+        Map<String, File> localFiles = new TreeMap<>();
+        this.scanLocal(this.localRoot, "", localFiles);
+
+        SyncPlan plan = new SyncPlan();
+        TreeSet<String> paths = new TreeSet<>(remoteFiles.keySet());
+        paths.addAll(localFiles.keySet());
+        for (String path : paths) {
+            File localFile = localFiles.get(path);
+            RemoteFileInfo remoteFileInfo = remoteFiles.get(path);
+            SyncPlan.ActionType type = this.compare(plan, path, localFile, remoteFileInfo);
+            if (type == null) {
+                continue;
+            }
+            if (localFile == null) {
+                localFile = new File(this.localRoot, path);
+            }
+            long size = type == SyncPlan.ActionType.UPLOAD ? localFile.length() : remoteFileInfo.getSize();
+            SyncPlan.Action action = new SyncPlan.Action(type, path, localFile, this.getRemotePath(path), size);
+            action.setRemoteFileInfo(remoteFileInfo);
+            plan.add(action);
+        }
+        Log.i(TAG, "Sync plan: " + plan.getCount(SyncPlan.ActionType.DOWNLOAD) + " downloads, "
+                + plan.getCount(SyncPlan.ActionType.UPLOAD) + " uploads, "
+                + plan.getCount(SyncPlan.ActionType.CONFLICT) + " conflicts, "
+                + plan.getUnchangedCount() + " unchanged, " + plan.getDeletedCount() + " deleted");
+        return plan;
+    }
+
+    /**
+     * Returns the action of a file, <code>null</code> if it is unchanged or deleted on one side.
+     * These are only counted in the plan, and the unchanged files are recorded in the state.
+     */
+    private SyncPlan.ActionType compare(SyncPlan plan, String path, File localFile, RemoteFileInfo remoteFileInfo) {
+        SyncState.Record record = this.state.get(path);
+        if (localFile == null || remoteFileInfo == null) {
+            if (record != null) {
+                boolean changed = localFile == null ? record.isRemoteChanged(remoteFileInfo) : record.isLocalChanged(localFile);
+                if (!changed) {
+                    //Deleted on the other side
+                    this.state.remove(path);
+                    plan.addDeleted();
+                    return null;
+                }
+            }
+            return localFile == null ? SyncPlan.ActionType.DOWNLOAD : SyncPlan.ActionType.UPLOAD;
+        }
+
+        if (record == null) {
+            if (localFile.length() == remoteFileInfo.getSize()) {
+                this.state.put(path, localFile, remoteFileInfo);
+                plan.addUnchanged();
+                return null;
+            }
+            long remoteModified = parseRemoteDate(remoteFileInfo.getModificationDate());
+            if (remoteModified < 0) {
+                return SyncPlan.ActionType.CONFLICT;
+            }
+            return remoteModified > localFile.lastModified() ? SyncPlan.ActionType.DOWNLOAD : SyncPlan.ActionType.UPLOAD;
+        }
+
+        boolean localChanged = record.isLocalChanged(localFile);
+        boolean remoteChanged = record.isRemoteChanged(remoteFileInfo);
+        if (localChanged && remoteChanged) {
+            return SyncPlan.ActionType.CONFLICT;
+        } else if (localChanged) {
+            return SyncPlan.ActionType.UPLOAD;
+        } else if (remoteChanged) {
+            return SyncPlan.ActionType.DOWNLOAD;
+        }
+        plan.addUnchanged();
+        return null;
+    }
+
+    /**
+     * Runs a plan on the calling thread. A failed transfer is skipped, it is planned again by the
+     * next sync.
+     *
+     * @param plan the plan created by this sync
+     * @return the failed actions
+     * @throws UartConnectionException if the connection was lost
+     * @throws InterruptedException if the sync was cancelled
+     */
+    public List<SyncPlan.Action> sync(SyncPlan plan) throws UartConnectionException, InterruptedException {
+        List<SyncPlan.Action> failedActions = new ArrayList<>();
+        List<SyncPlan.Action> actions = plan.getActions();
+        int done = 0;
+        try {
+            for (SyncPlan.Action action : actions) {
+                if (action.getType() == SyncPlan.ActionType.DOWNLOAD) {
+                    if (!this.download(action)) {
+                        failedActions.add(action);
+                    }
+                } else if (action.getType() == SyncPlan.ActionType.UPLOAD) {
+                    if (!this.upload(action)) {
+                        failedActions.add(action);
+                    }
+                }
+                this.saveState();
+                this.sendMessage(UartGattCallback.SYNC_PROGRESS, ++done, actions.size());
+            }
+        } finally {
+            this.saveState();
+        }
+        Log.i(TAG, "Sync was finished, failed transfers: " + failedActions.size());
+        return failedActions;
+    }
+
+    private boolean download(SyncPlan.Action action) throws UartConnectionException, InterruptedException {
+        File localFile = action.getLocalFile();
+        File directory = localFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Directory could not be created: " + directory.getPath());
+            return false;
+        }
+        GetFileCommand command = new GetFileCommand(action.getRemotePath(), localFile, action.getRemoteFileInfo());
+        command.setCompression(this.compression);
+        command.setVerifiedBlocks(this.verifiedBlocks);
+        if (this.runner.request(command) == null) {
+            return false;
+        }
+        this.state.put(action.getPath(), localFile, action.getRemoteFileInfo());
+        return true;
+    }
+
+    private boolean upload(SyncPlan.Action action) throws UartConnectionException, InterruptedException {
+        PutFileCommand command = new PutFileCommand(action.getLocalFile(), action.getRemotePath());
+        command.setCompression(this.compression);
+        if (this.runner.request(command) == null) {
+            return false;
+        }
+        //The device sets the date of the uploaded file
+        RemoteFileInfo remoteFileInfo = this.runner.request(new InfoCommand(action.getRemotePath()));
+        if (remoteFileInfo != null) {
+            this.state.put(action.getPath(), action.getLocalFile(), remoteFileInfo);
+        }
+        return true;
+    }
+
+    private Map<String, RemoteFileInfo> scanRemote() throws IOException, InterruptedException {
+        Map<String, RemoteFileInfo> remoteFiles = new TreeMap<>();
+        Deque<String> directories = new ArrayDeque<>();
+        directories.add(""); //The remote root
+        while (!directories.isEmpty()) {
+            String directory = directories.poll();
+            String listing = this.runner.request(new ListCommand(this.getRemotePath(directory)));
+            if (listing == null) {
+                //A missing listing would make its files look new
+                throw new IOException("Remote folder could not be listed: " + this.getRemotePath(directory));
+            }
+            List<String> names = new ArrayList<>();
+            for (String name : listing.split(",")) {
+                if (name.isEmpty() || "../".equals(name)) {
+                    continue;
+                }
+                if (name.endsWith("/")) {
+                    directories.add(getChildPath(directory, name.substring(0, name.length() - 1)));
+                } else {
+                    names.add(name);
+                }
+            }
+            for (RemoteFileInfo remoteFileInfo : this.requestMetadata(this.getRemotePath(directory), names)) {
+                String remotePath = remoteFileInfo.getName();
+                remoteFiles.put(getChildPath(directory, remotePath.substring(remotePath.lastIndexOf('/') + 1)), remoteFileInfo);
+            }
+        }
+        return remoteFiles;
+    }
+
+    /**
+     * Queries the files of a directory in {@link MetadataCommand} batches. If the device does not
+     * answer the first batch, every file is queried with INFO.
+     *
+     * @return the file infos named by their full remote path, a file deleted since the listing is
+     * left out
+     */
+    private List<RemoteFileInfo> requestMetadata(String remoteDirectory, List<String> names) throws IOException, InterruptedException {
+        List<RemoteFileInfo> remoteFileInfos = new ArrayList<>();
+        for (MetadataCommand command : MetadataCommand.createBatches(remoteDirectory, names)) {
+            List<RemoteFileInfo> batch = this.batchedMetadata ? this.runner.request(command) : null;
+            if (batch != null) {
+                remoteFileInfos.addAll(batch);
+                this.batchedMetadataConfirmed = true;
+                continue;
+            }
+            if (!this.batchedMetadataConfirmed) {
+                this.batchedMetadata = false;
+            }
+            for (String name : command.getNames()) {
+                String remotePath = getChildPath(remoteDirectory, name);
+                RemoteFileInfo remoteFileInfo = this.runner.request(new InfoCommand(remotePath));
+                if (remoteFileInfo == null) {
+                    throw new IOException("Remote file could not be queried: " + remotePath);
+                }
+                remoteFileInfos.add(new RemoteFileInfo(remotePath, remoteFileInfo.getSize(),
+                        remoteFileInfo.getCreationDate(), remoteFileInfo.getModificationDate()));
+            }
+        }
+        return remoteFileInfos;
+    }
+
+    private void scanLocal(File directory, String path, Map<String, File> localFiles) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            String childPath = getChildPath(path, name);
+            if (file.isDirectory()) {
+                this.scanLocal(file, childPath, localFiles);
+            } else if (!name.startsWith(SyncState.STATE_FILE_NAME)
+                    && !name.endsWith(DownloadJournal.PARTIAL_FILE_SUFFIX)
+                    && !name.endsWith(DownloadJournal.JOURNAL_FILE_SUFFIX)) {
+                localFiles.put(childPath, file);
+            }
+        }
+    }
+
+    private void saveState() {
+        try {
+            this.state.save();
+        } catch (IOException e) {
+            Log.e(TAG, "Sync state could not be saved.", e);
+        }
+    }
+
+    private String getRemotePath(String path) {
+        return getChildPath(this.remoteRoot, path);
+    }
+
+    private static String getChildPath(String path, String name) {
+        if ("".equals(name)) {
+            return path;
+        }
+        return "".equals(path) ? name : path + "/" + name;
+    }
+
+    /**
+     * Parses a date of an INFO reply in the local time zone.
+     *
+     * @return <code>-1</code>, if the date can not be parsed
+     */
+    static long parseRemoteDate(String date) {
+        if (date == null) {
+            return -1;
+        }
+        try {
+            return new SimpleDateFormat(REMOTE_DATE_PATTERN, Locale.US).parse(date).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private void sendMessage(int what, Object obj) {
+        if (this.replyHandler != null) {
+            this.replyHandler.sendMessage(this.replyHandler.obtainMessage(what, obj));
+        }
+    }
+
+    private void sendMessage(int what, int arg1, int arg2) {
+        if (this.replyHandler != null) {
+            this.replyHandler.sendMessage(this.replyHandler.obtainMessage(what, arg1, arg2));
+        }
+    }
+}
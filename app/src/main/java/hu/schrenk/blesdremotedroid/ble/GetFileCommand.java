@@ -0,0 +1,564 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads a remote file. The reply is a <code>@size#</code> header followed by the raw file
+ * content. The result is the local file, which is complete when the writer synced it.
+ *
+ * If the remote file info is known, the download is resumable: the content is written into a
+ * partial file, and a {@link DownloadJournal} records the confirmed length. The next download of
+ * the same remote file requests only the missing range with <code>@GETF:name%offset%length#</code>,
+ * which is answered by a <code>@size%offset%length#</code> header. A device answering a ranged
+ * request with the whole file is handled as well, the download is restarted from zero then.
+ *
+ * If compression is enabled and the remote file info is known, the ranged request is sent with a
+ * <code>%Z</code> flag. A device supporting compression answers with a
+ * <code>@size%offset%length%Z#</code> header and sends the range as {@link BlockCompressor}
+ * blocks, any other header means raw content.
+ *
+ * If verified blocks are enabled, the ranged request is sent with a <code>%B</code> flag, which
+ * is accepted with a <code>@size%offset%length%B%blockSize#</code> header. The range is sent in
+ * CRC32 checked blocks, one in every notification (see {@link BlockReceiver}). After the first
+ * pass the lost and corrupt blocks are requested again with <code>@RSND:seq%seq#</code>, until
+ * every block is received. The flags can be offered together, the device accepts one of them.
+ */
+public class GetFileCommand extends UartCommand<File> {
+
+    private static final String TAG = "GetFileCommand";
+
+    public static final long DEFAULT_ROUND_TIMEOUT = 500; //ms
+    //A RSND command has to fit into the command buffer of the device
+    private static final int MAX_RESEND_SEQUENCES = 24;
+    private static final int MAX_FUTILE_ROUNDS = 3;
+
+    public interface ProgressListener {
+
+        /**
+         * Called on the Bluetooth callback thread, when file content was received.
+         *
+         * @param command
+         * @param received the number of bytes received, including a resumed offset
+         * @param size the size of the remote file
+         */
+        void onProgress(GetFileCommand command, long received, long size);
+    }
+
+    private final String fileName;
+    private final File downloadFile;
+    private volatile RemoteFileInfo remoteFileInfo;
+    private ProgressListener progressListener;
+    private boolean compression = false;
+    private boolean verifiedBlocks = false;
+    private long roundTimeout = DEFAULT_ROUND_TIMEOUT;
+
+    private File targetFile;
+    private DownloadJournal journal;
+    private long requestedOffset = 0;
+
+    //Taken by the first of the finish and the fail paths, which can run on different threads
+    private volatile DownloadFileWriter downloadFileWriter;
+    private volatile BlockDecompressor decompressor;
+    private volatile BlockReceiver blockReceiver;
+    private long contentOffset = 0;
+    private final CountDownLatch headerLatch = new CountDownLatch(1);
+    private final BlockDecompressor.Output decodedContentOutput = new BlockDecompressor.Output() {
+        @Override
+        public boolean write(byte[] data, int offset, int length) {
+            return writeContent(data, offset, length);
+        }
+    };
+    private volatile boolean isDownloading = false;
+    private int downloadFileSize = 0;
+    private int downloadSizeReceived = 0;
+    private final ProgressReporter downloadProgressReporter = new ProgressReporter();
+
+    /**
+     * @param fileName the remote file path
+     * @param downloadFile the local destination, it is overwritten
+     */
+    public GetFileCommand(String fileName, File downloadFile) {
+        this(fileName, downloadFile, null);
+    }
+
+    /**
+     * @param fileName the remote file path
+     * @param downloadFile the local destination, it is overwritten
+     * @param remoteFileInfo the INFO reply of the remote file, the download is resumable if it is set
+     */
+    public GetFileCommand(String fileName, File downloadFile, RemoteFileInfo remoteFileInfo) {
+        super(UartMessageType.GET_FILE);
+        this.fileName = fileName;
+        this.downloadFile = downloadFile;
+        this.remoteFileInfo = remoteFileInfo;
+    }
+
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    public File getDownloadFile() {
+        return this.downloadFile;
+    }
+
+    /**
+     * Sets the INFO reply of the remote file, the download is resumable if it is set. It can be set
+     * until the command is started, e.g. by the INFO command queued before it.
+     *
+     * @param remoteFileInfo
+     */
+    public void setRemoteFileInfo(RemoteFileInfo remoteFileInfo) {
+        this.remoteFileInfo = remoteFileInfo;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Offers a compressed transfer to the device. It is used only if the remote file info is known.
+     *
+     * @param compression
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Offers a block-framed transfer with selective retransmission to the device. It is used only
+     * if the remote file info is known.
+     *
+     * @param verifiedBlocks
+     */
+    public void setVerifiedBlocks(boolean verifiedBlocks) {
+        this.verifiedBlocks = verifiedBlocks;
+    }
+
+    /**
+     * Sets the time without a received block, after which a round of a block-framed transfer ends.
+     *
+     * @param roundTimeout
+     */
+    public void setRoundTimeout(long roundTimeout) {
+        this.roundTimeout = roundTimeout;
+    }
+
+    /**
+     * Returns <code>true</code>, if the device accepted the block-framed transfer.
+     */
+    public boolean isBlockFramed() {
+        return this.blockReceiver != null;
+    }
+
+    /**
+     * Returns the number of blocks received again after the first pass.
+     */
+    public int getResentBlockCount() {
+        BlockReceiver receiver = this.blockReceiver;
+        return receiver == null ? 0 : receiver.getResentBlocks();
+    }
+
+    /**
+     * Returns the offset, the download was requested from.
+     */
+    public long getRequestedOffset() {
+        return this.requestedOffset;
+    }
+
+    @Override
+    protected String getCommandText() {
+        String flags = (this.compression ? "Z" : "") + (this.verifiedBlocks ? "B" : "");
+        if (!flags.isEmpty() && this.remoteFileInfo != null) {
+            long length = this.remoteFileInfo.getSize() - this.requestedOffset;
+            return "@GETF:" + this.fileName + "%" + this.requestedOffset + "%" + length + "%" + flags + "#";
+        }
+        if (this.requestedOffset > 0) {
+            long length = this.remoteFileInfo.getSize() - this.requestedOffset;
+            return "@GETF:" + this.fileName + "%" + this.requestedOffset + "%" + length + "#";
+        }
+        return "@GETF:" + this.fileName + "#";
+    }
+
+    @Override
+    protected void execute(UartLink link) throws IOException, InterruptedException {
+        if (this.remoteFileInfo == null) {
+            this.targetFile = this.downloadFile;
+        } else {
+            this.targetFile = DownloadJournal.getPartialFile(this.downloadFile);
+            this.prepareResume();
+        }
+        if (this.requestedOffset == 0) {
+            this.createEmptyFile(this.targetFile);
+        }
+        super.execute(link);
+
+        if (this.verifiedBlocks && this.headerLatch.await(this.getReplyTimeout(), TimeUnit.MILLISECONDS)) {
+            BlockReceiver receiver = this.blockReceiver;
+            if (receiver != null) {
+                this.receiveBlocks(link, receiver);
+            }
+        }
+    }
+
+    private void receiveBlocks(UartLink link, BlockReceiver receiver) throws IOException, InterruptedException {
+        receiver.awaitFirstPass(this.roundTimeout);
+        if (!receiver.endFirstPass()) {
+            // The writer failed and already reported the error
+            return;
+        }
+        Log.i(TAG, "First pass of " + this.fileName + ": " + receiver.getMissingCount() + " of "
+                + receiver.getBlockCount() + " blocks are missing, " + receiver.getCorruptBlocks() + " were corrupt");
+
+        int futileRounds = 0;
+        while (!this.getFuture().isDone()) {
+            if (receiver.isComplete()) {
+                this.finishDownload();
+                return;
+            }
+            int missingCount = receiver.getMissingCount();
+            List<Integer> sequences = receiver.getMissing(MAX_RESEND_SEQUENCES);
+            StringBuilder command = new StringBuilder("@RSND:");
+            for (int i = 0; i < sequences.size(); i++) {
+                command.append(i == 0 ? "" : "%").append(sequences.get(i));
+            }
+            if (!link.sendCommand(command.append('#').toString())) {
+                throw new IOException("Command could not be sent: " + command);
+            }
+            receiver.awaitBlocks(sequences, this.roundTimeout);
+
+            futileRounds = receiver.getMissingCount() < missingCount ? 0 : futileRounds + 1;
+            if (futileRounds >= MAX_FUTILE_ROUNDS) {
+                this.fail(new IOException("Blocks were not resent for: " + this.fileName));
+                return;
+            }
+        }
+    }
+
+    private void prepareResume() throws IOException {
+        File journalFile = DownloadJournal.getJournalFile(this.downloadFile);
+        DownloadJournal previousJournal = DownloadJournal.load(journalFile);
+        if (previousJournal != null && previousJournal.matches(this.remoteFileInfo)
+                && previousJournal.getConfirmedLength() < previousJournal.getRemoteSize()
+                && this.targetFile.length() >= previousJournal.getConfirmedLength()) {
+            this.journal = previousJournal;
+            this.requestedOffset = previousJournal.getConfirmedLength();
+            // Drop the bytes written after the last checkpoint
+            try (RandomAccessFile partialFile = new RandomAccessFile(this.targetFile, "rw")) {
+                partialFile.setLength(this.requestedOffset);
+            }
+            Log.i(TAG, "Download is resumed for: " + this.fileName + " from: " + this.requestedOffset);
+        } else {
+            this.journal = new DownloadJournal(journalFile, this.remoteFileInfo);
+            this.journal.save();
+            this.requestedOffset = 0;
+        }
+    }
+
+    private void createEmptyFile(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException(file.getName() + " could not be deleted!");
+        }
+        if (!file.createNewFile()) {
+            throw new IOException(file.getName() + " could not be created!");
+        }
+    }
+
+    @Override
+    protected void onFrame(UartFrameParser frame) {
+        this.parseHeader(frame);
+        this.headerLatch.countDown();
+    }
+
+    private void parseHeader(UartFrameParser frame) {
+        String flags = frame.getFieldCount() > 3 ? frame.getField(3) : "";
+        int blockSize = 0;
+        long offset = 0;
+        String fileSizeText = frame.getField(0);
+        try {
+            this.downloadFileSize = Integer.valueOf(fileSizeText);
+            if (frame.getFieldCount() > 1) {
+                offset = Long.parseLong(frame.getField(1));
+            }
+            if (flags.contains("B")) {
+                blockSize = Integer.parseInt(frame.getField(4));
+            }
+        } catch (NumberFormatException nfe) {
+            Log.e(TAG, "Unable to parse download header: " + frame.getPayload());
+            this.fail(new IOException("Invalid download header: " + frame.getPayload()));
+            return;
+        }
+        if (flags.contains("B") && blockSize <= 0) {
+            this.fail(new IOException("Invalid block size: " + blockSize));
+            return;
+        }
+        if (offset != 0 && offset != this.requestedOffset) {
+            this.fail(new IOException("Unexpected download offset: " + offset + " requested: " + this.requestedOffset));
+            return;
+        }
+        if (offset == 0 && this.requestedOffset > 0) {
+            Log.w(TAG, "Ranged download is not supported, restarting from zero: " + this.fileName);
+        }
+
+        DownloadFileWriter writer;
+        try {
+            Log.i(TAG, "Download can be started for: " + this.targetFile.getName() + " from: " + offset);
+            if (offset == 0) {
+                this.resetJournal();
+            }
+            writer = new DownloadFileWriter(this.targetFile, new DownloadWriterListener());
+            writer.start(offset);
+        } catch (IOException ioe) {
+            Log.e(TAG, this.targetFile.getName() + " could not be opened!", ioe);
+            this.fail(ioe);
+            return;
+        }
+        this.downloadFileWriter = writer;
+
+        if (flags.contains("B")) {
+            Log.i(TAG, "Block-framed download: " + this.fileName + " block size: " + blockSize);
+            this.blockReceiver = new BlockReceiver(this.downloadFileSize - offset, blockSize, writer);
+        } else if (flags.contains("Z")) {
+            Log.i(TAG, "Compressed download: " + this.fileName);
+            this.decompressor = new BlockDecompressor(this.downloadFileSize - offset);
+        }
+
+        this.contentOffset = offset;
+        this.downloadSizeReceived = (int)offset;
+        this.downloadProgressReporter.start(this.downloadFileSize);
+        this.sendMessage(UartGattCallback.FILE_DOWNLOAD_STARTED, this.downloadFileSize);
+        if (this.progressListener != null) {
+            this.progressListener.onProgress(this, this.downloadSizeReceived, this.downloadFileSize);
+        }
+        Log.i(TAG, "File size: " + this.downloadFileSize);
+        this.isDownloading = true; //Switch to downloading mode
+        if (this.downloadSizeReceived >= this.downloadFileSize) {
+            this.finishDownload();
+        }
+    }
+
+    private void resetJournal() throws IOException {
+        if (this.journal != null) {
+            this.journal.setConfirmedLength(0);
+            this.journal.save();
+        }
+        if (this.requestedOffset > 0) {
+            try (RandomAccessFile partialFile = new RandomAccessFile(this.targetFile, "rw")) {
+                partialFile.setLength(0);
+            }
+        }
+    }
+
+    @Override
+    protected boolean isReceivingContent() {
+        return this.isDownloading;
+    }
+
+    @Override
+    protected int onContent(byte[] data, int offset, int length) {
+        if (this.downloadFileWriter == null) {
+            return length;
+        }
+        this.touch();
+        BlockReceiver receiver = this.blockReceiver;
+        if (receiver != null) {
+            this.receiveBlock(receiver, data, offset, length);
+            return length;
+        }
+        BlockDecompressor decompressor = this.decompressor;
+        if (decompressor == null) {
+            this.writeContent(data, offset, length);
+            return length;
+        }
+
+        try {
+            // The decoded blocks are passed to the writer, the bytes after the last block are left
+            return decompressor.decode(data, offset, length, this.decodedContentOutput);
+        } catch (IOException ioe) {
+            Log.e(TAG, "Compressed content could not be decoded: " + this.fileName, ioe);
+            this.fail(ioe);
+            return length;
+        }
+    }
+
+    private void receiveBlock(BlockReceiver receiver, byte[] data, int offset, int length) {
+        int received = receiver.receive(data, offset, length);
+        if (received < 0) {
+            // The writer failed and already reported the error
+            this.takeDownloadFileWriter();
+            this.isDownloading = false;
+            return;
+        }
+        if (received > 0) {
+            this.downloadSizeReceived += received;
+            this.reportProgress();
+        }
+        if (receiver.isComplete()) {
+            this.finishDownload();
+        }
+    }
+
+    /**
+     * Passes file content to the writer.
+     *
+     * @return <code>false</code>, if the download was stopped
+     */
+    private boolean writeContent(byte[] data, int offset, int length) {
+        DownloadFileWriter writer = this.downloadFileWriter;
+        if (writer == null) {
+            return false;
+        }
+        // The content is only copied here, the file is written on the writer thread
+        if (!writer.write(data, offset, length)) {
+            // The writer failed or was aborted, and the error was reported already
+            this.takeDownloadFileWriter();
+            this.isDownloading = false;
+            return false;
+        }
+        this.downloadSizeReceived += length;
+        this.reportProgress();
+
+        if (this.downloadSizeReceived >= this.downloadFileSize) {
+            this.finishDownload();
+            return false;
+        }
+        return true;
+    }
+
+    private void reportProgress() {
+        if (this.downloadProgressReporter.update(this.downloadSizeReceived)) {
+            // The progress is passed in arg1, so the update does not box an Integer
+            this.sendMessage(UartGattCallback.FILE_DOWNLOAD_IN_PROGRESS, this.downloadSizeReceived, this.downloadFileSize);
+        }
+        if (this.progressListener != null) {
+            this.progressListener.onProgress(this, this.downloadSizeReceived, this.downloadFileSize);
+        }
+        if (BleLog.HOT_PATH) {
+            BleLog.progress(BleLog.Category.DOWNLOAD, TAG, this.downloadSizeReceived, this.downloadFileSize);
+        }
+    }
+
+    //The writer is not used under the lock, because a full writer blocks the Bluetooth thread
+    private synchronized DownloadFileWriter takeDownloadFileWriter() {
+        DownloadFileWriter writer = this.downloadFileWriter;
+        this.downloadFileWriter = null;
+        return writer;
+    }
+
+    private synchronized BlockDecompressor takeDecompressor() {
+        BlockDecompressor decompressor = this.decompressor;
+        this.decompressor = null;
+        return decompressor;
+    }
+
+    //Both the Bluetooth and the executor thread can find a block-framed download complete
+    private void finishDownload() {
+        DownloadFileWriter writer = this.takeDownloadFileWriter();
+        if (writer == null) {
+            return; //Finished or failed already
+        }
+        // FILE_DOWNLOAD_FINISHED is sent when the writer synced the file, the link is free already
+        writer.finish();
+        this.isDownloading = false;
+        BlockDecompressor decompressor = this.takeDecompressor();
+        if (decompressor != null) {
+            decompressor.end();
+        }
+        this.finishReply();
+    }
+
+    @Override
+    protected void onConnectionLost() {
+        super.onConnectionLost();
+        this.headerLatch.countDown();
+    }
+
+    @Override
+    protected void fail(Exception failure) {
+        if (this.getFuture().isDone()) {
+            return;
+        }
+        DownloadFileWriter writer = this.takeDownloadFileWriter();
+        if (writer != null) {
+            // The received data is kept, the journal gets the last checkpoint before the result is set
+            writer.abort();
+        }
+        this.isDownloading = false;
+        // The inflater is left to the garbage collector, a notification can be decoded right now
+        this.takeDecompressor();
+        this.sendMessage(UartGattCallback.FILE_DOWNLOAD_ERROR, this.downloadFile);
+        super.fail(failure);
+    }
+
+    private void completeDownload(File file) {
+        if (this.journal != null) {
+            if (this.downloadFile.exists() && !this.downloadFile.delete()) {
+                this.fail(new IOException(this.downloadFile.getName() + " could not be replaced!"));
+                return;
+            }
+            if (!file.renameTo(this.downloadFile)) {
+                this.fail(new IOException(file.getName() + " could not be renamed!"));
+                return;
+            }
+            this.journal.delete();
+        }
+        this.sendMessage(UartGattCallback.FILE_DOWNLOAD_FINISHED, null);
+        Log.i(TAG, "File " + this.downloadFile.getName() + " was downloaded.");
+        this.complete(this.downloadFile);
+    }
+
+    private class DownloadWriterListener implements DownloadFileWriter.Listener {
+
+        @Override
+        public void onBackpressure(boolean lagging) {
+            //Only logged, a full ring buffer holds back the Bluetooth thread anyway
+            Log.w(TAG, lagging ? "Download writer is lagging." : "Download writer caught up.");
+        }
+
+        @Override
+        public void onCheckpoint(File file, long length) {
+            if (journal == null) {
+                return;
+            }
+            BlockReceiver receiver = blockReceiver;
+            if (receiver != null) {
+                // The holes of the lost blocks are not confirmed
+                length = Math.min(length, contentOffset + receiver.getContiguousLength());
+            }
+            journal.setConfirmedLength(length);
+            try {
+                journal.save();
+            } catch (IOException ioe) {
+                // The previous checkpoint stays valid
+                Log.e(TAG, "Download journal could not be saved.", ioe);
+            }
+        }
+
+        @Override
+        public void onFinished(File file) {
+            BlockReceiver receiver = blockReceiver;
+            if (receiver != null) {
+                try (RandomAccessFile targetFile = new RandomAccessFile(file, "rw")) {
+                    receiver.patch(targetFile, contentOffset);
+                    targetFile.getFD().sync();
+                } catch (IOException ioe) {
+                    Log.e(TAG, "Resent blocks could not be written: " + file.getName(), ioe);
+                    fail(ioe);
+                    return;
+                }
+            }
+            completeDownload(file);
+        }
+
+        @Override
+        public void onError(File file, IOException e) {
+            fail(e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.os.Message;
+import android.util.Log;
+
+/**
+ * Queries the size and dates of a remote file. The reply names the file without its directory,
+ * so the {@link UartGattCallback#FILE_INFO_READY} message carries the queried path too.
+ */
+public class InfoCommand extends UartCommand<RemoteFileInfo> {
+
+    private static final String TAG = "InfoCommand";
+
+    private final String fileName;
+
+    public InfoCommand(String fileName) {
+        super(UartMessageType.INFO);
+        this.fileName = fileName;
+    }
+
+    @Override
+    protected String getCommandText() {
+        return "@INFO:" + this.fileName + "#";
+    }
+
+    @Override
+    protected void onFrame(UartFrameParser frame) {
+        String fileName = frame.getField(0);
+        String fileSizeText = frame.getField(1);
+        String creationDate = frame.getField(2);
+        String modificationDate = frame.getField(3);
+
+        int fileSize = 0;
+        try {
+            fileSize = Integer.valueOf(fileSizeText);
+        } catch (NumberFormatException nfe) {
+            Log.e(TAG, "Unable to parse file size: " + fileSizeText);
+        }
+        Log.i(TAG, "INFO File name: " + fileName);
+        Log.i(TAG, "INFO File size: " + fileSize);
+        Log.i(TAG, "INFO Creation date: " + creationDate);
+        Log.i(TAG, "INFO Modification date: " + modificationDate);
+
+        if (this.hasReplyHandler()) {
+            Message infoMessage = this.obtainMessage(UartGattCallback.FILE_INFO_READY);
+            infoMessage.getData().putString("PATH", this.fileName);
+            infoMessage.getData().putString("NAME", fileName);
+            infoMessage.getData().putInt("SIZE", fileSize);
+            infoMessage.getData().putString("CREATION_DATE", creationDate);
+            infoMessage.getData().putString("MODIFICATION_DATE", modificationDate);
+            this.sendMessage(infoMessage);
+        }
+        this.complete(new RemoteFileInfo(fileName, fileSize, creationDate, modificationDate));
+    }
+}
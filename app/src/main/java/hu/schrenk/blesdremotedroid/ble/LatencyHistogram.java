@@ -0,0 +1,113 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+/**
+ * Counts durations in microseconds in fixed buckets, so recording does not allocate memory.
+ * Durations below 16 µs are counted exactly, longer ones in 8 buckets per power of two, so a
+ * percentile is accurate to 12.5%.
+ *
+ * The histogram is not thread-safe, {@link UartTelemetry} records into it holding its lock.
+ */
+public class LatencyHistogram {
+
+    private static final int EXACT_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int FIRST_OCTAVE = 4; //log2(EXACT_BUCKETS)
+    private static final int BUCKET_COUNT = EXACT_BUCKETS + (Long.SIZE - 1 - FIRST_OCTAVE) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    /**
+     * Counts a duration.
+     *
+     * @param micros
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        this.counts[bucketOf(micros)]++;
+        this.count++;
+        this.sum += micros;
+        if (micros > this.max) {
+            this.max = micros;
+        }
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Returns the average duration in microseconds, 0 if nothing was recorded.
+     */
+    public long getMean() {
+        return this.count == 0 ? 0 : this.sum / this.count;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Returns the duration in microseconds, which the given ratio of the recorded durations does
+     * not exceed.
+     *
+     * @param ratio between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return the upper bound of the bucket of the percentile, 0 if nothing was recorded
+     */
+    public long getPercentile(double ratio) {
+        if (this.count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(ratio * this.count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), this.max);
+            }
+        }
+        return this.max;
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(this.counts, 0, copy.counts, 0, BUCKET_COUNT);
+        copy.count = this.count;
+        copy.sum = this.sum;
+        copy.max = this.max;
+        return copy;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts[i] = 0;
+        }
+        this.count = 0;
+        this.sum = 0;
+        this.max = 0;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < EXACT_BUCKETS) {
+            return (int)micros;
+        }
+        int octave = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int)(micros >>> (octave - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT_BUCKETS + (octave - FIRST_OCTAVE) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < EXACT_BUCKETS) {
+            return bucket;
+        }
+        int octave = FIRST_OCTAVE + (bucket - EXACT_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (bucket - EXACT_BUCKETS) % SUB_BUCKETS;
+        long lowerBound = (long)(SUB_BUCKETS + subBucket) << (octave - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (octave - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,167 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.os.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lists a remote directory. The result is the raw listing, e.g. <code>a,b/,../</code>.
+ *
+ * In streaming mode the reply is parsed as the notifications arrive, and the entries completed
+ * by each notification are posted as a {@link UartGattCallback#MESSAGE_BROWSE_PARTIAL} message
+ * and passed to the {@link EntryListener}, so a huge directory can be shown before its whole
+ * listing has arrived.
+ */
+public class ListCommand extends UartCommand<String> {
+
+    private static final String TAG = "ListCommand";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public interface EntryListener {
+
+        /**
+         * Called on the Bluetooth callback thread, when a notification completed entries of a
+         * streamed listing.
+         *
+         * @param command
+         * @param entries the completed entries, the empty ones are left out
+         * @param firstIndex the index of the first entry within the listing
+         */
+        void onEntries(ListCommand command, List<String> entries, int firstIndex);
+    }
+
+    private final String path;
+    private EntryListener entryListener;
+
+    private boolean streaming = false;
+    private boolean inFrame = false;
+    private boolean streamFinished = false;
+    private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+    private final StringBuilder streamedListing = new StringBuilder();
+    private int streamedEntryCount = 0;
+
+    /**
+     * @param path the directory path, an empty string for the root directory
+     */
+    public ListCommand(String path) {
+        super(UartMessageType.LIST);
+        this.path = path;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * Sets whether the entries are posted in batches, while the listing is being received.
+     *
+     * @param streaming
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public void setEntryListener(EntryListener entryListener) {
+        this.entryListener = entryListener;
+    }
+
+    @Override
+    protected String getCommandText() {
+        if ("".equals(this.path)) {
+            return "@LIST#"; //ROOT
+        }
+        return "@LIST:" + this.path + "#";
+    }
+
+    @Override
+    protected void onFrame(UartFrameParser frame) {
+        this.finishListing(frame.getPayload());
+    }
+
+    @Override
+    protected boolean isReceivingContent() {
+        //The whole reply is parsed here, instead of waiting for the frame end
+        return this.streaming && !this.streamFinished;
+    }
+
+    @Override
+    protected int onContent(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        if (!this.inFrame) {
+            while (i < end && data[i] != UartFrameParser.FRAME_START) {
+                i++;
+            }
+            if (i == end) {
+                return length;
+            }
+            this.inFrame = true;
+            i++;
+        }
+        this.touch();
+
+        List<String> entries = new ArrayList<>();
+        int entryStart = i;
+        boolean frameEnd = false;
+        while (i < end && !frameEnd) {
+            byte value = data[i];
+            if (value == ',' || value == UartFrameParser.FRAME_END) {
+                this.entryBytes.write(data, entryStart, i - entryStart);
+                String entry = new String(this.entryBytes.toByteArray(), UTF_8);
+                this.entryBytes.reset();
+                if (this.streamedEntryCount > 0) {
+                    this.streamedListing.append(',');
+                }
+                this.streamedListing.append(entry);
+                this.streamedEntryCount++;
+                if (!entry.isEmpty()) {
+                    entries.add(entry);
+                }
+                entryStart = i + 1;
+                frameEnd = value == UartFrameParser.FRAME_END;
+            }
+            i++;
+        }
+        if (!frameEnd) {
+            this.entryBytes.write(data, entryStart, i - entryStart);
+        }
+
+        if (!entries.isEmpty()) {
+            int firstIndex = this.streamedEntryCount - entries.size();
+            if (this.entryListener != null) {
+                this.entryListener.onEntries(this, entries, firstIndex);
+            }
+            if (this.hasReplyHandler()) {
+                // The first batch of a listing replaces the shown one
+                Message partialMessage = this.obtainMessage(UartGattCallback.MESSAGE_BROWSE_PARTIAL);
+                partialMessage.obj = entries;
+                partialMessage.arg1 = firstIndex;
+                partialMessage.getData().putString("PATH", this.path);
+                this.sendMessage(partialMessage);
+            }
+        }
+        if (frameEnd) {
+            this.streamFinished = true;
+            this.finishListing(this.streamedListing.toString());
+        }
+        return i - offset;
+    }
+
+    private void finishListing(String listing) {
+        if (BleLog.HOT_PATH) {
+            BleLog.i(BleLog.Category.RECEIVE, TAG, "Message received: ", listing);
+        }
+        if (this.hasReplyHandler()) {
+            // The path tells, which directory the listing belongs to, when it arrives late
+            Message browseMessage = this.obtainMessage(UartGattCallback.MESSAGE_BROWSE_COMPLETE);
+            browseMessage.obj = listing;
+            browseMessage.getData().putString("PATH", this.path);
+            this.sendMessage(browseMessage);
+        }
+        this.complete(listing);
+    }
+}
@@ -0,0 +1,128 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the directory listings by remote path. The least recently used listing is evicted when
+ * the cache is full. An expired listing is still returned, so it can be shown while it is
+ * revalidated, but it has to be fetched again.
+ */
+public class ListingCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final long DEFAULT_TTL = 30000; //ms
+
+    public static class Entry {
+
+        private final String listing;
+        private final long created;
+        private final long ttl;
+
+        Entry(String listing, long created, long ttl) {
+            this.listing = listing;
+            this.created = created;
+            this.ttl = ttl;
+        }
+
+        public String getListing() {
+            return this.listing;
+        }
+
+        boolean isExpired(long now) {
+            return now - this.created >= this.ttl;
+        }
+    }
+
+    private final long ttl;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public ListingCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxEntries the maximum number of cached listings
+     * @param ttl the time in milliseconds, a listing is served without revalidation
+     */
+    public ListingCache(final int maxEntries, long ttl) {
+        this.ttl = ttl;
+        // Access order, so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ListingCache.Entry> eldest) {
+                return this.size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached listing of a path.
+     *
+     * @param path the directory path, an empty string for the root directory
+     * @return <code>null</code>, if the listing is not cached
+     */
+    public synchronized Entry get(String path) {
+        return this.entries.get(path);
+    }
+
+    /**
+     * Returns <code>true</code>, if the entry has to be revalidated.
+     *
+     * @param entry
+     */
+    public boolean isExpired(Entry entry) {
+        return entry.isExpired(this.currentTimeMillis());
+    }
+
+    public synchronized void put(String path, String listing) {
+        this.entries.put(path, new Entry(listing, this.currentTimeMillis(), this.ttl));
+    }
+
+    /**
+     * Removes the listing of a path.
+     *
+     * @param path
+     */
+    public synchronized void invalidate(String path) {
+        this.entries.remove(path);
+    }
+
+    /**
+     * Removes the listing of the directory containing a file or directory.
+     *
+     * @param path the path of the changed file or directory
+     */
+    public void invalidateParent(String path) {
+        int separatorIndex = path.lastIndexOf('/');
+        this.invalidate(separatorIndex > 0 ? path.substring(0, separatorIndex) : "");
+    }
+
+    /**
+     * Removes the listings of a directory and all of its subdirectories.
+     *
+     * @param path
+     */
+    public synchronized void invalidateTree(String path) {
+        Iterator<String> paths = this.entries.keySet().iterator();
+        while (paths.hasNext()) {
+            String cachedPath = paths.next();
+            if ("".equals(path) || cachedPath.equals(path) || cachedPath.startsWith(path + "/")) {
+                paths.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
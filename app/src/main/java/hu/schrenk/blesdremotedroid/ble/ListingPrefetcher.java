@@ -0,0 +1,82 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fetches the listings of the subdirectories of the shown directory into a {@link ListingCache},
+ * so opening them does not wait for a BLE round trip. The LIST commands are queued with
+ * {@link UartCommandPriority#BACKGROUND} priority, so they are sent only when the link is idle
+ * and any command of the user goes before them.
+ */
+public class ListingPrefetcher {
+
+    public static final int DEFAULT_MAX_PREFETCH = 16;
+
+    private final UartCommandExecutor executor;
+    private final ListingCache listingCache;
+    private int maxPrefetch = DEFAULT_MAX_PREFETCH;
+
+    private final List<ListCommand> pendingCommands = new ArrayList<>();
+
+    public ListingPrefetcher(UartCommandExecutor executor, ListingCache listingCache) {
+        this.executor = executor;
+        this.listingCache = listingCache;
+    }
+
+    /**
+     * Sets the maximum number of listings prefetched for one directory.
+     *
+     * @param maxPrefetch
+     */
+    public void setMaxPrefetch(int maxPrefetch) {
+        this.maxPrefetch = maxPrefetch;
+    }
+
+    /**
+     * Queues the listings, which are not cached or expired. The prefetches queued for the
+     * previously shown directory are dropped, unless they are running already.
+     *
+     * @param paths the subdirectory paths
+     */
+    public synchronized void prefetch(List<String> paths) {
+        this.cancel();
+        for (String path : paths) {
+            if (this.pendingCommands.size() >= this.maxPrefetch) {
+                break;
+            }
+            ListingCache.Entry cachedListing = this.listingCache.get(path);
+            if (cachedListing != null && !this.listingCache.isExpired(cachedListing)) {
+                continue;
+            }
+
+            final ListCommand command = new ListCommand(path);
+            command.setPriority(UartCommandPriority.BACKGROUND);
+            this.pendingCommands.add(command);
+            this.executor.submit(command).addListener(new UartCommandFuture.Listener<String>() {
+                @Override
+                public void onDone(UartCommandFuture<String> future) {
+                    prefetched(command, future.getNow());
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops the queued prefetches.
+     */
+    public synchronized void cancel() {
+        //A cancelled future calls its listener at once, which removes the command from the list
+        for (ListCommand command : new ArrayList<>(this.pendingCommands)) {
+            command.getFuture().cancel(false);
+        }
+        this.pendingCommands.clear();
+    }
+
+    private synchronized void prefetched(ListCommand command, String listing) {
+        this.pendingCommands.remove(command);
+        if (listing != null) {
+            this.listingCache.put(command.getPath(), listing);
+        }
+    }
+}
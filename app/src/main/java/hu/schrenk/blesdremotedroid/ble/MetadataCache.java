@@ -0,0 +1,108 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the size and dates of the remote files by path, so they can be shown in the listing.
+ * The least recently used entry is evicted when the cache is full. An expired entry is still
+ * returned, so it can be shown while it is fetched again.
+ */
+public class MetadataCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+    public static final long DEFAULT_TTL = 60000; //ms
+
+    public static class Entry {
+
+        private final RemoteFileInfo fileInfo;
+        private final long created;
+
+        Entry(RemoteFileInfo fileInfo, long created) {
+            this.fileInfo = fileInfo;
+            this.created = created;
+        }
+
+        public RemoteFileInfo getFileInfo() {
+            return this.fileInfo;
+        }
+    }
+
+    private final long ttl;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public MetadataCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxEntries the maximum number of cached files
+     * @param ttl the time in milliseconds, an entry is served without fetching it again
+     */
+    public MetadataCache(final int maxEntries, long ttl) {
+        this.ttl = ttl;
+        // Access order, so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MetadataCache.Entry> eldest) {
+                return this.size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached metadata of a file.
+     *
+     * @param path the file path
+     * @return <code>null</code>, if the file is not cached
+     */
+    public synchronized Entry get(String path) {
+        return this.entries.get(path);
+    }
+
+    /**
+     * Returns <code>true</code>, if the entry has to be fetched again.
+     *
+     * @param entry
+     */
+    public boolean isExpired(Entry entry) {
+        return this.currentTimeMillis() - entry.created >= this.ttl;
+    }
+
+    /**
+     * Caches the metadata of a file by its name, which is the full path.
+     *
+     * @param fileInfo
+     */
+    public synchronized void put(RemoteFileInfo fileInfo) {
+        this.entries.put(fileInfo.getName(), new Entry(fileInfo, this.currentTimeMillis()));
+    }
+
+    public synchronized void invalidate(String path) {
+        this.entries.remove(path);
+    }
+
+    /**
+     * Removes the files of a directory and all of its subdirectories.
+     *
+     * @param path
+     */
+    public synchronized void invalidateTree(String path) {
+        Iterator<String> paths = this.entries.keySet().iterator();
+        while (paths.hasNext()) {
+            String cachedPath = paths.next();
+            if ("".equals(path) || cachedPath.startsWith(path + "/")) {
+                paths.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
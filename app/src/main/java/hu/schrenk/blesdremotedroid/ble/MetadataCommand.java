@@ -0,0 +1,202 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.os.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Queries the size and dates of many files of a directory in one round trip. The command is
+ * <code>@MINF:directory%name%name#</code>, the reply is a
+ * <code>@name%size%created%modified,name%size%created%modified#</code> frame. A missing file is
+ * answered with a <code>name%KO</code> record, and it is left out of the result.
+ *
+ * The reply is parsed as the notifications arrive, the records completed by each notification
+ * are posted as a {@link UartGattCallback#FILE_METADATA_READY} message and passed to the
+ * {@link RecordListener}. The names of the result are the full remote paths.
+ */
+public class MetadataCommand extends UartCommand<List<RemoteFileInfo>> {
+
+    private static final String TAG = "MetadataCommand";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A device without batched metadata does not answer at all, so it is not waited for long.
+     */
+    public static final long DEFAULT_REPLY_TIMEOUT = 3000; //ms
+
+    public interface RecordListener {
+
+        /**
+         * Called on the Bluetooth callback thread, when a notification completed records of the
+         * reply.
+         *
+         * @param command
+         * @param fileInfos the completed records, the missing files are left out
+         */
+        void onRecords(MetadataCommand command, List<RemoteFileInfo> fileInfos);
+    }
+
+    private final String directory;
+    private final List<String> names;
+    private RecordListener recordListener;
+    private long replyTimeout = DEFAULT_REPLY_TIMEOUT;
+
+    private boolean inFrame = false;
+    private boolean finished = false;
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final List<RemoteFileInfo> fileInfos = new ArrayList<>();
+
+    /**
+     * @param directory the directory path, an empty string for the root directory
+     * @param names the file names in the directory
+     */
+    public MetadataCommand(String directory, List<String> names) {
+        super(UartMessageType.METADATA);
+        this.directory = directory;
+        this.names = new ArrayList<>(names);
+    }
+
+    /**
+     * Splits the files of a directory into as few commands as the command buffer allows.
+     *
+     * @param directory the directory path, an empty string for the root directory
+     * @param names the file names in the directory
+     * @return the commands
+     */
+    public static List<MetadataCommand> createBatches(String directory, List<String> names) {
+        List<MetadataCommand> commands = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        int length = "@MINF:#".length() + directory.length();
+        for (String name : names) {
+            if (!batch.isEmpty() && length + 1 + name.length() > UartGattCallback.COMMAND_BUFFER_SIZE) {
+                commands.add(new MetadataCommand(directory, batch));
+                batch = new ArrayList<>();
+                length = "@MINF:#".length() + directory.length();
+            }
+            batch.add(name);
+            length += 1 + name.length();
+        }
+        if (!batch.isEmpty()) {
+            commands.add(new MetadataCommand(directory, batch));
+        }
+        return commands;
+    }
+
+    public String getDirectory() {
+        return this.directory;
+    }
+
+    public List<String> getNames() {
+        return Collections.unmodifiableList(this.names);
+    }
+
+    public void setRecordListener(RecordListener recordListener) {
+        this.recordListener = recordListener;
+    }
+
+    public void setReplyTimeout(long replyTimeout) {
+        this.replyTimeout = replyTimeout;
+    }
+
+    @Override
+    protected long getReplyTimeout() {
+        return this.replyTimeout;
+    }
+
+    @Override
+    protected String getCommandText() {
+        StringBuilder command = new StringBuilder("@MINF:").append(this.directory);
+        for (String name : this.names) {
+            command.append('%').append(name);
+        }
+        return command.append('#').toString();
+    }
+
+    @Override
+    protected void onFrame(UartFrameParser frame) {
+        //The reply is parsed in onContent
+    }
+
+    @Override
+    protected boolean isReceivingContent() {
+        return !this.finished;
+    }
+
+    @Override
+    protected int onContent(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        if (!this.inFrame) {
+            while (i < end && data[i] != UartFrameParser.FRAME_START) {
+                i++;
+            }
+            if (i == end) {
+                return length;
+            }
+            this.inFrame = true;
+            i++;
+        }
+        this.touch();
+
+        List<RemoteFileInfo> records = new ArrayList<>();
+        int recordStart = i;
+        while (i < end && !this.finished) {
+            byte value = data[i];
+            if (value == ',' || value == UartFrameParser.FRAME_END) {
+                this.recordBytes.write(data, recordStart, i - recordStart);
+                RemoteFileInfo fileInfo = this.parseRecord(new String(this.recordBytes.toByteArray(), UTF_8));
+                this.recordBytes.reset();
+                if (fileInfo != null) {
+                    records.add(fileInfo);
+                }
+                recordStart = i + 1;
+                this.finished = value == UartFrameParser.FRAME_END;
+            }
+            i++;
+        }
+        if (!this.finished) {
+            this.recordBytes.write(data, recordStart, i - recordStart);
+        }
+
+        if (!records.isEmpty()) {
+            this.fileInfos.addAll(records);
+            if (this.recordListener != null) {
+                this.recordListener.onRecords(this, records);
+            }
+            if (this.hasReplyHandler()) {
+                Message metadataMessage = this.obtainMessage(UartGattCallback.FILE_METADATA_READY);
+                metadataMessage.obj = records;
+                metadataMessage.getData().putString("PATH", this.directory);
+                this.sendMessage(metadataMessage);
+            }
+        }
+        if (this.finished) {
+            if (BleLog.HOT_PATH) {
+                BleLog.i(BleLog.Category.RECEIVE, TAG, "Metadata records received: ", String.valueOf(this.fileInfos.size()));
+            }
+            this.complete(this.fileInfos);
+        }
+        return i - offset;
+    }
+
+    //Returns null for a missing file or an invalid record
+    private RemoteFileInfo parseRecord(String record) {
+        String[] fields = record.split("%", -1);
+        if (fields.length < 4 || fields[0].isEmpty()) {
+            return null;
+        }
+        long size;
+        try {
+            size = Long.parseLong(fields[1]);
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+        String path = "".equals(this.directory) ? fields[0] : this.directory + "/" + fields[0];
+        return new RemoteFileInfo(path, size, fields[2], fields[3]);
+    }
+}
@@ -0,0 +1,112 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fetches the metadata of the files of the shown directory into a {@link MetadataCache}, with as
+ * few {@link MetadataCommand} round trips as possible. The commands are queued with
+ * {@link UartCommandPriority#BACKGROUND} priority, so any command of the user goes before them.
+ *
+ * If a batch gets no reply, the device is taken as one without batched metadata, and nothing is
+ * fetched anymore. The sizes are not worth an INFO round trip for every file.
+ */
+public class MetadataFetcher {
+
+    private static final String TAG = "MetadataFetcher";
+
+    private final UartCommandExecutor executor;
+    private final MetadataCache metadataCache;
+    private final Handler replyHandler;
+    private long replyTimeout = MetadataCommand.DEFAULT_REPLY_TIMEOUT;
+    private boolean supported = true;
+
+    private final List<MetadataCommand> pendingCommands = new ArrayList<>();
+
+    /**
+     * @param executor
+     * @param metadataCache
+     * @param replyHandler the handler of the {@link UartGattCallback#FILE_METADATA_READY} messages,
+     *                     can be <code>null</code>
+     */
+    public MetadataFetcher(UartCommandExecutor executor, MetadataCache metadataCache, Handler replyHandler) {
+        this.executor = executor;
+        this.metadataCache = metadataCache;
+        this.replyHandler = replyHandler;
+    }
+
+    /**
+     * Sets the time a batch is waited for, before the device is taken as one without batched
+     * metadata.
+     *
+     * @param replyTimeout
+     */
+    public void setReplyTimeout(long replyTimeout) {
+        this.replyTimeout = replyTimeout;
+    }
+
+    public synchronized boolean isSupported() {
+        return this.supported;
+    }
+
+    /**
+     * Queues the files, which are not cached or expired. The batches queued for the previously
+     * shown directory are dropped, unless they are running already.
+     *
+     * @param directory the directory path, an empty string for the root directory
+     * @param names the file names in the directory
+     */
+    public synchronized void fetch(String directory, List<String> names) {
+        this.cancel();
+        if (!this.supported) {
+            return;
+        }
+        List<String> missingNames = new ArrayList<>();
+        for (String name : names) {
+            MetadataCache.Entry entry = this.metadataCache.get("".equals(directory) ? name : directory + "/" + name);
+            if (entry == null || this.metadataCache.isExpired(entry)) {
+                missingNames.add(name);
+            }
+        }
+
+        for (final MetadataCommand command : MetadataCommand.createBatches(directory, missingNames)) {
+            command.setPriority(UartCommandPriority.BACKGROUND);
+            command.setReplyTimeout(this.replyTimeout);
+            command.setReplyHandler(this.replyHandler);
+            this.pendingCommands.add(command);
+            this.executor.submit(command).addListener(new UartCommandFuture.Listener<List<RemoteFileInfo>>() {
+                @Override
+                public void onDone(UartCommandFuture<List<RemoteFileInfo>> future) {
+                    fetched(command, future);
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops the queued batches.
+     */
+    public synchronized void cancel() {
+        // A cancelled future calls its listener at once, which removes the command from the list
+        for (MetadataCommand command : new ArrayList<>(this.pendingCommands)) {
+            command.getFuture().cancel(false);
+        }
+        this.pendingCommands.clear();
+    }
+
+    private synchronized void fetched(MetadataCommand command, UartCommandFuture<List<RemoteFileInfo>> future) {
+        this.pendingCommands.remove(command);
+        if (future.isSuccessful()) {
+            for (RemoteFileInfo fileInfo : future.getNow()) {
+                this.metadataCache.put(fileInfo);
+            }
+        } else if (!future.isCancelled() && this.supported) {
+            Log.w(TAG, "Batched metadata is not supported by the device.");
+            this.supported = false;
+            this.cancel();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+/**
+ * Decides which transfer progress updates are worth to be shown. An update which advanced the
+ * progress is due when the minimum interval elapsed since the last reported update, so even a
+ * slow transfer of a big file moves ten times a second. Reaching the minimum percent step is due
+ * earlier too, so a fast transfer is not shown in big jumps. A zero step disables the step
+ * condition. The completion of the transfer is always due, so the final state is never
+ * swallowed.
+ *
+ * The reporter does not post anything itself, the caller posts the due updates, so no message
+ * is created for the skipped ones.
+ */
+public class ProgressReporter {
+
+    public static final long DEFAULT_MIN_INTERVAL = 100; //ms - 10 updates per second
+    public static final int DEFAULT_MIN_PERCENT_STEP = 1;
+
+    private final long minInterval;
+    private final int minPercentStep;
+
+    private long total = 0;
+    private long lastReportedDone = -1;
+    private long lastReportTime = 0;
+
+    public ProgressReporter() {
+        this(DEFAULT_MIN_INTERVAL, DEFAULT_MIN_PERCENT_STEP);
+    }
+
+    public ProgressReporter(long minInterval, int minPercentStep) {
+        this.minInterval = minInterval;
+        this.minPercentStep = minPercentStep;
+    }
+
+    /**
+     * Starts a new transfer.
+     *
+     * @param total the size of the transfer in bytes
+     */
+    public synchronized void start(long total) {
+        this.total = total;
+        this.lastReportedDone = -1;
+        this.lastReportTime = 0;
+    }
+
+    /**
+     * Registers the current progress.
+     *
+     * @param done the transferred bytes so far
+     * @return <code>true</code>, if the update has to be reported
+     */
+    public synchronized boolean update(long done) {
+        if (done == this.lastReportedDone) {
+            return false;
+        }
+
+        long now = System.nanoTime() / 1000000;
+        boolean due = done >= this.total || this.lastReportedDone < 0;
+        if (!due) {
+            boolean intervalElapsed = now - this.lastReportTime >= this.minInterval;
+            boolean stepReached = this.minPercentStep > 0 && this.total > 0
+                    && (done - this.lastReportedDone) * 100 >= this.minPercentStep * this.total;
+            due = intervalElapsed || stepReached;
+        }
+
+        if (due) {
+            this.lastReportedDone = done;
+            this.lastReportTime = now;
+        }
+        return due;
+    }
+}
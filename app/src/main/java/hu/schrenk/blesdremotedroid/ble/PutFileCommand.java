@@ -0,0 +1,317 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads a local file. The device accepts the upload with <code>@OK#</code>, then the content is
+ * streamed and a closing carriage return makes it flush and close the file.
+ *
+ * If a journal directory is set, the upload is resumable. The device reports the received offset
+ * with <code>@ACK%offset#</code> frames during the upload, and the last reported offset is kept in
+ * an {@link UploadJournal}. The next upload of the same local file is requested from that offset
+ * with <code>@PUTF:name%size%offset#</code>, and the device accepts it with <code>@OK%offset#</code>
+ * telling the offset it really continues from. A plain <code>@OK#</code> starts from zero.
+ *
+ * A device, which answers the request with an offset, confirms the end of the file with a last
+ * <code>@ACK%size#</code> frame, and the command completes on it, so the next command is sent
+ * only when the file is closed. The upload to any other device completes, when the content was
+ * written.
+ *
+ * If compression is enabled, the request is sent as <code>@PUTF:name%size%offset%Z#</code>. A
+ * device supporting compression accepts it with <code>@OK%offset%Z#</code>, and the content is
+ * sent as {@link BlockCompressor} blocks without the closing carriage return, the device knows
+ * the size. The acknowledged offsets are counted in file bytes in both modes. Any other answer
+ * means a raw upload.
+ */
+public class PutFileCommand extends UartCommand<File> {
+
+    private static final String TAG = "PutFileCommand";
+
+    private static final int READ_BUFFER_SIZE = 512;
+
+    private static final byte[] CARRIAGE_RETURN = { 13 }; //\r
+
+    private final File uploadFile;
+    private final String fileName;
+    private UartWriteMode writeMode = UartWriteMode.ACKNOWLEDGED;
+    private File journalDirectory;
+    private boolean compression = false;
+
+    private UploadJournal journal;
+    private long requestedOffset = 0;
+    private volatile long acceptedOffset = 0;
+    private volatile long confirmedOffset = 0;
+
+    private final CountDownLatch acceptLatch = new CountDownLatch(1);
+    private volatile boolean accepted = false;
+    private volatile boolean compressedAccepted = false;
+    //The device confirms the end of the file
+    private volatile boolean confirming = false;
+    private long fileSize;
+    private boolean contentSent = false;
+
+    /**
+     * @param uploadFile the local file
+     * @param fileName the remote file path
+     */
+    public PutFileCommand(File uploadFile, String fileName) {
+        super(UartMessageType.PUT_FILE);
+        this.uploadFile = uploadFile;
+        this.fileName = fileName;
+    }
+
+    /**
+     * Selects how the file content is written. The closing carriage return is always acknowledged.
+     *
+     * @param writeMode
+     */
+    public void setWriteMode(UartWriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    /**
+     * Makes the upload resumable, the journals are kept in the given directory.
+     *
+     * @param journalDirectory
+     */
+    public void setJournalDirectory(File journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    /**
+     * Offers a compressed transfer to the device.
+     *
+     * @param compression
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Returns <code>true</code>, if the device accepted a compressed upload.
+     */
+    public boolean isCompressed() {
+        return this.compressedAccepted;
+    }
+
+    /**
+     * Returns the offset, the upload was continued from.
+     */
+    public long getAcceptedOffset() {
+        return this.acceptedOffset;
+    }
+
+    @Override
+    protected String getCommandText() {
+        if (this.compression) {
+            return "@PUTF:" + this.fileName + "%" + this.uploadFile.length() + "%" + this.requestedOffset + "%Z#";
+        }
+        if (this.requestedOffset > 0) {
+            return "@PUTF:" + this.fileName + "%" + this.uploadFile.length() + "%" + this.requestedOffset + "#";
+        }
+        return "@PUTF:" + this.fileName + "%" + this.uploadFile.length() + "#";
+    }
+
+    @Override
+    protected void onFrame(UartFrameParser frame) {
+        String status = frame.getField(0);
+        if (this.acceptLatch.getCount() > 0) {
+            this.accepted = "OK".equals(status);
+            if (this.accepted && frame.getFieldCount() > 1) {
+                this.acceptedOffset = this.parseOffset(frame.getField(1));
+            }
+            this.compressedAccepted = this.accepted && this.compression
+                    && frame.getFieldCount() > 2 && "Z".equals(frame.getField(2));
+            this.confirming = this.accepted && frame.getFieldCount() > 1;
+            this.acceptLatch.countDown();
+        } else if ("ACK".equals(status)) {
+            this.confirmedOffset = this.parseOffset(frame.getField(1));
+            this.touch();
+            this.finishUpload();
+        }
+    }
+
+    private long parseOffset(String offsetText) {
+        try {
+            return Long.parseLong(offsetText);
+        } catch (NumberFormatException nfe) {
+            Log.e(TAG, "Unable to parse upload offset: " + offsetText);
+            return 0;
+        }
+    }
+
+    @Override
+    protected void execute(UartLink link) throws IOException, InterruptedException {
+        if (this.journalDirectory != null) {
+            this.prepareResume();
+        }
+        this.fileSize = this.uploadFile.length();
+        super.execute(link);
+        if (!this.acceptLatch.await(this.getReplyTimeout(), TimeUnit.MILLISECONDS)) {
+            this.onTimeout();
+            return;
+        }
+        if (!this.accepted) {
+            this.fail(new IOException("Upload was refused: " + this.fileName));
+            return;
+        }
+        if (this.acceptedOffset < 0 || this.acceptedOffset > this.uploadFile.length()) {
+            this.fail(new IOException("Invalid upload offset: " + this.acceptedOffset));
+            return;
+        }
+
+        this.confirmedOffset = this.acceptedOffset;
+        if (this.journal != null) {
+            // The device can continue from an earlier offset, than the one in the journal
+            this.journal.setConfirmedOffset(this.acceptedOffset);
+        }
+
+        this.sendMessage(UartGattCallback.FILE_UPLOAD_STARTED, this.uploadFile);
+        try {
+            this.upload(link);
+        } finally {
+            this.saveJournal();
+        }
+    }
+
+    private void prepareResume() {
+        UploadJournal previousJournal = UploadJournal.load(this.journalDirectory, this.uploadFile);
+        if (previousJournal != null && previousJournal.matches(this.uploadFile, this.fileName)) {
+            this.journal = previousJournal;
+            this.requestedOffset = previousJournal.getConfirmedOffset();
+            Log.i(TAG, "Upload is resumed for: " + this.fileName + " from: " + this.requestedOffset);
+        } else {
+            this.journal = new UploadJournal(this.journalDirectory, this.uploadFile, this.fileName);
+            this.requestedOffset = 0;
+        }
+    }
+
+    private void upload(UartLink link) throws IOException, InterruptedException {
+        long uploadSize = this.acceptedOffset;
+        long fileSize = this.fileSize;
+        long savedOffset = -1;
+        ProgressReporter progressReporter = new ProgressReporter();
+        progressReporter.start(fileSize);
+        try (FileInputStream fis = new FileInputStream(this.uploadFile)) {
+            if (fis.skip(uploadSize) != uploadSize) {
+                throw new IOException("Upload offset could not be reached: " + uploadSize);
+            }
+            BlockCompressor compressor = null;
+            byte[] encodedBuffer = null;
+            byte[] uploadBuffer;
+            if (this.compressedAccepted) {
+                Log.i(TAG, "Compressed upload: " + this.fileName);
+                compressor = new BlockCompressor();
+                encodedBuffer = new byte[BlockCompressor.MAX_ENCODED_SIZE];
+                uploadBuffer = new byte[BlockCompressor.BLOCK_SIZE];
+            } else {
+                uploadBuffer = new byte[READ_BUFFER_SIZE];
+            }
+            int readSize = this.readBlock(fis, uploadBuffer);
+            while (readSize != -1) {
+                boolean sent;
+                if (compressor != null) {
+                    int encodedSize = compressor.encode(uploadBuffer, 0, readSize, encodedBuffer);
+                    sent = link.sendData(encodedBuffer, 0, encodedSize, this.writeMode);
+                } else {
+                    sent = link.sendData(uploadBuffer, 0, readSize, this.writeMode);
+                }
+                if (compressor == null && readSize < READ_BUFFER_SIZE) {
+                    //Make Bluefruit to flush and close the stream
+                    sent = sent && link.sendData(CARRIAGE_RETURN, 0, CARRIAGE_RETURN.length, UartWriteMode.ACKNOWLEDGED);
+                }
+                if (!sent) {
+                    throw new IOException("File upload was aborted at: " + uploadSize + "/" + fileSize);
+                }
+                uploadSize += readSize;
+                readSize = this.readBlock(fis, uploadBuffer);
+
+                if (this.confirmedOffset != savedOffset) {
+                    savedOffset = this.confirmedOffset;
+                    this.saveJournal();
+                }
+                if (BleLog.HOT_PATH) {
+                    BleLog.progress(BleLog.Category.UPLOAD, TAG, uploadSize, fileSize);
+                }
+                if (progressReporter.update(uploadSize)) {
+                    this.sendMessage(UartGattCallback.FILE_UPLOAD_IN_PROGRESS, (int)uploadSize, (int)fileSize);
+                }
+            }
+            if (compressor != null) {
+                compressor.end();
+            }
+        }
+
+        synchronized (this) {
+            this.contentSent = true;
+            this.finishUpload();
+        }
+    }
+
+    //Completes the command, when the content was sent and the device confirmed it, if it confirms
+    private synchronized void finishUpload() {
+        if (!this.contentSent || (this.confirming && this.confirmedOffset < this.fileSize) || this.getFuture().isDone()) {
+            return;
+        }
+        if (this.journal != null) {
+            this.journal.delete();
+            this.journal = null;
+        }
+        Log.i(TAG, "File " + this.uploadFile.getName() + " was uploaded.");
+        this.sendMessage(UartGattCallback.FILE_UPLOAD_FINISHED, this.uploadFile);
+        this.complete(this.uploadFile);
+    }
+
+    /**
+     * Fills the buffer, unless the end of the file is reached, so every compressed block is full
+     * except the last one.
+     *
+     * @return the number of bytes read, or -1 at the end of the file
+     */
+    private int readBlock(FileInputStream fis, byte[] buffer) throws IOException {
+        int readSize = 0;
+        while (readSize < buffer.length) {
+            int read = fis.read(buffer, readSize, buffer.length - readSize);
+            if (read == -1) {
+                break;
+            }
+            readSize += read;
+        }
+        return readSize == 0 ? -1 : readSize;
+    }
+
+    //Called on the executor thread, except after a lost connection, when the result waits for the journal
+    private synchronized void saveJournal() {
+        if (this.journal == null || this.confirmedOffset <= this.journal.getConfirmedOffset()) {
+            return;
+        }
+        this.journal.setConfirmedOffset(this.confirmedOffset);
+        try {
+            this.journal.save();
+        } catch (IOException ioe) {
+            // The previous offset stays valid
+            Log.e(TAG, "Upload journal could not be saved.", ioe);
+        }
+    }
+
+    @Override
+    protected void onConnectionLost() {
+        super.onConnectionLost();
+        this.acceptLatch.countDown();
+    }
+
+    @Override
+    protected void fail(Exception failure) {
+        if (!this.getFuture().isDone()) {
+            this.saveJournal();
+            this.sendMessage(UartGattCallback.FILE_UPLOAD_ERROR, this.uploadFile);
+        }
+        super.fail(failure);
+    }
+}
@@ -0,0 +1,35 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+/**
+ * File metadata returned by the INFO command.
+ */
+public class RemoteFileInfo {
+
+    private final String name;
+    private final long size;
+    private final String creationDate;
+    private final String modificationDate;
+
+    public RemoteFileInfo(String name, long size, String creationDate, String modificationDate) {
+        this.name = name;
+        this.size = size;
+        this.creationDate = creationDate;
+        this.modificationDate = modificationDate;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public String getCreationDate() {
+        return this.creationDate;
+    }
+
+    public String getModificationDate() {
+        return this.modificationDate;
+    }
+}
@@ -0,0 +1,341 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A local index of the remote file tree, so a file can be found without browsing. The entries
+ * are kept sorted by path, the index file stores every path as the length of the prefix shared
+ * with the previous path and the rest of it, so the thousands of files of a card take little
+ * space.
+ */
+public class RemoteIndex {
+
+    private static final String TAG = "RemoteIndex";
+
+    private static final int FILE_MAGIC = 0x42524958; //BRIX
+    private static final int FILE_VERSION = 1;
+
+    public static final long UNKNOWN_SIZE = -1;
+
+    /**
+     * A file or directory of the remote tree.
+     */
+    public static class Entry {
+
+        private final String path;
+        private final boolean directory;
+        private final String lowerCaseName;
+        private long size = UNKNOWN_SIZE;
+        private String modificationDate;
+
+        Entry(String path, boolean directory) {
+            this.path = path;
+            this.directory = directory;
+            this.lowerCaseName = getName(path).toLowerCase(Locale.US);
+        }
+
+        public String getPath() {
+            return this.path;
+        }
+
+        public String getName() {
+            return getName(this.path);
+        }
+
+        /**
+         * Returns the path of the containing directory, an empty string for the root directory.
+         */
+        public String getParentPath() {
+            int separatorIndex = this.path.lastIndexOf('/');
+            return separatorIndex < 0 ? "" : this.path.substring(0, separatorIndex);
+        }
+
+        public boolean isDirectory() {
+            return this.directory;
+        }
+
+        /**
+         * Returns the size, or {@link #UNKNOWN_SIZE} if the file was not queried yet.
+         */
+        public long getSize() {
+            return this.size;
+        }
+
+        /**
+         * Returns the modification date, or <code>null</code> if the file was not queried yet.
+         */
+        public String getModificationDate() {
+            return this.modificationDate;
+        }
+
+        private static String getName(String path) {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+    }
+
+    private final File indexFile;
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    private long crawlFinished = 0;
+    private boolean modified = false;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param indexFile the file the index is saved to
+     */
+    public RemoteIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Reads an index.
+     *
+     * @param indexFile
+     * @return an empty index, if there is no index file or it can not be read
+     */
+    public static RemoteIndex load(File indexFile) {
+        RemoteIndex index = new RemoteIndex(indexFile);
+        if (!indexFile.isFile()) {
+            return index;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (dis.readInt() != FILE_MAGIC || dis.readInt() != FILE_VERSION) {
+                throw new IOException("Unknown index format");
+            }
+            index.crawlFinished = dis.readLong();
+            int entryCount = dis.readInt();
+            String previousPath = "";
+            for (int i = 0; i < entryCount; i++) {
+                int sharedLength = dis.readUnsignedShort();
+                String path = previousPath.substring(0, sharedLength) + dis.readUTF();
+                Entry entry = new Entry(path, dis.readBoolean());
+                entry.size = dis.readLong();
+                String modificationDate = dis.readUTF();
+                entry.modificationDate = modificationDate.isEmpty() ? null : modificationDate;
+                index.entries.put(path, entry);
+                previousPath = path;
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Index could not be read: " + indexFile.getName(), e);
+            index.entries.clear();
+            index.crawlFinished = 0;
+        }
+        return index;
+    }
+
+    /**
+     * Replaces the children of a directory with the entries of its listing. The files and
+     * subdirectories missing from the listing are removed with their whole subtree, the known
+     * entries keep their size and date.
+     *
+     * @param path the directory path, an empty string for the root directory
+     * @param listing the raw listing, e.g. <code>a,b/,../</code>
+     * @return the entries of the directory
+     */
+    public synchronized List<Entry> updateDirectory(String path, String listing) {
+        if (!"".equals(path)) {
+            this.putEntry(path, true);
+        }
+
+        Set<String> childPaths = new HashSet<>();
+        List<Entry> children = new ArrayList<>();
+        for (String part : listing.split(",")) {
+            if (part.isEmpty() || part.equals("../")) {
+                continue;
+            }
+            boolean directory = part.endsWith("/");
+            String name = directory ? part.substring(0, part.length() - 1) : part;
+            String childPath = "".equals(path) ? name : path + "/" + name;
+            childPaths.add(childPath);
+            children.add(this.putEntry(childPath, directory));
+        }
+
+        Iterator<Entry> iterator = this.subtree(path).values().iterator();
+        List<String> removedPaths = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.getParentPath().equals(path) && !childPaths.contains(entry.path)) {
+                removedPaths.add(entry.path);
+            }
+        }
+        for (String removedPath : removedPaths) {
+            this.remove(removedPath);
+        }
+        return children;
+    }
+
+    /**
+     * Adds or updates a file, e.g. after it was uploaded or queried.
+     *
+     * @param path
+     * @param size the size, or {@link #UNKNOWN_SIZE}
+     * @param modificationDate the modification date, can be <code>null</code>
+     */
+    public synchronized void putFile(String path, long size, String modificationDate) {
+        Entry entry = this.putEntry(path, false);
+        if (entry.size != size || !equals(entry.modificationDate, modificationDate)) {
+            entry.size = size;
+            entry.modificationDate = modificationDate;
+            this.modified = true;
+        }
+    }
+
+    /**
+     * Removes a file or a directory with its whole subtree.
+     *
+     * @param path
+     */
+    public synchronized void remove(String path) {
+        if (this.entries.remove(path) != null) {
+            this.modified = true;
+        }
+        SortedMap<String, Entry> subtree = this.subtree(path);
+        if (!subtree.isEmpty()) {
+            subtree.clear();
+            this.modified = true;
+        }
+    }
+
+    public synchronized Entry get(String path) {
+        return this.entries.get(path);
+    }
+
+    /**
+     * Finds the entries by name, ignoring the case. The results are ordered by path.
+     *
+     * @param query
+     * @param prefixOnly <code>true</code>, if the name has to start with the query, otherwise
+     *                   the query can be anywhere in the name
+     * @param limit the maximum number of results
+     */
+    public synchronized List<Entry> search(String query, boolean prefixOnly, int limit) {
+        String lowerCaseQuery = query.toLowerCase(Locale.US);
+        List<Entry> results = new ArrayList<>();
+        for (Entry entry : this.entries.values()) {
+            if (results.size() >= limit) {
+                break;
+            }
+            boolean found = prefixOnly ? entry.lowerCaseName.startsWith(lowerCaseQuery) : entry.lowerCaseName.contains(lowerCaseQuery);
+            if (found) {
+                results.add(entry);
+            }
+        }
+        return results;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the time, the last complete crawl was finished, or 0 if the tree was never crawled.
+     */
+    public synchronized long getCrawlFinished() {
+        return this.crawlFinished;
+    }
+
+    public synchronized void setCrawlFinished(long crawlFinished) {
+        this.crawlFinished = crawlFinished;
+        this.modified = true;
+    }
+
+    /**
+     * Returns <code>true</code>, if the index changed since it was loaded or saved.
+     */
+    public synchronized boolean isModified() {
+        return this.modified;
+    }
+
+    /**
+     * Writes the index. A temporary file is renamed over the old index, so an interrupted save
+     * does not leave a corrupt index behind.
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        File directory = this.indexFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Index directory could not be created: " + directory.getPath());
+        }
+
+        File temporaryFile = new File(this.indexFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temporaryFile)) {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+            dos.writeInt(FILE_MAGIC);
+            dos.writeInt(FILE_VERSION);
+            dos.writeLong(this.crawlFinished);
+            dos.writeInt(this.entries.size());
+            String previousPath = "";
+            for (Entry entry : this.entries.values()) {
+                int sharedLength = sharedPrefixLength(previousPath, entry.path);
+                dos.writeShort(sharedLength);
+                dos.writeUTF(entry.path.substring(sharedLength));
+                dos.writeBoolean(entry.directory);
+                dos.writeLong(entry.size);
+                dos.writeUTF(entry.modificationDate == null ? "" : entry.modificationDate);
+                previousPath = entry.path;
+            }
+            dos.flush();
+            fos.getFD().sync();
+        }
+        if (!temporaryFile.renameTo(this.indexFile)) {
+            throw new IOException("Index could not be renamed: " + this.indexFile.getName());
+        }
+        this.modified = false;
+    }
+
+    private Entry putEntry(String path, boolean directory) {
+        Entry entry = this.entries.get(path);
+        if (entry == null || entry.directory != directory) {
+            if (entry != null) {
+                //A file was replaced by a directory or vice versa
+                this.remove(path);
+            }
+            entry = new Entry(path, directory);
+            this.entries.put(path, entry);
+            this.modified = true;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the entries below a directory. '0' follows '/', so the range holds every path,
+     * which starts with the directory path and a separator.
+     */
+    private SortedMap<String, Entry> subtree(String path) {
+        if ("".equals(path)) {
+            return this.entries;
+        }
+        return this.entries.subMap(path + "/", path + "0");
+    }
+
+    private static int sharedPrefixLength(String a, String b) {
+        int length = Math.min(Math.min(a.length(), b.length()), 0xFFFF);
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,161 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Crawls the remote tree into a {@link RemoteIndex}. The directories are listed breadth first
+ * and, if enabled, every file is queried for its size and date. The commands are queued with
+ * {@link UartCommandPriority#BACKGROUND} priority one at a time, and a minimum interval is kept
+ * between them, so the crawl does not saturate the link while the user is browsing.
+ *
+ * The number of indexed entries is posted as a {@link UartGattCallback#INDEX_CRAWL_FINISHED}
+ * message, when the whole tree was crawled. The same number is the result of the future returned
+ * by {@link #start()}.
+ *
+ * A crawl stops at the first command failing for the connection, and a crawl with directories
+ * which could not be listed is not marked as finished, so it is started again next time. The
+ * future fails in both cases.
+ */
+public class RemoteIndexer {
+
+    private static final String TAG = "RemoteIndexer";
+
+    public static final long DEFAULT_REQUEST_INTERVAL = 250; //ms
+
+    private final BlockingCommandRunner runner;
+    private final RemoteIndex index;
+    private final Handler replyHandler;
+    private boolean fetchInfo = false;
+
+    private UartCommandFuture<Integer> crawlFuture;
+
+    /**
+     * @param executor
+     * @param index
+     * @param replyHandler the handler of the finished message, can be <code>null</code>
+     */
+    public RemoteIndexer(UartCommandExecutor executor, RemoteIndex index, Handler replyHandler) {
+        this.runner = new BlockingCommandRunner(executor, TAG);
+        this.runner.setPriority(UartCommandPriority.BACKGROUND);
+        this.runner.setRequestInterval(DEFAULT_REQUEST_INTERVAL);
+        this.index = index;
+        this.replyHandler = replyHandler;
+    }
+
+    /**
+     * Sets the minimum time between the start of two requests.
+     *
+     * @param requestInterval the interval in milliseconds
+     */
+    public void setRequestInterval(long requestInterval) {
+        this.runner.setRequestInterval(requestInterval);
+    }
+
+    /**
+     * Sets whether the files are queried with INFO, so their size and date are indexed too.
+     *
+     * @param fetchInfo
+     */
+    public void setFetchInfo(boolean fetchInfo) {
+        this.fetchInfo = fetchInfo;
+    }
+
+    /**
+     * Starts crawling from the root directory, unless a crawl is running already. After
+     * {@link #cancel()} a new crawl is started, which waits for the cancelled one to exit.
+     *
+     * @return the future of the running crawl, its result is the number of indexed entries, it
+     * is cancelled together with the crawl
+     */
+    public synchronized UartCommandFuture<Integer> start() {
+        final UartCommandFuture<Integer> future = new UartCommandFuture<>();
+        boolean started = this.runner.start(new Runnable() {
+            @Override
+            public void run() {
+                crawl(future);
+            }
+        });
+        if (started) {
+            this.crawlFuture = future;
+        }
+        return this.crawlFuture;
+    }
+
+    /**
+     * Stops the crawl. The entries indexed so far are kept.
+     */
+    public void cancel() {
+        this.runner.cancel();
+    }
+
+    public boolean isRunning() {
+        return this.runner.isRunning();
+    }
+
+    private void crawl(UartCommandFuture<Integer> future) {
+        Deque<String> directories = new ArrayDeque<>();
+        directories.add(""); //ROOT
+        int failedListings = 0;
+        try {
+            while (!directories.isEmpty()) {
+                String path = directories.poll();
+                String listing = this.runner.request(new ListCommand(path));
+                if (listing == null) {
+                    failedListings++; //The directory is crawled again next time
+                    continue;
+                }
+
+                List<RemoteIndex.Entry> children = this.index.updateDirectory(path, listing);
+                for (RemoteIndex.Entry child : children) {
+                    if (child.isDirectory()) {
+                        directories.add(child.getPath());
+                    } else if (this.fetchInfo) {
+                        RemoteFileInfo info = this.runner.request(new InfoCommand(child.getPath()));
+                        if (info != null) {
+                            this.index.putFile(child.getPath(), info.getSize(), info.getModificationDate());
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "Crawl was cancelled, entries indexed: " + this.index.size());
+            this.saveIndex();
+            future.cancel(false);
+            return;
+        } catch (UartConnectionException e) {
+            Log.w(TAG, "Crawl was stopped, entries indexed: " + this.index.size(), e);
+            this.saveIndex();
+            future.fail(e);
+            return;
+        }
+
+        if (failedListings > 0) {
+            //The crawl is not finished, so it is started again next time
+            Log.w(TAG, "Crawl was incomplete, directories not listed: " + failedListings);
+            this.saveIndex();
+            future.fail(new IOException("Directories could not be listed: " + failedListings));
+            return;
+        }
+        Log.i(TAG, "Crawl was finished, entries indexed: " + this.index.size());
+        this.index.setCrawlFinished(System.currentTimeMillis());
+        this.saveIndex();
+        if (this.replyHandler != null) {
+            this.replyHandler.sendMessage(this.replyHandler.obtainMessage(UartGattCallback.INDEX_CRAWL_FINISHED, this.index.size()));
+        }
+        future.complete(this.index.size());
+    }
+
+    private void saveIndex() {
+        try {
+            this.index.save();
+        } catch (IOException e) {
+            Log.e(TAG, "Index could not be saved.", e);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The transfers a {@link FolderSync} is going to make. The plan is shown to the user before it is
+ * run, the unchanged files are only counted.
+ */
+public class SyncPlan {
+
+    public enum ActionType {
+        DOWNLOAD,
+        UPLOAD,
+        /**
+         * Both copies changed since the last sync, the file is left alone.
+         */
+        CONFLICT
+    }
+
+    public static class Action {
+
+        private final ActionType type;
+        private final String path;
+        private final File localFile;
+        private final String remotePath;
+        private final long size;
+        private RemoteFileInfo remoteFileInfo;
+
+        Action(ActionType type, String path, File localFile, String remotePath, long size) {
+            this.type = type;
+            this.path = path;
+            this.localFile = localFile;
+            this.remotePath = remotePath;
+            this.size = size;
+        }
+
+        public ActionType getType() {
+            return this.type;
+        }
+
+        /**
+         * Returns the path relative to the synchronized folders.
+         */
+        public String getPath() {
+            return this.path;
+        }
+
+        public File getLocalFile() {
+            return this.localFile;
+        }
+
+        public String getRemotePath() {
+            return this.remotePath;
+        }
+
+        /**
+         * Returns the number of bytes to transfer.
+         */
+        public long getSize() {
+            return this.size;
+        }
+
+        RemoteFileInfo getRemoteFileInfo() {
+            return this.remoteFileInfo;
+        }
+
+        void setRemoteFileInfo(RemoteFileInfo remoteFileInfo) {
+            this.remoteFileInfo = remoteFileInfo;
+        }
+    }
+
+    private final List<Action> actions = new ArrayList<>();
+    private int unchangedCount = 0;
+    private int deletedCount = 0;
+
+    void add(Action action) {
+        this.actions.add(action);
+    }
+
+    void addUnchanged() {
+        this.unchangedCount++;
+    }
+
+    void addDeleted() {
+        this.deletedCount++;
+    }
+
+    public List<Action> getActions() {
+        return Collections.unmodifiableList(this.actions);
+    }
+
+    /**
+     * Returns the number of actions of the given type.
+     *
+     * @param type
+     */
+    public int getCount(ActionType type) {
+        int count = 0;
+        for (Action action : this.actions) {
+            if (action.type == type) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of bytes to transfer in the given direction.
+     *
+     * @param type
+     */
+    public long getSize(ActionType type) {
+        long size = 0;
+        for (Action action : this.actions) {
+            if (action.type == type) {
+                size += action.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of files, which are the same on both sides.
+     */
+    public int getUnchangedCount() {
+        return this.unchangedCount;
+    }
+
+    /**
+     * Returns the number of files, which were deleted on one side since the last sync. They are
+     * not copied back.
+     */
+    public int getDeletedCount() {
+        return this.deletedCount;
+    }
+
+    /**
+     * Returns <code>true</code>, if there is nothing to transfer.
+     */
+    public boolean isEmpty() {
+        return this.getCount(ActionType.DOWNLOAD) == 0 && this.getCount(ActionType.UPLOAD) == 0;
+    }
+}
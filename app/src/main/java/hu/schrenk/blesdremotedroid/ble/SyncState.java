@@ -0,0 +1,138 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Records both copies of every synchronized file, as they were after the last sync. A copy is
+ * changed, if its size or date differs from the recorded one, so a file is transferred only if
+ * one side changed it. The state is kept in the local folder, keyed by the relative path.
+ */
+public class SyncState {
+
+    private static final String TAG = "SyncState";
+
+    public static final String STATE_FILE_NAME = ".blesdsync";
+
+    private static final String KEY_REMOTE_ROOT = "/remoteRoot"; //Relative paths do not start with a slash
+    private static final String SEPARATOR = "|";
+
+    static class Record {
+
+        final long localSize;
+        final long localModified;
+        final long remoteSize;
+        final String remoteModified;
+
+        Record(long localSize, long localModified, long remoteSize, String remoteModified) {
+            this.localSize = localSize;
+            this.localModified = localModified;
+            this.remoteSize = remoteSize;
+            this.remoteModified = remoteModified;
+        }
+
+        boolean isLocalChanged(File localFile) {
+            return localFile.length() != this.localSize || localFile.lastModified() != this.localModified;
+        }
+
+        boolean isRemoteChanged(RemoteFileInfo remoteFileInfo) {
+            return remoteFileInfo.getSize() != this.remoteSize
+                    || !String.valueOf(remoteFileInfo.getModificationDate()).equals(this.remoteModified);
+        }
+    }
+
+    private final File stateFile;
+    private final String remoteRoot;
+    private final Map<String, Record> records = new HashMap<>();
+
+    private SyncState(File stateFile, String remoteRoot) {
+        this.stateFile = stateFile;
+        this.remoteRoot = remoteRoot;
+    }
+
+    /**
+     * Reads the state of a local folder. The state of an other remote folder is dropped.
+     *
+     * @param localRoot
+     * @param remoteRoot
+     * @return an empty state, if there is none or it can not be read
+     */
+    public static SyncState load(File localRoot, String remoteRoot) {
+        SyncState state = new SyncState(new File(localRoot, STATE_FILE_NAME), remoteRoot);
+        if (!state.stateFile.isFile()) {
+            return state;
+        }
+        Properties properties = new Properties();
+        try (FileInputStream fis = new FileInputStream(state.stateFile)) {
+            properties.load(fis);
+            if (!remoteRoot.equals(properties.getProperty(KEY_REMOTE_ROOT))) {
+                Log.i(TAG, "Folder was synchronized with an other remote folder: " + properties.getProperty(KEY_REMOTE_ROOT));
+                return state;
+            }
+            for (String path : properties.stringPropertyNames()) {
+                if (KEY_REMOTE_ROOT.equals(path)) {
+                    continue;
+                }
+                String[] fields = properties.getProperty(path).split("\\" + SEPARATOR, 4);
+                state.records.put(path, new Record(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]), fields[3]));
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Sync state could not be read: " + state.stateFile.getPath(), e);
+            state.records.clear();
+        }
+        return state;
+    }
+
+    Record get(String path) {
+        return this.records.get(path);
+    }
+
+    /**
+     * Records both copies of a file as synchronized.
+     *
+     * @param path the relative path
+     * @param localFile
+     * @param remoteFileInfo
+     */
+    void put(String path, File localFile, RemoteFileInfo remoteFileInfo) {
+        this.records.put(path, new Record(localFile.length(), localFile.lastModified(),
+                remoteFileInfo.getSize(), String.valueOf(remoteFileInfo.getModificationDate())));
+    }
+
+    void remove(String path) {
+        this.records.remove(path);
+    }
+
+    /**
+     * Writes the state. A temporary file is renamed over the old state, so an interrupted save
+     * does not leave a corrupt state behind.
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_REMOTE_ROOT, this.remoteRoot);
+        for (Map.Entry<String, Record> entry : this.records.entrySet()) {
+            Record record = entry.getValue();
+            properties.setProperty(entry.getKey(), record.localSize + SEPARATOR + record.localModified
+                    + SEPARATOR + record.remoteSize + SEPARATOR + record.remoteModified);
+        }
+
+        File temporaryFile = new File(this.stateFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temporaryFile)) {
+            properties.store(fos, null);
+            fos.getFD().sync();
+        }
+        if (!temporaryFile.renameTo(this.stateFile)) {
+            throw new IOException("Sync state could not be renamed: " + this.stateFile.getName());
+        }
+    }
+}
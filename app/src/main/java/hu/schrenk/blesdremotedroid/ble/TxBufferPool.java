@@ -0,0 +1,44 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+/**
+ * Reusable chunk buffers for the TX characteristic writes. A characteristic value is always the
+ * whole array, so the pool keeps one buffer for every chunk length up to the maximum chunk size.
+ * A buffer can be reused as soon as the write call returned, because the Bluetooth stack copies
+ * the value when the write is started.
+ */
+public class TxBufferPool {
+
+    private byte[][] buffers;
+
+    public TxBufferPool(int maxLength) {
+        this.buffers = new byte[maxLength + 1][];
+    }
+
+    /**
+     * Makes the pool able to serve chunks up to the given length. Already allocated buffers are kept.
+     *
+     * @param maxLength
+     */
+    public void resize(int maxLength) {
+        if (maxLength + 1 > this.buffers.length) {
+            byte[][] resized = new byte[maxLength + 1][];
+            System.arraycopy(this.buffers, 0, resized, 0, this.buffers.length);
+            this.buffers = resized;
+        }
+    }
+
+    /**
+     * Returns the buffer with exactly the given length. The buffer is allocated at the first call only.
+     *
+     * @param length
+     * @return
+     */
+    public byte[] acquire(int length) {
+        byte[] buffer = this.buffers[length];
+        if (buffer == null) {
+            buffer = new byte[length];
+            this.buffers[length] = buffer;
+        }
+        return buffer;
+    }
+}
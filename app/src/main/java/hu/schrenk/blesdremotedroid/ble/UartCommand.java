@@ -0,0 +1,198 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.os.Handler;
+import android.os.Message;
+
+import java.io.IOException;
+
+/**
+ * A request to the BleSdRemote device together with the parser of its reply. Commands are run
+ * one after the other by the {@link UartCommandExecutor}.
+ *
+ * The reply of a command is complete, when the link can be used by the next command. The result
+ * can come later than that, e.g. a downloaded file is complete, when it was synced to the storage.
+ *
+ * If a reply handler is set, the command posts the same UI messages the former AsyncTask based
+ * implementation did. Background commands run without a reply handler.
+ *
+ * @param <T> the type of the command result
+ */
+public abstract class UartCommand<T> {
+
+    public static final long DEFAULT_REPLY_TIMEOUT = 10000; //ms
+
+    private final UartMessageType messageType;
+    private final UartCommandFuture<T> future = new UartCommandFuture<>();
+
+    private final Object replyLock = new Object();
+    private boolean replyComplete = false;
+    private long lastActivity = 0;
+
+    private Handler replyHandler;
+    private UartCommandPriority priority = UartCommandPriority.NORMAL;
+
+    protected UartCommand(UartMessageType messageType) {
+        this.messageType = messageType;
+    }
+
+    public UartMessageType getMessageType() {
+        return this.messageType;
+    }
+
+    public UartCommandFuture<T> getFuture() {
+        return this.future;
+    }
+
+    public void setReplyHandler(Handler replyHandler) {
+        this.replyHandler = replyHandler;
+    }
+
+    public UartCommandPriority getPriority() {
+        return this.priority;
+    }
+
+    public void setPriority(UartCommandPriority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the command text sent to the device, e.g. <code>@LIST#</code>.
+     */
+    protected abstract String getCommandText();
+
+    /**
+     * Processes a complete reply frame. Called on the Bluetooth callback thread.
+     *
+     * @param frame
+     */
+    protected abstract void onFrame(UartFrameParser frame);
+
+    /**
+     * Returns <code>true</code>, if the command expects raw content instead of reply frames.
+     */
+    protected boolean isReceivingContent() {
+        return false;
+    }
+
+    /**
+     * Processes raw content bytes. Called on the Bluetooth callback thread.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return the number of consumed bytes
+     */
+    protected int onContent(byte[] data, int offset, int length) {
+        return length;
+    }
+
+    /**
+     * Returns the maximum time without received data, while the reply is waited for.
+     */
+    protected long getReplyTimeout() {
+        return DEFAULT_REPLY_TIMEOUT;
+    }
+
+    /**
+     * Sends the command. Runs on the executor thread, so it can block, e.g. to stream a file.
+     *
+     * @param link
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    protected void execute(UartLink link) throws IOException, InterruptedException {
+        if (!link.sendCommand(this.getCommandText())) {
+            throw new IOException("Command could not be sent: " + this.getCommandText());
+        }
+    }
+
+    /**
+     * Called on the executor thread, when the reply did not arrive in time.
+     */
+    protected void onTimeout() {
+        this.fail(new IOException("No reply was received for: " + this.getCommandText()));
+    }
+
+    /**
+     * Called, when the connection was lost during the command.
+     */
+    protected void onConnectionLost() {
+        this.fail(new UartConnectionException("Connection was lost during: " + this.getCommandText()));
+    }
+
+    protected void complete(T result) {
+        this.future.complete(result);
+        this.finishReply();
+    }
+
+    protected void fail(Exception failure) {
+        this.future.fail(failure);
+        this.finishReply();
+    }
+
+    /**
+     * Releases the link for the next command. The result can be completed later.
+     */
+    protected void finishReply() {
+        synchronized (this.replyLock) {
+            this.replyComplete = true;
+            this.replyLock.notifyAll();
+        }
+    }
+
+    /**
+     * Restarts the reply timeout.
+     */
+    protected void touch() {
+        synchronized (this.replyLock) {
+            this.lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    protected void sendMessage(int what, Object obj) {
+        if (this.replyHandler != null) {
+            this.replyHandler.sendMessage(this.replyHandler.obtainMessage(what, obj));
+        }
+    }
+
+    protected void sendMessage(int what, int arg1, int arg2) {
+        if (this.replyHandler != null) {
+            this.replyHandler.sendMessage(this.replyHandler.obtainMessage(what, arg1, arg2, null));
+        }
+    }
+
+    protected boolean hasReplyHandler() {
+        return this.replyHandler != null;
+    }
+
+    /**
+     * Returns a message of the reply handler, only call it if there is one.
+     */
+    protected Message obtainMessage(int what) {
+        return this.replyHandler.obtainMessage(what, null);
+    }
+
+    protected void sendMessage(Message message) {
+        this.replyHandler.sendMessage(message);
+    }
+
+    /**
+     * Waits until the reply is complete.
+     *
+     * @return <code>false</code>, if no data arrived within the reply timeout
+     * @throws InterruptedException
+     */
+    boolean awaitReply() throws InterruptedException {
+        synchronized (this.replyLock) {
+            this.lastActivity = System.currentTimeMillis();
+            while (!this.replyComplete) {
+                long remaining = this.lastActivity + this.getReplyTimeout() - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                this.replyLock.wait(remaining);
+            }
+            return true;
+        }
+    }
+}
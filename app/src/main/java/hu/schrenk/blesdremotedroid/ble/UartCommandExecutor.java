@@ -0,0 +1,146 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the {@link UartCommand}s of a connection one after the other on a dedicated thread, in
+ * the order they were submitted. The next command is sent as soon as the reply of the previous
+ * one is complete, so commands can be submitted back-to-back without any waiting.
+ *
+ * Commands with {@link UartCommandPriority#BACKGROUND} priority are kept behind the normal ones,
+ * so a background command is sent only when the link would be idle otherwise.
+ */
+public class UartCommandExecutor {
+
+    private static final String TAG = "UartCommandExecutor";
+
+    public static final long CONNECTION_TIMEOUT = 30000; //ms
+
+    private final UartLink link;
+    private final UartReceiver receiver;
+    private final ThreadPoolExecutor executorService;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile UartCommand<?> activeCommand;
+
+    /**
+     * @param link the connection the commands are sent on
+     * @param receiver the receiver of the same connection
+     */
+    public UartCommandExecutor(UartLink link, UartReceiver receiver) {
+        this.link = link;
+        this.receiver = receiver;
+        // Only execute() is used, so the queue holds CommandTasks only
+        this.executorService = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG);
+            }
+        });
+    }
+
+    /**
+     * Queues the command.
+     *
+     * @param command
+     * @return the future of the command result
+     */
+    public <T> UartCommandFuture<T> submit(final UartCommand<T> command) {
+        try {
+            this.executorService.execute(new CommandTask(command, this.sequence.getAndIncrement()));
+        } catch (RejectedExecutionException ree) {
+            command.fail(new UartConnectionException("Command executor was shut down."));
+        }
+        return command.getFuture();
+    }
+
+    /**
+     * Stops the executor thread. The running and the queued commands fail, so nobody waits for
+     * their results.
+     */
+    public void shutdown() {
+        //The queue is emptied first, so the thread does not start the next command
+        this.executorService.shutdown();
+        List<Runnable> queuedTasks = new ArrayList<>();
+        this.executorService.getQueue().drainTo(queuedTasks);
+        UartCommand<?> command = this.activeCommand;
+        if (command != null) {
+            command.fail(new UartConnectionException("Command executor was shut down."));
+        }
+        queuedTasks.addAll(this.executorService.shutdownNow());
+        for (Runnable task : queuedTasks) {
+            ((CommandTask)task).command.fail(new UartConnectionException("Command executor was shut down."));
+        }
+    }
+
+    private void runCommand(UartCommand<?> command) {
+        if (command.getFuture().isDone()) {
+            //Cancelled before it was started
+            return;
+        }
+
+        this.activeCommand = command;
+        try {
+            if (!this.link.awaitReady(CONNECTION_TIMEOUT)) {
+                command.fail(new UartConnectionException("UART connection is not available."));
+                return;
+            }
+
+            this.receiver.setActiveCommand(command);
+            command.execute(this.link);
+            if (!command.awaitReply()) {
+                Log.e(TAG, "Reply timeout: " + command.getCommandText());
+                this.receiver.getTelemetry().onReplyTimeout();
+                command.onTimeout();
+            }
+        } catch (IOException ioe) {
+            Log.e(TAG, "Command failed: " + command.getCommandText(), ioe);
+            command.fail(ioe);
+        } catch (InterruptedException ie) {
+            command.fail(ie);
+            Thread.currentThread().interrupt();
+        } finally {
+            this.activeCommand = null;
+            this.receiver.setActiveCommand(null);
+            UartCommandFuture<?> future = command.getFuture();
+            if (future.isDone() && !future.isSuccessful() && !future.isCancelled()) {
+                this.receiver.getTelemetry().onCommandFailed();
+            }
+        }
+    }
+
+    private class CommandTask implements Runnable, Comparable<CommandTask> {
+
+        private final UartCommand<?> command;
+        private final long sequence;
+
+        CommandTask(UartCommand<?> command, long sequence) {
+            this.command = command;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            runCommand(this.command);
+        }
+
+        @Override
+        public int compareTo(CommandTask other) {
+            int result = this.command.getPriority().compareTo(other.command.getPriority());
+            if (result == 0) {
+                // First in, first out within the same priority
+                result = this.sequence < other.sequence ? -1 : (this.sequence == other.sequence ? 0 : 1);
+            }
+            return result;
+        }
+    }
+}
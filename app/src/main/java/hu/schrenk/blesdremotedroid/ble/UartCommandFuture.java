@@ -0,0 +1,182 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of a {@link UartCommand}. Besides the blocking {@link Future} methods, listeners can
+ * be registered, which are called on the thread completing the command.
+ *
+ * @param <T> the type of the command result
+ */
+public class UartCommandFuture<T> implements Future<T> {
+
+    public interface Listener<T> {
+        void onDone(UartCommandFuture<T> future);
+    }
+
+    private final Object lock = new Object();
+    private final List<Listener<T>> listeners = new ArrayList<>();
+
+    private boolean done = false;
+    private boolean cancelled = false;
+    private T result;
+    private Exception failure;
+
+    /**
+     * Completes the future with the given result.
+     *
+     * @param result
+     * @return <code>false</code>, if the future was already done
+     */
+    public boolean complete(T result) {
+        synchronized (this.lock) {
+            if (this.done) {
+                return false;
+            }
+            this.result = result;
+            this.done = true;
+            this.lock.notifyAll();
+        }
+        this.notifyListeners();
+        return true;
+    }
+
+    /**
+     * Completes the future with the given failure.
+     *
+     * @param failure
+     * @return <code>false</code>, if the future was already done
+     */
+    public boolean fail(Exception failure) {
+        synchronized (this.lock) {
+            if (this.done) {
+                return false;
+            }
+            this.failure = failure;
+            this.done = true;
+            this.lock.notifyAll();
+        }
+        this.notifyListeners();
+        return true;
+    }
+
+    /**
+     * Registers a listener. It is called immediately, if the future is already done.
+     *
+     * @param listener
+     */
+    public void addListener(Listener<T> listener) {
+        synchronized (this.lock) {
+            if (!this.done) {
+                this.listeners.add(listener);
+                return;
+            }
+        }
+        listener.onDone(this);
+    }
+
+    /**
+     * Cancels a command, which has not been started yet. A running command can not be stopped
+     * in the middle of a BLE exchange, it only gets its result dropped.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this.lock) {
+            if (this.done) {
+                return false;
+            }
+            this.cancelled = true;
+            this.done = true;
+            this.lock.notifyAll();
+        }
+        this.notifyListeners();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.lock) {
+            return this.cancelled;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (this.lock) {
+            return this.done;
+        }
+    }
+
+    /**
+     * Returns <code>true</code>, if the command was completed with a result.
+     */
+    public boolean isSuccessful() {
+        synchronized (this.lock) {
+            return this.done && !this.cancelled && this.failure == null;
+        }
+    }
+
+    /**
+     * Returns the result without waiting.
+     *
+     * @return <code>null</code>, if the command was not completed with a result
+     */
+    public T getNow() {
+        synchronized (this.lock) {
+            return this.isSuccessful() ? this.result : null;
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (this.lock) {
+            while (!this.done) {
+                this.lock.wait();
+            }
+            return this.getResult();
+        }
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        synchronized (this.lock) {
+            long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+            while (!this.done) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                this.lock.wait(remaining);
+            }
+            return this.getResult();
+        }
+    }
+
+    //Has to be called holding the lock
+    private T getResult() throws ExecutionException {
+        if (this.cancelled) {
+            throw new CancellationException();
+        }
+        if (this.failure != null) {
+            throw new ExecutionException(this.failure);
+        }
+        return this.result;
+    }
+
+    private void notifyListeners() {
+        List<Listener<T>> notified;
+        synchronized (this.lock) {
+            notified = new ArrayList<>(this.listeners);
+            this.listeners.clear();
+        }
+        for (Listener<T> listener : notified) {
+            listener.onDone(this);
+        }
+    }
+}
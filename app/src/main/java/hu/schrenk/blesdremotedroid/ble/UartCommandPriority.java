@@ -0,0 +1,17 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+/**
+ * Defines the order, in which the queued {@link UartCommand}s are sent.
+ */
+public enum UartCommandPriority {
+
+    /**
+     * The command was requested by the user. It is sent before any queued background command.
+     */
+    NORMAL,
+
+    /**
+     * Speculative work, e.g. a prefetched listing. It is sent only when no normal command is queued.
+     */
+    BACKGROUND
+}
@@ -0,0 +1,14 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import java.io.IOException;
+
+/**
+ * A command failed, because the UART connection is not available. The following commands would
+ * fail the same way, so a long task, e.g. a crawl, stops at the first one.
+ */
+public class UartConnectionException extends IOException {
+
+    public UartConnectionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+/**
+ * The steps of setting up the UART connection. Commands can be sent only in the READY state.
+ */
+public enum UartConnectionState {
+    DISCONNECTED, CONNECTING, DISCOVERING, NEGOTIATING_MTU, ENABLING_NOTIFICATIONS, READY
+}
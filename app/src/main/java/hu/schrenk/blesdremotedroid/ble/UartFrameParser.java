@@ -0,0 +1,154 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import java.nio.charset.Charset;
+
+/**
+ * Incremental parser of the <code>@field%field%...#</code> reply frames.
+ *
+ * Bytes are fed in as the notifications arrive. Every byte is looked at only once: the frame
+ * content is collected into a growing buffer and the field boundaries are recorded, so no text
+ * is built until a field is asked for. Bytes before the frame start are skipped. An <code>@</code>
+ * inside a frame is handled as data, because it is a valid character in file names.
+ *
+ * The parser stops right after the frame end, so the caller can process the frame and handle the
+ * remaining bytes of the notification (e.g. the file content after a GET_FILE header).
+ */
+public class UartFrameParser {
+
+    public static final byte FRAME_START = 64; //@
+    public static final byte FIELD_SEPARATOR = 37; //%
+    public static final byte FRAME_END = 35; //#
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 256;
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size = 0;
+
+    //Exclusive end index of every field in the buffer, the separators are kept in the buffer
+    private int[] fieldEnds = new int[8];
+    private int fieldCount = 0;
+
+    private boolean inFrame = false;
+    private boolean frameComplete = false;
+
+    /**
+     * Processes the bytes until the end of the next frame.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return the number of consumed bytes
+     */
+    public synchronized int parse(byte[] data, int offset, int length) {
+        if (this.frameComplete) {
+            this.clear();
+        }
+
+        int end = offset + length;
+        int i = offset;
+        if (!this.inFrame) {
+            while (i < end && data[i] != FRAME_START) {
+                i++;
+            }
+            if (i == end) {
+                return length;
+            }
+            this.inFrame = true;
+            i++;
+        }
+
+        int dataStart = i;
+        while (i < end) {
+            byte value = data[i];
+            if (value == FRAME_END) {
+                this.append(data, dataStart, i - dataStart);
+                this.addFieldEnd(this.size);
+                this.inFrame = false;
+                this.frameComplete = true;
+                return i + 1 - offset;
+            } else if (value == FIELD_SEPARATOR) {
+                this.addFieldEnd(this.size + i - dataStart);
+            }
+            i++;
+        }
+        this.append(data, dataStart, end - dataStart);
+        return length;
+    }
+
+    /**
+     * Returns <code>true</code>, if the last {@link #parse(byte[], int, int)} call ended with a complete frame.
+     */
+    public synchronized boolean isFrameComplete() {
+        return this.frameComplete;
+    }
+
+    /**
+     * Returns <code>true</code>, if a frame was started, but it is not complete yet.
+     */
+    public synchronized boolean isInFrame() {
+        return this.inFrame;
+    }
+
+    public synchronized int getFieldCount() {
+        return this.fieldCount;
+    }
+
+    /**
+     * Returns the field with the given index of the completed frame.
+     *
+     * @param index
+     * @return empty string, if there is no such field
+     */
+    public synchronized String getField(int index) {
+        if (index < 0 || index >= this.fieldCount) {
+            return "";
+        }
+        int start = index == 0 ? 0 : this.fieldEnds[index - 1] + 1;
+        int end = this.fieldEnds[index];
+        return new String(this.buffer, start, end - start, UTF_8);
+    }
+
+    /**
+     * Returns the whole content between the frame start and end, including the field separators.
+     */
+    public synchronized String getPayload() {
+        return new String(this.buffer, 0, this.size, UTF_8);
+    }
+
+    /**
+     * Drops the partially received frame.
+     */
+    public synchronized void reset() {
+        this.clear();
+    }
+
+    private void clear() {
+        this.size = 0;
+        this.fieldCount = 0;
+        this.inFrame = false;
+        this.frameComplete = false;
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (this.size + length > this.buffer.length) {
+            byte[] grown = new byte[Math.max(this.buffer.length * 2, this.size + length)];
+            System.arraycopy(this.buffer, 0, grown, 0, this.size);
+            this.buffer = grown;
+        }
+        System.arraycopy(data, offset, this.buffer, this.size, length);
+        this.size += length;
+    }
+
+    private void addFieldEnd(int fieldEnd) {
+        if (this.fieldCount == this.fieldEnds.length) {
+            int[] grown = new int[this.fieldEnds.length * 2];
+            System.arraycopy(this.fieldEnds, 0, grown, 0, this.fieldCount);
+            this.fieldEnds = grown;
+        }
+        this.fieldEnds[this.fieldCount++] = fieldEnd;
+    }
+}
@@ -4,35 +4,54 @@ import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.Build;
 import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.UUID;
 
-import hu.schrenk.blesdremotedroid.util.ByteUtils;
-
-public class UartGattCallback extends BluetoothGattCallback {
+public class UartGattCallback extends BluetoothGattCallback implements UartLink {
 
     private static final String TAG = "UartGattCallback";
 
     public static final int MESSAGE_BROWSE_COMPLETE = 10;
+    public static final int MESSAGE_BROWSE_PARTIAL = 11;
     public static final int FILE_DOWNLOAD_STARTED = 20;
     public static final int FILE_DOWNLOAD_IN_PROGRESS = 21;
     public static final int FILE_DOWNLOAD_FINISHED = 22;
+    public static final int FILE_DOWNLOAD_ERROR = 23;
+    public static final int DOWNLOAD_QUEUE_PROGRESS = 24;
+    public static final int DOWNLOAD_QUEUE_FINISHED = 25;
     public static final int FILE_DELETE_FINISHED = 30;
+    public static final int FILE_DELETE_ERROR = 31;
+    public static final int FILE_BATCH_DELETE_FINISHED = 32;
     public static final int FILE_INFO_READY = 44;
+    public static final int FILE_METADATA_READY = 45;
     public static final int FILE_UPLOAD_STARTED = 51;
     public static final int FILE_UPLOAD_ERROR = 52;
     public static final int FILE_UPLOAD_FINISHED = 53;
-
+    public static final int FILE_UPLOAD_IN_PROGRESS = 54;
+    public static final int CONNECTION_LOST = 60;
+    public static final int INDEX_CRAWL_FINISHED = 70;
+    public static final int SYNC_PLAN_READY = 80;
+    public static final int SYNC_PROGRESS = 81;
+    public static final int SYNC_FINISHED = 82;
+    public static final int SYNC_ERROR = 83;
+
+    // Chunk size of the default 23 bytes ATT MTU, used when a larger MTU can not be negotiated
     public static final int UART_TX_MAX_CHARACTERS = 20;
 
+    public static final int REQUESTED_MTU = 247;
+    public static final int ATT_HEADER_SIZE = 3;
+
+    static final int COMMAND_BUFFER_SIZE = 256;
+
     // UUIDs for UART service and associated characteristics.
     public static UUID UART_UUID = UUID.fromString("6E400001-B5A3-F393-E0A9-E50E24DCCA9E");
     public static UUID TX_UUID   = UUID.fromString("6E400002-B5A3-F393-E0A9-E50E24DCCA9E");
@@ -41,65 +60,68 @@ public class UartGattCallback extends BluetoothGattCallback {
     // UUID for the UART BTLE client characteristic which is necessary for notifications.
     public static UUID CLIENT_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
+    private BluetoothGatt gatt;
     private BluetoothGattCharacteristic tx;
     private BluetoothGattCharacteristic rx;
 
-    private Handler replyMessageHandler;
-    private UartMessageType messageType = UartMessageType.LIST;
+    private final UartTelemetry telemetry = new UartTelemetry();
+    private final UartWriteQueue writeQueue = new UartWriteQueue(new GattTxChannel(), this.telemetry);
 
-    private volatile boolean connected = false;
+    //Commands are encoded into reused buffers, one sender at a time
+    private final Object sendLock = new Object();
+    private final CharsetEncoder commandEncoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private CharBuffer commandChars = CharBuffer.allocate(COMMAND_BUFFER_SIZE);
+    private ByteBuffer commandBytes = ByteBuffer.allocate(COMMAND_BUFFER_SIZE * 3);
 
-    private StringBuffer receiveBuffer = new StringBuffer();
+    private Handler replyMessageHandler;
+
+    //Commands are run one after the other, replies are routed to the active one
+    private final UartCommandExecutor commandExecutor;
 
-    //File download related variables
-    private volatile boolean isDownloading = false;
-    private File downloadFile;
-    private FileOutputStream downloadFileStream;
-    private Integer downloadFileSize = 0;
-    private Integer downloadSizeReceived = 0;
+    // The callback is created for a connectGatt() call, so it starts in the CONNECTING state
+    private final Object stateLock = new Object();
+    private UartConnectionState connectionState = UartConnectionState.CONNECTING;
 
-    //File upload related variables
-    private File uploadFile;
+    private final UartReceiver receiver = new UartReceiver(this.telemetry);
 
     public UartGattCallback(Handler replyMessageHandler) {
         super();
         this.replyMessageHandler = replyMessageHandler;
+        this.commandExecutor = new UartCommandExecutor(this, this.receiver);
     }
 
-    public boolean startDownload(File downloadFile) {
-        this.downloadFile = downloadFile;
-        try {
-            boolean fileReady;
-            if (this.downloadFile.exists()) {
-                fileReady = this.downloadFile.delete();
-                if (!fileReady) {
-                    Log.e(TAG, downloadFile.getName() + " could not be deleted!");
-                    return false;
-                }
-            }
-            fileReady = this.downloadFile.createNewFile();
-            if (!fileReady) {
-                Log.e(TAG, downloadFile.getName() + " could not be created!");
-                return false;
-            }
+    /**
+     * Queues a command. It is sent when the connection is ready and the previous commands got
+     * their replies.
+     *
+     * @param command
+     * @return the future of the command result
+     */
+    public <T> UartCommandFuture<T> submit(UartCommand<T> command) {
+        return this.commandExecutor.submit(command);
+    }
 
-            Log.i(TAG, "Download can be started for: " + this.downloadFile.getName());
-            this.downloadFileStream = new FileOutputStream(this.downloadFile);
-            this.isDownloading = false;
-            this.downloadFileSize = 0;
-            this.downloadSizeReceived = 0;
-            this.receiveBuffer = new StringBuffer();
-            return true;
-        } catch (IOException ioe) {
-            this.downloadFileStream = null;
-            return false;
-        }
+    /**
+     * Returns the executor of the connection, e.g. for a {@link DownloadQueue}.
+     */
+    public UartCommandExecutor getCommandExecutor() {
+        return this.commandExecutor;
     }
 
-    public boolean startUpload(File uploadFile) {
-        this.uploadFile = uploadFile;
-        this.receiveBuffer = new StringBuffer();
-        return true;
+    /**
+     * Returns the transfer metrics of the connection.
+     */
+    public UartTelemetry getTelemetry() {
+        return this.telemetry;
+    }
+
+    /**
+     * Stops the command executor. Has to be called when the GATT connection is closed.
+     */
+    public void close() {
+        this.commandExecutor.shutdown();
     }
 
     @Override
@@ -108,6 +130,7 @@ public class UartGattCallback extends BluetoothGattCallback {
         if (newState == BluetoothGatt.STATE_CONNECTED) {
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 // Connected to device, start discovering services.
+                this.setConnectionState(UartConnectionState.DISCOVERING);
                 if (!gatt.discoverServices()) {
                     // Error starting service discovery.
                     connectFailure();
@@ -120,9 +143,7 @@ public class UartGattCallback extends BluetoothGattCallback {
         }
         else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
             // Disconnected, notify callbacks of disconnection.
-            rx = null;
-            tx = null;
-            this.connected = false;
+            connectFailure();
         }
     }
 
@@ -136,11 +157,54 @@ public class UartGattCallback extends BluetoothGattCallback {
         }
 
         // Save reference to each UART characteristic.
-        tx = gatt.getService(UART_UUID).getCharacteristic(TX_UUID);
-        rx = gatt.getService(UART_UUID).getCharacteristic(RX_UUID);
+        this.gatt = gatt;
+        BluetoothGattService uartService = gatt.getService(UART_UUID);
+        if (uartService == null) {
+            // Stop if the device has no UART service.
+            connectFailure();
+            return;
+        }
+        tx = uartService.getCharacteristic(TX_UUID);
+        rx = uartService.getCharacteristic(RX_UUID);
+
+        // Start from the default chunk size, a larger one is used only if the MTU negotiation succeeds
+        this.writeQueue.setChunkSize(UART_TX_MAX_CHARACTERS);
+
+        // Only one GATT operation can be in flight, so notifications are enabled after the MTU exchange
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            this.setConnectionState(UartConnectionState.NEGOTIATING_MTU);
+            if (gatt.requestMtu(REQUESTED_MTU)) {
+                Log.i(TAG, "MTU " + REQUESTED_MTU + " was requested.");
+                return;
+            }
+        }
+        this.enableNotifications(gatt);
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        super.onMtuChanged(gatt, mtu, status);
+        if (status == BluetoothGatt.GATT_SUCCESS && mtu - ATT_HEADER_SIZE > UART_TX_MAX_CHARACTERS) {
+            this.writeQueue.setChunkSize(mtu - ATT_HEADER_SIZE);
+        } else {
+            this.writeQueue.setChunkSize(UART_TX_MAX_CHARACTERS);
+        }
+        Log.i(TAG, "MTU negotiation status: " + status + " MTU: " + mtu + " TX chunk size: " + this.writeQueue.getChunkSize());
+        if (this.getConnectionState() == UartConnectionState.NEGOTIATING_MTU) {
+            // The peripheral can start an MTU exchange later as well
+            this.enableNotifications(gatt);
+        }
+    }
+
+    private void enableNotifications(BluetoothGatt gatt) {
+        if (rx == null) {
+            // Disconnected during the MTU exchange
+            return;
+        }
 
         // Setup notifications on RX characteristic changes (i.e. data received).
         // First call setCharacteristicNotification to enable notification.
+        this.setConnectionState(UartConnectionState.ENABLING_NOTIFICATIONS);
         if (!gatt.setCharacteristicNotification(rx, true)) {
             // Stop if the characteristic notification setup failed.
             connectFailure();
@@ -158,16 +222,33 @@ public class UartGattCallback extends BluetoothGattCallback {
         if (!gatt.writeDescriptor(desc)) {
             // Stop if the client descriptor could not be written.
             connectFailure();
+        }
+        // The connection gets ready, when the descriptor write is confirmed
+    }
+
+    @Override
+    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        super.onDescriptorWrite(gatt, descriptor, status);
+        if (rx == null || descriptor.getCharacteristic() != rx || !CLIENT_UUID.equals(descriptor.getUuid())) {
             return;
         }
-        // Notify of connection completion.
-        this.connected = true;
-        Log.i(TAG, "UART service was connected.");
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            // Notify of connection completion.
+            this.setConnectionState(UartConnectionState.READY);
+            Log.i(TAG, "UART service was connected.");
+        } else {
+            Log.e(TAG, "Notifications could not be enabled. Status: " + status);
+            connectFailure();
+        }
     }
 
     @Override
     public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         super.onCharacteristicWrite(gatt, characteristic, status);
+        if (characteristic == tx) {
+            // Release the writer thread waiting for the acknowledge
+            this.writeQueue.onWriteComplete(status);
+        }
     }
 
     @Override
@@ -180,193 +261,139 @@ public class UartGattCallback extends BluetoothGattCallback {
         super.onCharacteristicChanged(gatt, characteristic);
 
         byte[] bytes = characteristic.getValue();
-        if (bytes.length > 0) {
-            switch (this.messageType) {
-                case LIST: {
-                    final String response = new String(bytes, Charset.forName("UTF-8"));
-
-                    if (bytes.length > 2 && bytes[0] == 64 && bytes[bytes.length - 1] == 35) { // START and END present - @xxx#
-                        this.receiveBuffer = new StringBuffer();
-                        this.receiveBuffer = this.receiveBuffer.append(response);
-                        this.receiveBuffer = this.receiveBuffer.deleteCharAt(0);
-                        this.receiveBuffer = this.receiveBuffer.deleteCharAt(this.receiveBuffer.length() - 1);
-
-                        this.sendMessage(MESSAGE_BROWSE_COMPLETE, this.receiveBuffer.toString());
-                        Log.i(TAG, "Message received: " + this.receiveBuffer.toString());
-                    } else if (bytes[0] == 64) { //@ - START without END
-                        this.receiveBuffer = new StringBuffer();
-                        this.receiveBuffer = this.receiveBuffer.append(response).deleteCharAt(0);
-                    } else if (bytes[bytes.length - 1] == 35) { //# - END without START
-                        this.receiveBuffer = this.receiveBuffer.append(response).deleteCharAt(this.receiveBuffer.length() - 1);
-
-                        sendMessage(MESSAGE_BROWSE_COMPLETE, this.receiveBuffer.toString());
-                        Log.i(TAG, "Message received: " + this.receiveBuffer.toString());
-                    } else { //In the middle - No START and END
-                        this.receiveBuffer = this.receiveBuffer.append(response);
-                    }
-                } break;
-                case INFO: {
-                    final String response = new String(bytes, Charset.forName("UTF-8"));
-                    if (ByteUtils.contains(bytes, (byte)64)) { //@ - START
-                        this.receiveBuffer = new StringBuffer();
-                    }
-                    this.receiveBuffer = this.receiveBuffer.append(response);
-
-                    if (ByteUtils.contains(bytes, (byte)35)) { //# - END
-                        this.receiveBuffer = this.receiveBuffer.deleteCharAt(0);
-                        this.receiveBuffer = this.receiveBuffer.deleteCharAt(this.receiveBuffer.length() - 1);
-
-                        String[] messageParts = this.receiveBuffer.toString().split("%");
-                        int fileSize = 0;
-                        try {
-                            fileSize = Integer.valueOf(messageParts[1]);
-                        } catch (NumberFormatException nfe) {
-                            Log.e(TAG, "Unable to parse file size: " + messageParts[1]);
-                        }
-                        Log.i(TAG, "INFO File name: " + messageParts[0]);
-                        Log.i(TAG, "INFO File size: " + fileSize);
-                        Log.i(TAG, "INFO Creation date: " + messageParts[2]);
-                        Log.i(TAG, "INFO Modification date: " + messageParts[3]);
-
-                        Message infoMessage = this.replyMessageHandler.obtainMessage(FILE_INFO_READY, null);
-                        infoMessage.getData().putString("NAME", messageParts[0]);
-                        infoMessage.getData().putInt("SIZE", fileSize);
-                        infoMessage.getData().putString("CREATION_DATE", messageParts[2]);
-                        infoMessage.getData().putString("MODIFICATION_DATE", messageParts[3]);
-                        sendMessage(infoMessage);
-                    }
-                } break;
-                case DELETE_FILE: {
-                    this.receiveBuffer = this.receiveBuffer.append(new String(bytes, Charset.forName("UTF-8")));
-                    if (this.receiveBuffer.toString().contains("#")) {
-                        if (this.receiveBuffer.toString().contains("@OK%")) {
-                            String fileName = this.receiveBuffer.substring(4, this.receiveBuffer.indexOf("#"));
-                            Log.i(TAG, fileName + " was deleted.");
-                            sendMessage(FILE_DELETE_FINISHED, fileName);
-                        } else {
-                            Log.e(TAG, "File delete error: " + this.receiveBuffer.toString());
-                        }
-                        this.receiveBuffer.delete(0, this.receiveBuffer.length()); //Clean the buffer
-                    }
-                } break;
-                case GET_FILE: {
-                    if (!isDownloading) {
-                        this.receiveBuffer = this.receiveBuffer.append(new String(bytes, Charset.forName("UTF-8")));
-
-                        if (this.receiveBuffer.toString().contains("#")) {
-                            String fileSizeText = this.receiveBuffer.substring(1, this.receiveBuffer.indexOf("#"));
-                            try {
-                                this.downloadFileSize = Integer.valueOf(fileSizeText);
-                                sendMessage(FILE_DOWNLOAD_STARTED, this.downloadFileSize);
-                            } catch (NumberFormatException nfe) {
-                                Log.e(TAG, "Unable to parse file size: " + fileSizeText);
-                                this.downloadFileSize = 0;
-                            }
-                            Log.i(TAG, "File size: " + this.downloadFileSize);
-                            this.receiveBuffer.delete(0, this.receiveBuffer.length()); //Clean the buffer
-
-                            bytes = ByteUtils.subByteArray(bytes, ByteUtils.indexOf(bytes, (byte)35)); //#
-                            this.isDownloading = true; //Switch to downloading mode
-                        }
-                    }
-
-                    if (this.isDownloading) {
-                        try {
-                            if (this.downloadFileStream != null) {
-                                this.downloadFileStream.write(bytes);
-                                this.downloadFileStream.flush();
-                                this.downloadSizeReceived += bytes.length;
-                                sendMessage(FILE_DOWNLOAD_IN_PROGRESS, this.downloadSizeReceived);
-                                Log.i(TAG, this.downloadSizeReceived + "/" + this.downloadFileSize);
-                            }
-
-                            if (this.downloadSizeReceived >= this.downloadFileSize) {
-                                this.downloadFileStream.close();
-                                this.downloadFileStream = null;
-                                this.isDownloading = false;
-                                sendMessage(FILE_DOWNLOAD_FINISHED, null);
-                                Log.i(TAG, "File " + this.downloadFile.getName() + " was downloaded.");
-                            }
-
-                        } catch (IOException ioe) {
-                            Log.e(TAG, "Error during file download operation.", ioe);
-                            if (downloadFileStream != null) {
-                                try {
-                                    this.downloadFileStream.close();
-                                } catch (IOException e) {
-                                    Log.e(TAG, "Error during file download file stream close operation.", e);
-                                } finally {
-                                    this.downloadFileStream = null;
-                                }
-                            }
-                        }
-                    }
-                } break;
-                case PUT_FILE: {
-                    this.receiveBuffer = this.receiveBuffer.append(new String(bytes, Charset.forName("UTF-8")));
-                    if (this.receiveBuffer.toString().contains("@OK#")) {
-                        this.sendMessage(FILE_UPLOAD_STARTED, this.uploadFile);
-                    }
-                    if (this.receiveBuffer.toString().contains("@KO#")) {
-                        this.sendMessage(FILE_UPLOAD_ERROR, this.uploadFile);
-                    }
-                } break;
-            }
-        }
+        this.receiver.receive(bytes, 0, bytes.length);
     }
 
     void sendMessage(int what, Object obj) {
         this.replyMessageHandler.sendMessage(this.replyMessageHandler.obtainMessage(what, obj));
     }
 
-    void sendMessage(Message message) {
-        this.replyMessageHandler.sendMessage(message);
-    }
-
     // Notify callbacks of connection failure, and reset connection state.
     private void connectFailure() {
         rx = null;
         tx = null;
-        this.connected = false;
+        this.writeQueue.cancel();
+        if (this.getConnectionState() != UartConnectionState.DISCONNECTED) {
+            this.setConnectionState(UartConnectionState.DISCONNECTED);
+            sendMessage(CONNECTION_LOST, null);
+        }
+        this.receiver.connectionLost();
+    }
+
+    private void setConnectionState(UartConnectionState connectionState) {
+        synchronized (this.stateLock) {
+            Log.i(TAG, "Connection state: " + this.connectionState + " -> " + connectionState);
+            this.connectionState = connectionState;
+            this.telemetry.onConnectionState(connectionState);
+            this.stateLock.notifyAll();
+        }
+    }
+
+    public UartConnectionState getConnectionState() {
+        synchronized (this.stateLock) {
+            return this.connectionState;
+        }
     }
 
     public boolean isConnected() {
-        return this.connected;
+        return this.getConnectionState() == UartConnectionState.READY;
+    }
+
+    /**
+     * Waits until the notifications are enabled on the UART connection.
+     */
+    @Override
+    public boolean awaitReady(long timeout) throws InterruptedException {
+        synchronized (this.stateLock) {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (this.connectionState != UartConnectionState.READY && this.connectionState != UartConnectionState.DISCONNECTED) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                this.stateLock.wait(remaining);
+            }
+            return this.connectionState == UartConnectionState.READY;
+        }
     }
 
-    private void send(BluetoothGatt gatt, byte[] data) {
-        if (!connected || tx == null || data == null || data.length == 0) {
+    /**
+     * Returns the number of bytes sent in one TX characteristic write.
+     */
+    public int getTxChunkSize() {
+        return this.writeQueue.getChunkSize();
+    }
+
+    /**
+     * Sets the maximum number of chunks in flight for {@link UartWriteMode#WITHOUT_RESPONSE} transfers.
+     */
+    public void setBurstWindow(int burstWindow) {
+        this.writeQueue.setMaxWindow(burstWindow);
+    }
+
+    private boolean send(byte[] data, int offset, int length, UartWriteMode writeMode) {
+        if (!isConnected() || tx == null || data == null || length == 0) {
             // Do nothing if there is no connection or message to send.
-            return;
+            return false;
+        }
+
+        // Message has to be sent in chunks, because there is a UART_TX_MAX_CHARACTERS on the UART TX channel.
+        // The next chunk is written when the previous one was acknowledged.
+        return this.writeQueue.write(data, offset, length, writeMode);
+    }
+
+    @Override
+    public boolean sendCommand(String command) {
+        if (command != null && !command.isEmpty()) {
+            if (BleLog.HOT_PATH) {
+                BleLog.i(BleLog.Category.SEND, TAG, "UART send: ", command);
+            }
+            synchronized (this.sendLock) {
+                this.encodeCommand(command);
+                return send(this.commandBytes.array(), 0, this.commandBytes.limit(), UartWriteMode.ACKNOWLEDGED);
+            }
         }
+        return false;
+    }
 
-        // Message has to be sent in chunks, because there is a UART_TX_MAX_CHARACTERS on the UART TX channel
-        for (int i = 0; i < data.length; i += UART_TX_MAX_CHARACTERS) {
-            final byte[] chunk = Arrays.copyOfRange(data, i, Math.min(i + UART_TX_MAX_CHARACTERS, data.length));
-            tx.setValue(chunk);
-            gatt.writeCharacteristic(tx);
-
-            try {
-                //Small break is necessary otherwise the UART connection doesn't notice it as another chunk
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Error during data send." , e);
+    @Override
+    public boolean sendData(byte[] data, int offset, int length, UartWriteMode writeMode) {
+        if (data != null && length > 0) {
+            synchronized (this.sendLock) {
+                return send(data, offset, length, writeMode);
             }
         }
+        return false;
     }
 
-    public void send(BluetoothGatt gatt, String data, UartMessageType uartMessageType) {
-        if (data != null && !data.isEmpty()) {
-            Log.i(TAG, "UART send: " + data);
-            this.messageType = uartMessageType;
-            send(gatt, data.getBytes(Charset.forName("UTF-8")));
+    //Has to be called holding the sendLock
+    private void encodeCommand(String command) {
+        if (command.length() > this.commandChars.capacity()) {
+            this.commandChars = CharBuffer.allocate(command.length());
+            this.commandBytes = ByteBuffer.allocate((int)Math.ceil(command.length() * this.commandEncoder.maxBytesPerChar()));
         }
+        this.commandChars.clear();
+        this.commandChars.put(command);
+        this.commandChars.flip();
+
+        this.commandBytes.clear();
+        this.commandEncoder.reset();
+        this.commandEncoder.encode(this.commandChars, this.commandBytes, true);
+        this.commandEncoder.flush(this.commandBytes);
+        this.commandBytes.flip();
     }
 
-    public void send(BluetoothGatt gatt, byte[] data, UartMessageType uartMessageType) {
-        if (data != null && data.length > 0) {
-            this.messageType = uartMessageType;
-            send(gatt, data);
+    private class GattTxChannel implements UartTxChannel {
+
+        @Override
+        public boolean write(byte[] chunk, boolean withResponse) {
+            BluetoothGattCharacteristic characteristic = tx;
+            if (gatt == null || characteristic == null) {
+                return false;
+            }
+            characteristic.setWriteType(withResponse ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            characteristic.setValue(chunk);
+            return gatt.writeCharacteristic(characteristic);
         }
     }
 
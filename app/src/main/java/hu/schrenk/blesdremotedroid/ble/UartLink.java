@@ -0,0 +1,35 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+/**
+ * The sending side of a UART connection, as seen by the {@link UartCommand}s.
+ */
+public interface UartLink {
+
+    /**
+     * Waits until the connection is ready to send commands.
+     *
+     * @param timeout in milliseconds
+     * @return <code>false</code>, if the connection failed or it did not get ready in time
+     * @throws InterruptedException
+     */
+    boolean awaitReady(long timeout) throws InterruptedException;
+
+    /**
+     * Sends a command text.
+     *
+     * @param command
+     * @return <code>false</code>, if the command could not be written
+     */
+    boolean sendCommand(String command);
+
+    /**
+     * Sends raw data, e.g. uploaded file content.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param writeMode
+     * @return <code>false</code>, if the data could not be written
+     */
+    boolean sendData(byte[] data, int offset, int length, UartWriteMode writeMode);
+}
@@ -1,5 +1,5 @@
 package hu.schrenk.blesdremotedroid.ble;
 
 public enum UartMessageType {
-    LIST, INFO, DELETE_FILE, GET_FILE, PUT_FILE, UPLOAD
+    LIST, INFO, METADATA, DELETE_FILE, GET_FILE, PUT_FILE, UPLOAD
 }
@@ -0,0 +1,83 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+/**
+ * The receiving side of a UART connection. The received notifications are split into reply
+ * frames and raw content, and they are passed to the active {@link UartCommand}. The received
+ * notifications are recorded into a {@link UartTelemetry}.
+ */
+public class UartReceiver {
+
+    private static final String TAG = "UartReceiver";
+
+    private final UartFrameParser frameParser = new UartFrameParser();
+    private final UartTelemetry telemetry;
+    private volatile UartCommand<?> activeCommand;
+
+    public UartReceiver() {
+        this(new UartTelemetry());
+    }
+
+    public UartReceiver(UartTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    public UartTelemetry getTelemetry() {
+        return this.telemetry;
+    }
+
+    /**
+     * Sets the command, which gets the next replies. The leftover of an unfinished reply is dropped.
+     *
+     * @param command
+     */
+    public synchronized void setActiveCommand(UartCommand<?> command) {
+        this.frameParser.reset();
+        this.activeCommand = command;
+        this.telemetry.onCommandStarted();
+    }
+
+    public UartCommand<?> getActiveCommand() {
+        return this.activeCommand;
+    }
+
+    /**
+     * Processes the content of an RX notification.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     */
+    public synchronized void receive(byte[] data, int offset, int length) {
+        this.telemetry.onNotification(length);
+        UartCommand<?> command = this.activeCommand;
+        if (command == null) {
+            Log.w(TAG, "Unexpected data was received: " + length + " bytes");
+            return;
+        }
+
+        int end = offset + length;
+        while (offset < end) {
+            if (command.isReceivingContent()) {
+                // The file content can follow the reply header in the same notification
+                offset += command.onContent(data, offset, end - offset);
+                continue;
+            }
+            offset += this.frameParser.parse(data, offset, end - offset);
+            if (this.frameParser.isFrameComplete()) {
+                command.onFrame(this.frameParser);
+            }
+        }
+    }
+
+    /**
+     * Notifies the active command, that the connection was lost.
+     */
+    public void connectionLost() {
+        UartCommand<?> command = this.activeCommand;
+        if (command != null) {
+            command.onConnectionLost();
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import java.util.Locale;
+
+/**
+ * Collects the transfer metrics of a UART connection: the bytes sent and received, the
+ * acknowledge latency of the TX writes, the time between the RX notifications of a reply, the
+ * write retries, the stalls and the time spent in each {@link UartConnectionState}.
+ *
+ * The counters are cumulative since the start of the session. A {@link Snapshot} is a
+ * consistent copy of them, the live rates are computed from two snapshots.
+ */
+public class UartTelemetry {
+
+    /**
+     * A longer gap between two notifications of the same reply counts as a stall.
+     */
+    public static final long DEFAULT_STALL_THRESHOLD = 1000; //ms
+
+    private final Object lock = new Object();
+    private long stallThresholdNanos = DEFAULT_STALL_THRESHOLD * 1000000L;
+
+    private long sessionStart;
+    private long bytesSent;
+    private long chunksSent;
+    private long bytesReceived;
+    private long notifications;
+    private long writeRetries;
+    private long writeRefusals;
+    private long writeTimeouts;
+    private long receiveStalls;
+    private long replyTimeouts;
+    private long commandsFailed;
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram notificationInterval = new LatencyHistogram();
+    //0 when the next notification starts a new reply
+    private long lastNotification;
+
+    private UartConnectionState connectionState = UartConnectionState.CONNECTING;
+    private long connectionStateSince;
+    private final long[] stateNanos = new long[UartConnectionState.values().length];
+
+    public UartTelemetry() {
+        this.reset();
+    }
+
+    public void setStallThreshold(long stallThreshold) {
+        synchronized (this.lock) {
+            this.stallThresholdNanos = stallThreshold * 1000000L;
+        }
+    }
+
+    /**
+     * Starts a new session, the current connection state is kept.
+     */
+    public void reset() {
+        synchronized (this.lock) {
+            long now = this.nanoTime();
+            this.sessionStart = now;
+            this.bytesSent = 0;
+            this.chunksSent = 0;
+            this.bytesReceived = 0;
+            this.notifications = 0;
+            this.writeRetries = 0;
+            this.writeRefusals = 0;
+            this.writeTimeouts = 0;
+            this.receiveStalls = 0;
+            this.replyTimeouts = 0;
+            this.commandsFailed = 0;
+            this.writeLatency.reset();
+            this.notificationInterval.reset();
+            this.lastNotification = 0;
+            this.connectionStateSince = now;
+            for (int i = 0; i < this.stateNanos.length; i++) {
+                this.stateNanos[i] = 0;
+            }
+        }
+    }
+
+    public Snapshot snapshot() {
+        synchronized (this.lock) {
+            return new Snapshot(this);
+        }
+    }
+
+    void onChunkSent(int length, long latencyNanos) {
+        synchronized (this.lock) {
+            this.bytesSent += length;
+            this.chunksSent++;
+            this.writeLatency.record(latencyNanos / 1000);
+        }
+    }
+
+    void onWriteRetry() {
+        synchronized (this.lock) {
+            this.writeRetries++;
+        }
+    }
+
+    void onWriteRefused() {
+        synchronized (this.lock) {
+            this.writeRefusals++;
+        }
+    }
+
+    void onWriteTimeout() {
+        synchronized (this.lock) {
+            this.writeTimeouts++;
+        }
+    }
+
+    void onNotification(int length) {
+        synchronized (this.lock) {
+            long now = this.nanoTime();
+            if (this.lastNotification != 0) {
+                long interval = now - this.lastNotification;
+                this.notificationInterval.record(interval / 1000);
+                if (interval > this.stallThresholdNanos) {
+                    this.receiveStalls++;
+                }
+            }
+            this.lastNotification = now;
+            this.bytesReceived += length;
+            this.notifications++;
+        }
+    }
+
+    /**
+     * Has to be called when an other command gets the replies, the time between two replies is
+     * not a notification interval.
+     */
+    void onCommandStarted() {
+        synchronized (this.lock) {
+            this.lastNotification = 0;
+        }
+    }
+
+    void onReplyTimeout() {
+        synchronized (this.lock) {
+            this.replyTimeouts++;
+        }
+    }
+
+    void onCommandFailed() {
+        synchronized (this.lock) {
+            this.commandsFailed++;
+        }
+    }
+
+    void onConnectionState(UartConnectionState connectionState) {
+        synchronized (this.lock) {
+            long now = this.nanoTime();
+            this.stateNanos[this.connectionState.ordinal()] += now - this.connectionStateSince;
+            this.connectionState = connectionState;
+            this.connectionStateSince = now;
+        }
+    }
+
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * The metrics of a session at a point in time.
+     */
+    public static class Snapshot {
+
+        private final long time;
+        private final long elapsed;
+        private final long bytesSent;
+        private final long chunksSent;
+        private final long bytesReceived;
+        private final long notifications;
+        private final long writeRetries;
+        private final long writeRefusals;
+        private final long writeTimeouts;
+        private final long receiveStalls;
+        private final long replyTimeouts;
+        private final long commandsFailed;
+        private final LatencyHistogram writeLatency;
+        private final LatencyHistogram notificationInterval;
+        private final UartConnectionState connectionState;
+        private final long[] stateMillis;
+
+        //Has to be called holding the lock of the telemetry
+        private Snapshot(UartTelemetry telemetry) {
+            this.time = telemetry.nanoTime();
+            this.elapsed = (this.time - telemetry.sessionStart) / 1000000L;
+            this.bytesSent = telemetry.bytesSent;
+            this.chunksSent = telemetry.chunksSent;
+            this.bytesReceived = telemetry.bytesReceived;
+            this.notifications = telemetry.notifications;
+            this.writeRetries = telemetry.writeRetries;
+            this.writeRefusals = telemetry.writeRefusals;
+            this.writeTimeouts = telemetry.writeTimeouts;
+            this.receiveStalls = telemetry.receiveStalls;
+            this.replyTimeouts = telemetry.replyTimeouts;
+            this.commandsFailed = telemetry.commandsFailed;
+            this.writeLatency = telemetry.writeLatency.copy();
+            this.notificationInterval = telemetry.notificationInterval.copy();
+            this.connectionState = telemetry.connectionState;
+            this.stateMillis = new long[telemetry.stateNanos.length];
+            for (int i = 0; i < this.stateMillis.length; i++) {
+                long nanos = telemetry.stateNanos[i];
+                if (i == telemetry.connectionState.ordinal()) {
+                    nanos += this.time - telemetry.connectionStateSince;
+                }
+                this.stateMillis[i] = nanos / 1000000L;
+            }
+        }
+
+        /**
+         * Returns the length of the session in milliseconds.
+         */
+        public long getElapsed() {
+            return this.elapsed;
+        }
+
+        public long getBytesSent() {
+            return this.bytesSent;
+        }
+
+        public long getChunksSent() {
+            return this.chunksSent;
+        }
+
+        public long getBytesReceived() {
+            return this.bytesReceived;
+        }
+
+        public long getNotifications() {
+            return this.notifications;
+        }
+
+        public long getWriteRetries() {
+            return this.writeRetries;
+        }
+
+        /**
+         * Returns the number of writes, which the Bluetooth stack could not start.
+         */
+        public long getWriteRefusals() {
+            return this.writeRefusals;
+        }
+
+        /**
+         * Returns the number of acknowledged writes, which were not confirmed in time.
+         */
+        public long getWriteTimeouts() {
+            return this.writeTimeouts;
+        }
+
+        /**
+         * Returns the number of notification gaps longer than the stall threshold.
+         */
+        public long getReceiveStalls() {
+            return this.receiveStalls;
+        }
+
+        public long getReplyTimeouts() {
+            return this.replyTimeouts;
+        }
+
+        public long getCommandsFailed() {
+            return this.commandsFailed;
+        }
+
+        /**
+         * Returns the time between writing a TX chunk and its completion, in microseconds.
+         */
+        public LatencyHistogram getWriteLatency() {
+            return this.writeLatency;
+        }
+
+        /**
+         * Returns the time between two notifications of the same reply, in microseconds.
+         */
+        public LatencyHistogram getNotificationInterval() {
+            return this.notificationInterval;
+        }
+
+        public UartConnectionState getConnectionState() {
+            return this.connectionState;
+        }
+
+        /**
+         * Returns the milliseconds spent in the state during the session.
+         *
+         * @param connectionState
+         */
+        public long getStateTime(UartConnectionState connectionState) {
+            return this.stateMillis[connectionState.ordinal()];
+        }
+
+        /**
+         * Returns the average send rate of the session in bytes per second.
+         */
+        public long getSendRate() {
+            return rate(this.bytesSent, this.elapsed);
+        }
+
+        /**
+         * Returns the average receive rate of the session in bytes per second.
+         */
+        public long getReceiveRate() {
+            return rate(this.bytesReceived, this.elapsed);
+        }
+
+        /**
+         * Returns the send rate since an earlier snapshot in bytes per second.
+         *
+         * @param previous
+         */
+        public long getSendRate(Snapshot previous) {
+            return rate(this.bytesSent - previous.bytesSent, (this.time - previous.time) / 1000000L);
+        }
+
+        /**
+         * Returns the receive rate since an earlier snapshot in bytes per second.
+         *
+         * @param previous
+         */
+        public long getReceiveRate(Snapshot previous) {
+            return rate(this.bytesReceived - previous.bytesReceived, (this.time - previous.time) / 1000000L);
+        }
+
+        private static long rate(long bytes, long millis) {
+            return millis <= 0 || bytes < 0 ? 0 : bytes * 1000 / millis;
+        }
+
+        /**
+         * Returns the snapshot as a JSON object, the durations are in milliseconds, the
+         * latencies in microseconds.
+         */
+        public String toJson() {
+            StringBuilder json = new StringBuilder(1024).append('{');
+            appendField(json, "elapsed", this.elapsed);
+            appendField(json, "bytesSent", this.bytesSent);
+            appendField(json, "chunksSent", this.chunksSent);
+            appendField(json, "bytesReceived", this.bytesReceived);
+            appendField(json, "notifications", this.notifications);
+            appendField(json, "sendRate", this.getSendRate());
+            appendField(json, "receiveRate", this.getReceiveRate());
+            appendField(json, "writeRetries", this.writeRetries);
+            appendField(json, "writeRefusals", this.writeRefusals);
+            appendField(json, "writeTimeouts", this.writeTimeouts);
+            appendField(json, "receiveStalls", this.receiveStalls);
+            appendField(json, "replyTimeouts", this.replyTimeouts);
+            appendField(json, "commandsFailed", this.commandsFailed);
+            json.append("\"writeLatency\":");
+            appendHistogram(json, this.writeLatency);
+            json.append(",\"notificationInterval\":");
+            appendHistogram(json, this.notificationInterval);
+            json.append(",\"connectionState\":\"").append(this.connectionState).append("\",\"stateTime\":{");
+            for (UartConnectionState state : UartConnectionState.values()) {
+                appendField(json, state.name(), this.stateMillis[state.ordinal()]);
+            }
+            json.setLength(json.length() - 1);
+            return json.append("}}").toString();
+        }
+
+        private static void appendField(StringBuilder json, String name, long value) {
+            json.append('"').append(name).append("\":").append(value).append(',');
+        }
+
+        private static void appendHistogram(StringBuilder json, LatencyHistogram histogram) {
+            json.append('{');
+            appendField(json, "count", histogram.getCount());
+            appendField(json, "mean", histogram.getMean());
+            appendField(json, "p50", histogram.getPercentile(0.5));
+            appendField(json, "p90", histogram.getPercentile(0.9));
+            appendField(json, "p99", histogram.getPercentile(0.99));
+            appendField(json, "max", histogram.getMax());
+            json.setLength(json.length() - 1);
+            json.append('}');
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "sent: %d B, received: %d B, write p50/p99: %d/%d us, stalls: %d",
+                    this.bytesSent, this.bytesReceived, this.writeLatency.getPercentile(0.5),
+                    this.writeLatency.getPercentile(0.99), this.receiveStalls + this.writeTimeouts);
+        }
+    }
+}
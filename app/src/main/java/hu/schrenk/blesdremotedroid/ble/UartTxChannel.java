@@ -0,0 +1,17 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+/**
+ * The transmit side of the UART service. The production implementation writes into the
+ * TX characteristic of a {@link android.bluetooth.BluetoothGatt}, tests can use a fake one.
+ */
+public interface UartTxChannel {
+
+    /**
+     * Starts a single characteristic write with the given chunk.
+     *
+     * @param chunk
+     * @param withResponse <code>false</code> for a write without response
+     * @return <code>false</code>, if the write operation could not be started
+     */
+    boolean write(byte[] chunk, boolean withResponse);
+}
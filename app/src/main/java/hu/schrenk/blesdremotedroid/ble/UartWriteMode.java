@@ -0,0 +1,8 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+public enum UartWriteMode {
+    /** Every chunk is written with response and the next one waits for the acknowledge. */
+    ACKNOWLEDGED,
+    /** Chunks are written without response, several of them can be in flight. */
+    WITHOUT_RESPONSE
+}
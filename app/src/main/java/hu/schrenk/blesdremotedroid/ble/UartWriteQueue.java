@@ -0,0 +1,424 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.util.Log;
+
+import hu.schrenk.blesdremotedroid.util.ByteUtils;
+
+/**
+ * Sends data in chunks over a {@link UartTxChannel}.
+ *
+ * In {@link UartWriteMode#ACKNOWLEDGED} mode the next chunk is written as soon as the previous
+ * one was confirmed by {@link #onWriteComplete(int)}. A chunk which was not confirmed within the
+ * acknowledge timeout, or which was reported as failed, is written again until the retry limit
+ * is reached.
+ *
+ * In {@link UartWriteMode#WITHOUT_RESPONSE} mode up to a window of chunks can be in flight. The
+ * window shrinks to the half when the Bluetooth stack refuses a write or reports one as failed,
+ * and grows by one after each full window of completed writes. A refused chunk is written again,
+ * but a chunk reported as failed can not be resent without breaking the byte order, so it fails
+ * the whole write.
+ *
+ * The completions do not tell which write they belong to, but they arrive in the order of the
+ * writes, so each one is matched to the oldest write not completed yet. The writes, which are not
+ * waited for any more after a timeout or a failed burst, belong to an earlier generation, their
+ * late completions are ignored instead of confirming a later chunk. Every started write is
+ * completed by the Bluetooth stack until the connection is lost, then {@link #cancel()} forgets
+ * the outstanding ones.
+ *
+ * Chunks are copied into the buffers of a {@link TxBufferPool}, so a steady upload does not
+ * allocate memory per chunk. The write latencies, retries and timeouts are recorded into a
+ * {@link UartTelemetry}.
+ *
+ * The write methods block the calling thread, so they must not be called on the main thread
+ * or on the Bluetooth callback thread.
+ */
+public class UartWriteQueue {
+
+    private static final String TAG = "UartWriteQueue";
+
+    public static final long DEFAULT_ACK_TIMEOUT = 1000; //ms
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final int DEFAULT_MAX_WINDOW = 8;
+
+    //Wait a bit before the next attempt, if the Bluetooth stack refused the write
+    private static final long BUSY_RETRY_DELAY = 10; //ms
+
+    private final UartTxChannel channel;
+    private final UartTelemetry telemetry;
+    private final Object ackLock = new Object();
+    private final TxBufferPool bufferPool = new TxBufferPool(UartGattCallback.UART_TX_MAX_CHARACTERS);
+
+    private int chunkSize = UartGattCallback.UART_TX_MAX_CHARACTERS;
+    private long ackTimeout = DEFAULT_ACK_TIMEOUT;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private int maxWindow = DEFAULT_MAX_WINDOW;
+
+    private UartWriteMode mode = UartWriteMode.ACKNOWLEDGED;
+    private volatile boolean cancelled = false;
+
+    //The start times, lengths and generations of the writes not completed yet, the oldest one is
+    //completed first
+    private long[] sentTimes = new long[DEFAULT_MAX_WINDOW];
+    private int[] sentLengths = new int[DEFAULT_MAX_WINDOW];
+    private int[] sentGenerations = new int[DEFAULT_MAX_WINDOW];
+    private int oldestSent = 0;
+    private int outstanding = 0;
+    private int generation = 0;
+    //The outstanding writes of the current generation
+    private int inFlight = 0;
+
+    //ACKNOWLEDGED mode state
+    private boolean ackPending = false;
+    private int ackStatus = BluetoothGatt.GATT_SUCCESS;
+
+    //WITHOUT_RESPONSE mode state
+    private int window = 1;
+    private int completedInWindow = 0;
+    private boolean burstFailed = false;
+
+    public UartWriteQueue(UartTxChannel channel) {
+        this(channel, new UartTelemetry());
+    }
+
+    public UartWriteQueue(UartTxChannel channel, UartTelemetry telemetry) {
+        this.channel = channel;
+        this.telemetry = telemetry;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.bufferPool.resize(chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    public void setAckTimeout(long ackTimeout) {
+        this.ackTimeout = ackTimeout;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Sets the maximum number of chunks in flight in {@link UartWriteMode#WITHOUT_RESPONSE} mode.
+     *
+     * @param maxWindow
+     */
+    public void setMaxWindow(int maxWindow) {
+        this.maxWindow = Math.max(1, maxWindow);
+    }
+
+    public UartTelemetry getTelemetry() {
+        return this.telemetry;
+    }
+
+    /**
+     * Returns the current window size of the {@link UartWriteMode#WITHOUT_RESPONSE} mode.
+     */
+    public int getWindow() {
+        synchronized (this.ackLock) {
+            return this.window;
+        }
+    }
+
+    /**
+     * Writes the whole data array chunk by chunk with acknowledged writes.
+     *
+     * @param data
+     * @return <code>false</code>, if a chunk could not be delivered
+     */
+    public boolean write(byte[] data) {
+        return this.write(data, 0, data.length, UartWriteMode.ACKNOWLEDGED);
+    }
+
+    /**
+     * Writes <code>length</code> bytes of the data array from the given offset chunk by chunk.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param mode
+     * @return <code>false</code>, if a chunk could not be delivered
+     */
+    public boolean write(byte[] data, int offset, int length, UartWriteMode mode) {
+        synchronized (this.ackLock) {
+            this.cancelled = false;
+            this.mode = mode;
+        }
+        boolean written = mode == UartWriteMode.WITHOUT_RESPONSE
+                ? this.writeWithoutResponse(data, offset, length)
+                : this.writeAcknowledged(data, offset, length);
+        if (!written) {
+            synchronized (this.ackLock) {
+                this.abandonSent();
+            }
+        }
+        return written;
+    }
+
+    private boolean writeAcknowledged(byte[] data, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i += this.chunkSize) {
+            final byte[] chunk = this.bufferPool.acquire(Math.min(this.chunkSize, end - i));
+            ByteUtils.slice(data, i, chunk.length, chunk);
+            if (!this.writeChunk(chunk)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Has to be called when the Bluetooth stack reports the result of a write.
+     *
+     * @param status
+     */
+    public void onWriteComplete(int status) {
+        synchronized (this.ackLock) {
+            if (this.outstanding == 0) {
+                Log.w(TAG, "Unexpected write completion with status: " + status);
+                return;
+            }
+            int slot = this.oldestSent;
+            this.oldestSent = (this.oldestSent + 1) % this.sentTimes.length;
+            this.outstanding--;
+            if (this.sentGenerations[slot] != this.generation) {
+                Log.w(TAG, "Late completion of an abandoned write was ignored, status: " + status);
+                return;
+            }
+            this.inFlight--;
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                this.telemetry.onChunkSent(this.sentLengths[slot], System.nanoTime() - this.sentTimes[slot]);
+            }
+
+            if (this.mode == UartWriteMode.WITHOUT_RESPONSE) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    this.completedInWindow++;
+                    if (this.completedInWindow >= this.window) {
+                        this.completedInWindow = 0;
+                        this.window = Math.min(this.window + 1, this.maxWindow);
+                    }
+                } else {
+                    //The link is struggling, the next bursts start with a smaller window
+                    this.window = Math.max(1, this.window / 2);
+                    this.completedInWindow = 0;
+                    this.burstFailed = true;
+                }
+            } else {
+                this.ackPending = false;
+                this.ackStatus = status;
+            }
+            this.ackLock.notifyAll();
+        }
+    }
+
+    /**
+     * Releases the currently waiting writer. The ongoing write operation fails, and the writes not
+     * completed yet are not expected to complete any more.
+     */
+    public void cancel() {
+        synchronized (this.ackLock) {
+            this.cancelled = true;
+            this.clearSent();
+            this.ackLock.notifyAll();
+        }
+    }
+
+    private boolean writeChunk(byte[] chunk) {
+        for (int attempt = 0; attempt <= this.maxRetries && !this.cancelled; attempt++) {
+            if (attempt > 0) {
+                this.telemetry.onWriteRetry();
+            }
+            synchronized (this.ackLock) {
+                //The acknowledge can arrive before channel.write() returns
+                this.ackPending = true;
+                this.addSent(chunk.length);
+            }
+
+            if (!this.channel.write(chunk, true)) {
+                synchronized (this.ackLock) {
+                    this.ackPending = false;
+                    this.removeNewestSent();
+                }
+                this.telemetry.onWriteRefused();
+                Log.w(TAG, "Chunk write could not be started. Attempt: " + (attempt + 1));
+                this.sleep(BUSY_RETRY_DELAY);
+                continue;
+            }
+
+            if (this.awaitAck()) {
+                if (this.ackStatus == BluetoothGatt.GATT_SUCCESS) {
+                    return true;
+                }
+                Log.w(TAG, "Chunk write failed with status: " + this.ackStatus + " Attempt: " + (attempt + 1));
+            } else if (!this.cancelled) {
+                this.telemetry.onWriteTimeout();
+                Log.w(TAG, "Chunk write was not acknowledged in " + this.ackTimeout + " ms. Attempt: " + (attempt + 1));
+            }
+        }
+        Log.e(TAG, "Chunk write failed.");
+        return false;
+    }
+
+    private boolean awaitAck() {
+        synchronized (this.ackLock) {
+            long deadline = System.currentTimeMillis() + this.ackTimeout;
+            while (this.ackPending && !this.cancelled) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    this.ackPending = false;
+                    this.abandonSent();
+                    return false;
+                }
+                this.waitForCompletion(remaining);
+            }
+            return !this.cancelled;
+        }
+    }
+
+    private boolean writeWithoutResponse(byte[] data, int offset, int length) {
+        synchronized (this.ackLock) {
+            this.completedInWindow = 0;
+            this.burstFailed = false;
+        }
+
+        int end = offset + length;
+        int i = offset;
+        int refusals = 0;
+        while (i < end) {
+            if (!this.awaitWindow()) {
+                return false;
+            }
+
+            final byte[] chunk = this.bufferPool.acquire(Math.min(this.chunkSize, end - i));
+            ByteUtils.slice(data, i, chunk.length, chunk);
+            synchronized (this.ackLock) {
+                this.addSent(chunk.length);
+            }
+            if (this.channel.write(chunk, false)) {
+                refusals = 0;
+                i += chunk.length;
+            } else {
+                synchronized (this.ackLock) {
+                    this.removeNewestSent();
+                    this.window = Math.max(1, this.window / 2);
+                    this.completedInWindow = 0;
+                }
+                this.telemetry.onWriteRefused();
+                if (++refusals > this.maxRetries) {
+                    Log.e(TAG, "Chunk write was refused " + refusals + " times.");
+                    return false;
+                }
+                this.sleep(BUSY_RETRY_DELAY);
+            }
+        }
+
+        //Wait for the completion of the chunks in flight
+        synchronized (this.ackLock) {
+            long deadline = System.currentTimeMillis() + this.ackTimeout;
+            while (this.inFlight > 0 && !this.burstFailed && !this.cancelled) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    this.telemetry.onWriteTimeout();
+                    Log.e(TAG, this.inFlight + " chunk writes were not completed.");
+                    return false;
+                }
+                this.waitForCompletion(remaining);
+            }
+            return !this.burstFailed && !this.cancelled;
+        }
+    }
+
+    private boolean awaitWindow() {
+        synchronized (this.ackLock) {
+            long deadline = System.currentTimeMillis() + this.ackTimeout;
+            while (this.inFlight >= this.window && !this.burstFailed && !this.cancelled) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    this.telemetry.onWriteTimeout();
+                    Log.e(TAG, "Write window did not open in " + this.ackTimeout + " ms.");
+                    return false;
+                }
+                this.waitForCompletion(remaining);
+            }
+            if (this.burstFailed) {
+                Log.e(TAG, "Chunk write failed, window: " + this.window);
+            }
+            return !this.burstFailed && !this.cancelled;
+        }
+    }
+
+    //Has to be called holding the ackLock
+    private void addSent(int length) {
+        if (this.outstanding == this.sentTimes.length) {
+            this.growSent();
+        }
+        int slot = (this.oldestSent + this.outstanding) % this.sentTimes.length;
+        this.sentTimes[slot] = System.nanoTime();
+        this.sentLengths[slot] = length;
+        this.sentGenerations[slot] = this.generation;
+        this.outstanding++;
+        this.inFlight++;
+    }
+
+    //Has to be called holding the ackLock, the write of the newest entry was not started
+    private void removeNewestSent() {
+        if (this.inFlight > 0) {
+            this.outstanding--;
+            this.inFlight--;
+        }
+    }
+
+    //Has to be called holding the ackLock, the writes in flight are not waited for any more
+    private void abandonSent() {
+        this.generation++;
+        this.inFlight = 0;
+    }
+
+    //Has to be called holding the ackLock
+    private void clearSent() {
+        this.abandonSent();
+        this.outstanding = 0;
+    }
+
+    //Has to be called holding the ackLock, the maximum window or the abandoned writes need more room
+    private void growSent() {
+        int capacity = this.sentTimes.length * 2;
+        long[] times = new long[capacity];
+        int[] lengths = new int[capacity];
+        int[] generations = new int[capacity];
+        for (int i = 0; i < this.outstanding; i++) {
+            int slot = (this.oldestSent + i) % this.sentTimes.length;
+            times[i] = this.sentTimes[slot];
+            lengths[i] = this.sentLengths[slot];
+            generations[i] = this.sentGenerations[slot];
+        }
+        this.sentTimes = times;
+        this.sentLengths = lengths;
+        this.sentGenerations = generations;
+        this.oldestSent = 0;
+    }
+
+    //Has to be called holding the ackLock
+    private void waitForCompletion(long millis) {
+        try {
+            this.ackLock.wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.cancelled = true;
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package hu.schrenk.blesdremotedroid.ble;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Records the offset of an interrupted upload, which was confirmed by the device. The journal is
+ * keyed by the local file path, and it is valid only for the same local file version and remote
+ * destination.
+ */
+public class UploadJournal {
+
+    private static final String TAG = "UploadJournal";
+
+    public static final String JOURNAL_FILE_SUFFIX = ".journal";
+
+    private static final String KEY_LOCAL_PATH = "localPath";
+    private static final String KEY_LOCAL_SIZE = "localSize";
+    private static final String KEY_LOCAL_MODIFIED = "localModified";
+    private static final String KEY_REMOTE_NAME = "remoteName";
+    private static final String KEY_CONFIRMED_OFFSET = "confirmedOffset";
+
+    private final File journalFile;
+    private final String localPath;
+    private final long localSize;
+    private final long localModified;
+    private final String remoteName;
+    private long confirmedOffset = 0;
+
+    public UploadJournal(File journalDirectory, File localFile, String remoteName) {
+        this(getJournalFile(journalDirectory, localFile), localFile.getAbsolutePath(), localFile.length(), localFile.lastModified(), remoteName);
+    }
+
+    private UploadJournal(File journalFile, String localPath, long localSize, long localModified, String remoteName) {
+        this.journalFile = journalFile;
+        this.localPath = localPath;
+        this.localSize = localSize;
+        this.localModified = localModified;
+        this.remoteName = remoteName;
+    }
+
+    /**
+     * Returns the journal file of a local file.
+     *
+     * @param journalDirectory
+     * @param localFile
+     */
+    public static File getJournalFile(File journalDirectory, File localFile) {
+        String localPath = localFile.getAbsolutePath();
+        return new File(journalDirectory, Integer.toHexString(localPath.hashCode()) + JOURNAL_FILE_SUFFIX);
+    }
+
+    /**
+     * Reads the journal of a local file.
+     *
+     * @param journalDirectory
+     * @param localFile
+     * @return <code>null</code>, if there is no journal or it can not be read
+     */
+    public static UploadJournal load(File journalDirectory, File localFile) {
+        File journalFile = getJournalFile(journalDirectory, localFile);
+        if (!journalFile.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (FileInputStream fis = new FileInputStream(journalFile)) {
+            properties.load(fis);
+            UploadJournal journal = new UploadJournal(journalFile,
+                    properties.getProperty(KEY_LOCAL_PATH, ""),
+                    Long.parseLong(properties.getProperty(KEY_LOCAL_SIZE, "-1")),
+                    Long.parseLong(properties.getProperty(KEY_LOCAL_MODIFIED, "-1")),
+                    properties.getProperty(KEY_REMOTE_NAME, ""));
+            journal.confirmedOffset = Long.parseLong(properties.getProperty(KEY_CONFIRMED_OFFSET, "0"));
+            return journal;
+        } catch (IOException | NumberFormatException e) {
+            Log.e(TAG, "Journal could not be read: " + journalFile.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code>, if the journal belongs to the same local file version and remote
+     * destination. Different paths can share a journal file name, so the path is checked as well.
+     *
+     * @param localFile
+     * @param remoteName
+     */
+    public boolean matches(File localFile, String remoteName) {
+        return this.localPath.equals(localFile.getAbsolutePath())
+                && this.localSize == localFile.length()
+                && this.localModified == localFile.lastModified()
+                && this.remoteName.equals(remoteName);
+    }
+
+    public long getConfirmedOffset() {
+        return this.confirmedOffset;
+    }
+
+    public void setConfirmedOffset(long confirmedOffset) {
+        this.confirmedOffset = confirmedOffset;
+    }
+
+    /**
+     * Writes the journal. A temporary file is renamed over the old journal, so an interrupted
+     * save does not leave a corrupt journal behind.
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_LOCAL_PATH, this.localPath);
+        properties.setProperty(KEY_LOCAL_SIZE, String.valueOf(this.localSize));
+        properties.setProperty(KEY_LOCAL_MODIFIED, String.valueOf(this.localModified));
+        properties.setProperty(KEY_REMOTE_NAME, this.remoteName);
+        properties.setProperty(KEY_CONFIRMED_OFFSET, String.valueOf(this.confirmedOffset));
+
+        File journalDirectory = this.journalFile.getParentFile();
+        if (journalDirectory != null && !journalDirectory.isDirectory() && !journalDirectory.mkdirs()) {
+            throw new IOException("Journal directory could not be created: " + journalDirectory.getPath());
+        }
+        File temporaryFile = new File(this.journalFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temporaryFile)) {
+            properties.store(fos, null);
+            fos.getFD().sync();
+        }
+        if (!temporaryFile.renameTo(this.journalFile)) {
+            throw new IOException("Journal could not be renamed: " + this.journalFile.getName());
+        }
+    }
+
+    /**
+     * Removes the journal.
+     */
+    public void delete() {
+        if (this.journalFile.exists() && !this.journalFile.delete()) {
+            Log.e(TAG, "Journal could not be deleted: " + this.journalFile.getName());
+        }
+    }
+}
@@ -54,6 +54,25 @@ public final class ByteUtils {
         return new byte[0];
     }
 
+    /**
+     * Copies <code>length</code> bytes of the source array from the given offset to the
+     * beginning of the destination array, without allocating a new array.
+     *
+     * @param source
+     * @param offset
+     * @param length
+     * @param destination
+     * @return the number of copied bytes
+     */
+    public static int slice(byte[] source, int offset, int length, byte[] destination) {
+        int size = Math.min(length, Math.min(source.length - offset, destination.length));
+        if (size <= 0) {
+            return 0;
+        }
+        System.arraycopy(source, offset, destination, 0, size);
+        return size;
+    }
+
     public static byte[] truncByteArray(byte[] array, int size) {
         if (size <= array.length) {
             byte[] output = new byte[size];
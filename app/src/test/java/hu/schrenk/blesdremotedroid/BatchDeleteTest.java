@@ -0,0 +1,77 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.BatchDeleteCommand;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class BatchDeleteTest {
+
+    private SimulatedPeripheral peripheral;
+    private UartCommandExecutor executor;
+
+    @Before
+    public void setUp() {
+        UartReceiver receiver = new UartReceiver();
+        this.peripheral = new SimulatedPeripheral(receiver);
+        this.executor = new UartCommandExecutor(this.peripheral, receiver);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    @Test
+    public void testAllFilesAreDeleted() throws Exception {
+        List<String> fileNames = this.createFiles(200);
+
+        long start = System.currentTimeMillis();
+        List<String> deleted = this.executor.submit(new BatchDeleteCommand(fileNames)).get(10, TimeUnit.SECONDS);
+
+        //The former implementation slept 500 ms before each DELF
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(200, deleted.size());
+        assertEquals(200, this.peripheral.commands.size());
+        for (String fileName : fileNames) {
+            assertTrue(this.peripheral.getFile(fileName) == null);
+        }
+    }
+
+    @Test
+    public void testRepliesAreMatchedByName() throws Exception {
+        List<String> fileNames = this.createFiles(11);
+        fileNames.add(5, "LOGS/MISSING.LOG");
+        this.peripheral.deleteReplyBatch = 3;
+
+        BatchDeleteCommand command = new BatchDeleteCommand(fileNames);
+        command.setWindow(3);
+        List<String> deleted = this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertEquals(11, deleted.size());
+        assertEquals(1, command.getFailedFileNames().size());
+        assertEquals("LOGS/MISSING.LOG", command.getFailedFileNames().get(0));
+        //The replies came in reverse order within each batch
+        assertEquals("LOGS/FILE2.LOG", deleted.get(0));
+    }
+
+    private List<String> createFiles(int count) {
+        List<String> fileNames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String fileName = "LOGS/FILE" + i + ".LOG";
+            this.peripheral.putFile(fileName, new byte[] { (byte)i });
+            fileNames.add(fileName);
+        }
+        return fileNames;
+    }
+}
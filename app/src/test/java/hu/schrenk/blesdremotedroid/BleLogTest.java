@@ -0,0 +1,35 @@
+package hu.schrenk.blesdremotedroid;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Test;
+
+import hu.schrenk.blesdremotedroid.ble.BleLog;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class BleLogTest {
+
+    @After
+    public void tearDown() {
+        BleLog.reset();
+    }
+
+    @Test
+    public void testSampling() {
+        BleLog.setSampling(BleLog.Category.DOWNLOAD, 4);
+        int logged = 0;
+        for (int i = 0; i < 100; i++) {
+            if (BleLog.isLoggable(BleLog.Category.DOWNLOAD, Log.INFO)) {
+                logged++;
+            }
+        }
+        assertTrue(logged == 25);
+
+        BleLog.setLevel(BleLog.Category.DOWNLOAD, Log.WARN);
+        assertFalse(BleLog.isLoggable(BleLog.Category.DOWNLOAD, Log.INFO));
+        assertTrue(BleLog.isLoggable(BleLog.Category.SEND, Log.INFO));
+    }
+}
@@ -0,0 +1,121 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.GetFileCommand;
+import hu.schrenk.blesdremotedroid.ble.RemoteFileInfo;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class BlockTransferTest {
+
+    private static final String REMOTE_NAME = "LOGS/TRACK.BIN";
+    private static final int BLOCK_SIZE = 236;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    @Rule
+    public final SimulatedConnection connection = new SimulatedConnection();
+
+    private final SimulatedPeripheral peripheral = this.connection.peripheral;
+    private final UartCommandExecutor executor = this.connection.executor;
+
+    private File directory;
+    private byte[] content;
+
+    @Before
+    public void setUp() {
+        this.directory = this.temporaryFolder.getRoot();
+        this.content = new byte[100000];
+        new Random(13).nextBytes(this.content);
+
+        this.peripheral.notificationSize = BLOCK_SIZE + 8;
+        this.peripheral.verifiedBlocks = true;
+        this.peripheral.putFile(REMOTE_NAME, this.content);
+    }
+
+    @Test
+    public void testOnlyBadBlocksAreResent() throws Exception {
+        this.peripheral.lossRate = 0.05;
+        this.peripheral.corruptionRate = 0.02;
+        File downloadFile = new File(this.directory, "TRACK.BIN");
+        GetFileCommand command = this.createCommand(downloadFile);
+        this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertTrue(command.isBlockFramed());
+        assertTrue(this.peripheral.commands.contains("@GETF:" + REMOTE_NAME + "%0%" + this.content.length + "%B#"));
+        assertTrue(Arrays.equals(this.content, SimulatedConnection.readFile(downloadFile)));
+
+        //Every block sent after the first pass was requested by a RSND command
+        int blockCount = (this.content.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int requestedBlocks = 0;
+        for (String sentCommand : this.peripheral.commands) {
+            if (sentCommand.startsWith("@RSND:")) {
+                requestedBlocks += sentCommand.split("%").length;
+            }
+        }
+        assertTrue(command.getResentBlockCount() > blockCount / 20);
+        assertEquals(blockCount + requestedBlocks, this.peripheral.blocksSent);
+        //About 7% of the blocks are bad, and 7% of the resent ones again
+        assertTrue(this.peripheral.blocksSent < blockCount * 1.1);
+    }
+
+    @Test
+    public void testLostFirstAndLastBlocks() throws Exception {
+        int lastBlock = (this.content.length - 1) / BLOCK_SIZE;
+        this.peripheral.lostBlocks.add(0);
+        this.peripheral.lostBlocks.add(lastBlock);
+        File downloadFile = new File(this.directory, "TRACK.BIN");
+        GetFileCommand command = this.createCommand(downloadFile);
+        this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertTrue(this.peripheral.commands.contains("@RSND:0%" + lastBlock + "#"));
+        assertEquals(2, command.getResentBlockCount());
+        assertTrue(Arrays.equals(this.content, SimulatedConnection.readFile(downloadFile)));
+    }
+
+    @Test
+    public void testBlocksAreNotResent() throws Exception {
+        this.peripheral.lossRate = 1;
+        File downloadFile = new File(this.directory, "TRACK.BIN");
+        GetFileCommand command = this.createCommand(downloadFile);
+        try {
+            this.executor.submit(command).get(10, TimeUnit.SECONDS);
+        } catch (Exception expected) {
+            assertTrue(command.isBlockFramed());
+        }
+        assertFalse(command.getFuture().isSuccessful());
+        assertFalse(downloadFile.exists());
+    }
+
+    @Test
+    public void testDownloadFallsBackToRaw() throws Exception {
+        this.peripheral.verifiedBlocks = false;
+        File downloadFile = new File(this.directory, "TRACK.BIN");
+        GetFileCommand command = this.createCommand(downloadFile);
+        this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertFalse(command.isBlockFramed());
+        assertTrue(Arrays.equals(this.content, SimulatedConnection.readFile(downloadFile)));
+    }
+
+    private GetFileCommand createCommand(File downloadFile) {
+        RemoteFileInfo remoteFileInfo = new RemoteFileInfo(REMOTE_NAME, this.content.length,
+                SimulatedPeripheral.FILE_DATE, SimulatedPeripheral.FILE_DATE);
+        GetFileCommand command = new GetFileCommand(REMOTE_NAME, downloadFile, remoteFileInfo);
+        command.setVerifiedBlocks(true);
+        command.setRoundTimeout(50);
+        return command;
+    }
+}
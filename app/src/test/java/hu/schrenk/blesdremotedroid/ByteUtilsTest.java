@@ -41,4 +41,15 @@ public class ByteUtilsTest {
         assertTrue(output.length == 3);
         assertTrue(output[2] == (byte)69);
     }
+
+    @Test
+    public void testSlice() {
+        byte[] array = { 64, 72, 69, 76, 76, 79, 35}; //@HELLO#
+        byte[] destination = new byte[4];
+        assertTrue(ByteUtils.slice(array, 1, 4, destination) == 4);
+        assertTrue(destination[0] == (byte)72 && destination[3] == (byte)76);
+        assertTrue(ByteUtils.slice(array, 5, 4, destination) == 2);
+        assertTrue(destination[1] == (byte)35);
+        assertTrue(ByteUtils.slice(array, 7, 4, destination) == 0);
+    }
 }
@@ -0,0 +1,169 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.BlockCompressor;
+import hu.schrenk.blesdremotedroid.ble.BlockDecompressor;
+import hu.schrenk.blesdremotedroid.ble.GetFileCommand;
+import hu.schrenk.blesdremotedroid.ble.PutFileCommand;
+import hu.schrenk.blesdremotedroid.ble.RemoteFileInfo;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class CompressedTransferTest {
+
+    private static final String REMOTE_NAME = "LOGS/TEMP.CSV";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    @Rule
+    public final SimulatedConnection connection = new SimulatedConnection();
+
+    private final SimulatedPeripheral peripheral = this.connection.peripheral;
+    private final UartCommandExecutor executor = this.connection.executor;
+
+    private File directory;
+    private byte[] content;
+
+    @Before
+    public void setUp() {
+        this.directory = this.temporaryFolder.getRoot();
+        this.content = createLog(60000);
+
+        this.peripheral.notificationSize = 244;
+        this.peripheral.compression = true;
+    }
+
+    @Test
+    public void testBlockCodec() throws Exception {
+        byte[] random = new byte[10000];
+        new Random(3).nextBytes(random);
+        for (byte[] data : new byte[][] { this.content, random, new byte[BlockCompressor.BLOCK_SIZE], new byte[1] }) {
+            byte[] encoded = encode(data);
+            //An incompressible block is stored, it grows only by its header
+            int blockCount = (data.length + BlockCompressor.BLOCK_SIZE - 1) / BlockCompressor.BLOCK_SIZE;
+            assertTrue(encoded.length <= data.length + blockCount * BlockCompressor.HEADER_SIZE);
+
+            //The encoded bytes arrive in notifications, which cut the blocks anywhere
+            final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            BlockDecompressor decompressor = new BlockDecompressor(data.length);
+            for (int offset = 0; offset < encoded.length; offset += 20) {
+                int length = Math.min(20, encoded.length - offset);
+                assertEquals(length, decompressor.decode(encoded, offset, length, new BlockDecompressor.Output() {
+                    @Override
+                    public boolean write(byte[] data, int offset, int length) {
+                        decoded.write(data, offset, length);
+                        return true;
+                    }
+                }));
+            }
+            decompressor.end();
+            assertTrue(decompressor.isFinished());
+            assertTrue(Arrays.equals(data, decoded.toByteArray()));
+        }
+        assertTrue(encode(this.content).length * 3 < this.content.length);
+    }
+
+    @Test
+    public void testCompressedDownload() throws Exception {
+        this.peripheral.putFile(REMOTE_NAME, this.content);
+        File downloadFile = new File(this.directory, "TEMP.CSV");
+        GetFileCommand command = new GetFileCommand(REMOTE_NAME, downloadFile, this.remoteFileInfo());
+        command.setCompression(true);
+        this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertTrue(this.peripheral.commands.contains("@GETF:" + REMOTE_NAME + "%0%" + this.content.length + "%Z#"));
+        assertTrue(Arrays.equals(this.content, SimulatedConnection.readFile(downloadFile)));
+        assertTrue(this.peripheral.contentBytesTransferred * 3 < this.content.length);
+    }
+
+    @Test
+    public void testDownloadFallsBackToRaw() throws Exception {
+        this.peripheral.compression = false;
+        this.peripheral.putFile(REMOTE_NAME, this.content);
+        File downloadFile = new File(this.directory, "TEMP.CSV");
+        GetFileCommand command = new GetFileCommand(REMOTE_NAME, downloadFile, this.remoteFileInfo());
+        command.setCompression(true);
+        this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertTrue(Arrays.equals(this.content, SimulatedConnection.readFile(downloadFile)));
+        assertEquals(this.content.length, this.peripheral.contentBytesTransferred);
+    }
+
+    @Test
+    public void testCompressedUploadIsResumed() throws Exception {
+        File uploadFile = new File(this.directory, "TEMP.CSV");
+        SimulatedConnection.writeFile(uploadFile, this.content);
+        File journalDirectory = new File(this.directory, "journals");
+
+        //The link is dropped after 30000 decoded bytes
+        this.peripheral.dropAfter = 30000;
+        PutFileCommand command = new PutFileCommand(uploadFile, REMOTE_NAME);
+        command.setCompression(true);
+        command.setJournalDirectory(journalDirectory);
+        try {
+            this.executor.submit(command).get(10, TimeUnit.SECONDS);
+        } catch (Exception expected) {
+            assertTrue(command.isCompressed());
+        }
+        assertFalse(command.getFuture().isSuccessful());
+
+        this.peripheral.connected = true;
+        this.peripheral.contentBytesTransferred = 0;
+        command = new PutFileCommand(uploadFile, REMOTE_NAME);
+        command.setCompression(true);
+        command.setJournalDirectory(journalDirectory);
+        this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertTrue(command.isCompressed());
+        assertEquals(28672, command.getAcceptedOffset());
+        assertTrue(Arrays.equals(this.content, this.peripheral.getFile(REMOTE_NAME)));
+        assertTrue(this.peripheral.contentBytesTransferred * 3 < this.content.length - 28672);
+    }
+
+    private RemoteFileInfo remoteFileInfo() {
+        return new RemoteFileInfo(REMOTE_NAME, this.content.length, SimulatedPeripheral.FILE_DATE, SimulatedPeripheral.FILE_DATE);
+    }
+
+    /**
+     * Creates a CSV log like the ones of a data logger.
+     */
+    static byte[] createLog(int size) {
+        Random random = new Random(11);
+        StringBuilder log = new StringBuilder("time,temperature,humidity,pressure\n");
+        long time = 1489053600L;
+        while (log.length() < size) {
+            log.append(time).append(',')
+                    .append(20 + random.nextInt(5)).append('.').append(random.nextInt(10)).append(',')
+                    .append(40 + random.nextInt(20)).append(',')
+                    .append(1000 + random.nextInt(30)).append('\n');
+            time += 10;
+        }
+        return log.substring(0, size).getBytes(Charset.forName("US-ASCII"));
+    }
+
+    static byte[] encode(byte[] data) {
+        BlockCompressor compressor = new BlockCompressor();
+        byte[] encodedBlock = new byte[BlockCompressor.MAX_ENCODED_SIZE];
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        for (int offset = 0; offset < data.length; offset += BlockCompressor.BLOCK_SIZE) {
+            int encodedSize = compressor.encode(data, offset, Math.min(BlockCompressor.BLOCK_SIZE, data.length - offset), encodedBlock);
+            encoded.write(encodedBlock, 0, encodedSize);
+        }
+        compressor.end();
+        return encoded.toByteArray();
+    }
+}
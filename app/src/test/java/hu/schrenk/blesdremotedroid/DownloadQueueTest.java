@@ -0,0 +1,95 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.DownloadQueue;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class DownloadQueueTest {
+
+    private static final int FILE_COUNT = 20;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    @Rule
+    public final SimulatedConnection connection = new SimulatedConnection();
+
+    private final SimulatedPeripheral peripheral = this.connection.peripheral;
+    private final UartCommandExecutor executor = this.connection.executor;
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        this.directory = this.temporaryFolder.getRoot();
+        this.peripheral.notificationSize = 244;
+    }
+
+    @Test
+    public void testFilesAreDownloadedBackToBack() throws Exception {
+        Random random = new Random(3);
+        List<byte[]> contents = new ArrayList<>();
+        DownloadQueue downloadQueue = new DownloadQueue(this.executor, null);
+        long totalBytes = 0;
+        for (int i = 0; i < FILE_COUNT; i++) {
+            byte[] content = new byte[1000 + random.nextInt(20000)];
+            random.nextBytes(content);
+            contents.add(content);
+            totalBytes += content.length;
+            this.peripheral.putFile("LOGS/" + i + ".LOG", content);
+            downloadQueue.add("LOGS/" + i + ".LOG", new File(this.directory, i + ".LOG"));
+        }
+
+        long start = System.currentTimeMillis();
+        List<File> downloadedFiles = downloadQueue.start().get(10, TimeUnit.SECONDS);
+
+        //The former implementation slept 500 ms between the files
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(FILE_COUNT, downloadedFiles.size());
+        for (int i = 0; i < FILE_COUNT; i++) {
+            assertTrue(Arrays.equals(contents.get(i), SimulatedConnection.readFile(new File(this.directory, i + ".LOG"))));
+        }
+
+        //The sizes are queried first, so the total is known before the first download
+        for (int i = 0; i < FILE_COUNT; i++) {
+            assertTrue(this.peripheral.commands.get(i).startsWith("@INFO:"));
+            assertTrue(this.peripheral.commands.get(FILE_COUNT + i).startsWith("@GETF:"));
+        }
+
+        DownloadQueue.Progress progress = downloadQueue.getProgress();
+        assertEquals(FILE_COUNT, progress.getFileCount());
+        assertEquals(FILE_COUNT, progress.getFilesDone());
+        assertEquals(totalBytes, progress.getTotalBytes());
+        assertEquals(totalBytes, progress.getBytesDone());
+        assertEquals(0, progress.getRemainingMillis());
+    }
+
+    @Test
+    public void testFailedFileDoesNotStopTheQueue() throws Exception {
+        this.peripheral.putFile("A.LOG", new byte[100]);
+        this.peripheral.putFile("C.LOG", new byte[200]);
+        DownloadQueue downloadQueue = new DownloadQueue(this.executor, null);
+        downloadQueue.add("A.LOG", new File(this.directory, "A.LOG"));
+        //The destination directory does not exist, so the file can not be created
+        downloadQueue.add("C.LOG", new File(new File(this.directory, "MISSING"), "C.LOG"));
+        downloadQueue.add("C.LOG", new File(this.directory, "C.LOG"));
+
+        List<File> downloadedFiles = downloadQueue.start().get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, downloadedFiles.size());
+        assertEquals(1, downloadQueue.getFailedFiles().size());
+    }
+}
@@ -0,0 +1,132 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import hu.schrenk.blesdremotedroid.ble.FolderSync;
+import hu.schrenk.blesdremotedroid.ble.SyncPlan;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class FolderSyncTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    @Rule
+    public final SimulatedConnection connection = new SimulatedConnection();
+
+    private final SimulatedPeripheral peripheral = this.connection.peripheral;
+    private final UartCommandExecutor executor = this.connection.executor;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = this.temporaryFolder.getRoot();
+
+        this.peripheral.notificationSize = 244;
+        this.peripheral.putFile("LOGS/A.CSV", bytes("a,1\n"));
+        this.peripheral.putFile("LOGS/2017/B.CSV", bytes("b,1\nb,2\n"));
+        this.peripheral.putFile("README.TXT", bytes("Not synchronized"));
+
+        //A.CSV was copied by hand before, C.TXT is new
+        SimulatedConnection.writeFile(new File(this.directory, "A.CSV"), bytes("a,1\n"));
+        SimulatedConnection.writeFile(new File(this.directory, "C.TXT"), bytes("Settings"));
+    }
+
+    @Test
+    public void testFirstSyncCopiesNewFiles() throws Exception {
+        FolderSync folderSync = new FolderSync(this.executor, this.directory, "LOGS", null);
+        SyncPlan plan = folderSync.createPlan();
+        assertEquals(1, plan.getCount(SyncPlan.ActionType.DOWNLOAD));
+        assertEquals(8, plan.getSize(SyncPlan.ActionType.DOWNLOAD));
+        assertEquals(1, plan.getCount(SyncPlan.ActionType.UPLOAD));
+        assertEquals(0, plan.getCount(SyncPlan.ActionType.CONFLICT));
+        assertEquals(1, plan.getUnchangedCount());
+        assertEquals("2017/B.CSV", plan.getActions().get(0).getPath());
+        assertEquals("LOGS/2017/B.CSV", plan.getActions().get(0).getRemotePath());
+        //One MINF round trip for every directory, no INFO
+        assertTrue(this.peripheral.commands.contains("@MINF:LOGS%A.CSV#"));
+        assertTrue(this.peripheral.commands.contains("@MINF:LOGS/2017%B.CSV#"));
+        for (String command : this.peripheral.commands) {
+            assertFalse(command.startsWith("@INFO:"));
+        }
+
+        assertTrue(folderSync.sync(plan).isEmpty());
+        assertTrue(Arrays.equals(bytes("b,1\nb,2\n"), SimulatedConnection.readFile(new File(this.directory, "2017/B.CSV"))));
+        assertTrue(Arrays.equals(bytes("Settings"), this.peripheral.getFile("LOGS/C.TXT")));
+        assertFalse(new File(this.directory, "README.TXT").exists());
+    }
+
+    @Test
+    public void testOnlyChangedFilesAreTransferred() throws Exception {
+        FolderSync folderSync = new FolderSync(this.executor, this.directory, "LOGS", null);
+        folderSync.sync(folderSync.createPlan());
+
+        folderSync = new FolderSync(this.executor, this.directory, "LOGS", null);
+        SyncPlan plan = folderSync.createPlan();
+        assertTrue(plan.isEmpty());
+        assertEquals(3, plan.getUnchangedCount());
+
+        //The device appends to a log, the phone edits the settings
+        this.peripheral.modifyFile("LOGS/2017/B.CSV", bytes("b,1\nb,2\nb,3\n"));
+        File settingsFile = new File(this.directory, "C.TXT");
+        SimulatedConnection.writeFile(settingsFile, bytes("Settings 2"));
+        this.peripheral.commands.clear();
+
+        plan = folderSync.createPlan();
+        assertEquals(1, plan.getCount(SyncPlan.ActionType.DOWNLOAD));
+        assertEquals(1, plan.getCount(SyncPlan.ActionType.UPLOAD));
+        assertEquals(1, plan.getUnchangedCount());
+        assertTrue(folderSync.sync(plan).isEmpty());
+
+        assertTrue(Arrays.equals(bytes("b,1\nb,2\nb,3\n"), SimulatedConnection.readFile(new File(this.directory, "2017/B.CSV"))));
+        assertTrue(Arrays.equals(bytes("Settings 2"), this.peripheral.getFile("LOGS/C.TXT")));
+        int transferCount = 0;
+        for (String command : this.peripheral.commands) {
+            if (command.startsWith("@GETF:") || command.startsWith("@PUTF:")) {
+                transferCount++;
+            }
+        }
+        assertEquals(2, transferCount);
+    }
+
+    @Test
+    public void testConflictsAndDeletionsAreNotTransferred() throws Exception {
+        FolderSync folderSync = new FolderSync(this.executor, this.directory, "LOGS", null);
+        folderSync.sync(folderSync.createPlan());
+
+        File localFile = new File(this.directory, "A.CSV");
+        SimulatedConnection.writeFile(localFile, bytes("a,1\na,local\n"));
+        this.peripheral.modifyFile("LOGS/A.CSV", bytes("a,1\na,remote\n"));
+        assertTrue(new File(this.directory, "2017/B.CSV").delete());
+
+        SyncPlan plan = folderSync.createPlan();
+        assertTrue(plan.isEmpty());
+        assertEquals(1, plan.getCount(SyncPlan.ActionType.CONFLICT));
+        assertEquals("A.CSV", plan.getActions().get(0).getPath());
+        assertEquals(1, plan.getUnchangedCount());
+        assertEquals(1, plan.getDeletedCount());
+
+        folderSync.sync(plan);
+        assertTrue(Arrays.equals(bytes("a,1\na,local\n"), SimulatedConnection.readFile(localFile)));
+        assertTrue(Arrays.equals(bytes("a,1\na,remote\n"), this.peripheral.getFile("LOGS/A.CSV")));
+        assertFalse(new File(this.directory, "2017/B.CSV").exists());
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(US_ASCII);
+    }
+}
@@ -0,0 +1,73 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Test;
+
+import hu.schrenk.blesdremotedroid.ble.ListingCache;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ListingCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedListingIsEvicted() {
+        ListingCache listingCache = new ListingCache(2, 1000);
+        listingCache.put("", "LOGS/,README.TXT");
+        listingCache.put("LOGS", "../,2017/");
+        listingCache.get(""); //The root is used again
+        listingCache.put("LOGS/2017", "../,09.TXT");
+
+        assertEquals(2, listingCache.size());
+        assertTrue(listingCache.get("") != null);
+        assertTrue(listingCache.get("LOGS") == null);
+        assertTrue(listingCache.get("LOGS/2017") != null);
+    }
+
+    @Test
+    public void testExpiredListingIsServed() {
+        FakeClockListingCache listingCache = new FakeClockListingCache(1000);
+        listingCache.put("LOGS", "../,2017/");
+
+        listingCache.now = 999;
+        assertFalse(listingCache.isExpired(listingCache.get("LOGS")));
+        listingCache.now = 1000;
+        ListingCache.Entry entry = listingCache.get("LOGS");
+        assertEquals("../,2017/", entry.getListing());
+        assertTrue(listingCache.isExpired(entry));
+    }
+
+    @Test
+    public void testInvalidation() {
+        ListingCache listingCache = new ListingCache();
+        listingCache.put("", "LOGS/,README.TXT");
+        listingCache.put("LOGS", "../,2017/");
+        listingCache.put("LOGS/2017", "../,09.TXT");
+        listingCache.put("LOGS2", "../");
+
+        listingCache.invalidateParent("README.TXT");
+        assertTrue(listingCache.get("") == null);
+        listingCache.invalidateParent("LOGS/2017/09.TXT");
+        assertTrue(listingCache.get("LOGS/2017") == null);
+        assertTrue(listingCache.get("LOGS") != null);
+
+        listingCache.put("LOGS/2017", "../,09.TXT");
+        listingCache.invalidateTree("LOGS");
+        assertEquals(1, listingCache.size());
+        assertTrue(listingCache.get("LOGS2") != null);
+    }
+
+    private static class FakeClockListingCache extends ListingCache {
+
+        long now = 0;
+
+        FakeClockListingCache(long ttl) {
+            super(DEFAULT_MAX_ENTRIES, ttl);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.ListCommand;
+import hu.schrenk.blesdremotedroid.ble.ListingCache;
+import hu.schrenk.blesdremotedroid.ble.ListingPrefetcher;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+import hu.schrenk.blesdremotedroid.ble.UartCommandPriority;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class ListingPrefetcherTest {
+
+    private SimulatedPeripheral peripheral;
+    private UartCommandExecutor executor;
+    private ListingCache listingCache;
+    private ListingPrefetcher listingPrefetcher;
+
+    @Before
+    public void setUp() {
+        UartReceiver receiver = new UartReceiver();
+        this.peripheral = new SimulatedPeripheral(receiver);
+        this.peripheral.putListing("", "LOGS/,DATA/,README.TXT");
+        this.peripheral.putListing("LOGS", "../,2017.LOG");
+        this.peripheral.putListing("DATA", "../,1.BIN,2.BIN");
+        this.executor = new UartCommandExecutor(this.peripheral, receiver);
+        this.listingCache = new ListingCache();
+        this.listingPrefetcher = new ListingPrefetcher(this.executor, this.listingCache);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    @Test
+    public void testSubdirectoriesArePrefetched() throws Exception {
+        this.listingPrefetcher.prefetch(Arrays.asList("LOGS", "DATA"));
+        this.awaitPrefetches();
+
+        assertEquals("../,2017.LOG", this.listingCache.get("LOGS").getListing());
+        assertEquals("../,1.BIN,2.BIN", this.listingCache.get("DATA").getListing());
+    }
+
+    @Test
+    public void testUserCommandGoesBeforePrefetches() throws Exception {
+        //The first command holds the executor, until the connection gets ready
+        this.peripheral.readyGate = new CountDownLatch(1);
+        this.executor.submit(new ListCommand(""));
+        this.listingPrefetcher.prefetch(Arrays.asList("LOGS", "DATA"));
+        ListCommand userCommand = new ListCommand("DATA");
+        this.executor.submit(userCommand);
+        this.peripheral.readyGate.countDown();
+
+        userCommand.getFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("@LIST#", "@LIST:DATA#"), this.peripheral.commands.subList(0, 2));
+        this.awaitPrefetches();
+        assertEquals(Arrays.asList("@LIST#", "@LIST:DATA#", "@LIST:LOGS#", "@LIST:DATA#", "@LIST#"), this.peripheral.commands);
+    }
+
+    @Test
+    public void testCachedListingIsNotPrefetched() throws Exception {
+        this.listingCache.put("LOGS", "../,2017.LOG");
+        this.listingPrefetcher.prefetch(Arrays.asList("LOGS", "DATA"));
+        this.awaitPrefetches();
+
+        assertTrue(!this.peripheral.commands.contains("@LIST:LOGS#"));
+        assertTrue(this.peripheral.commands.contains("@LIST:DATA#"));
+    }
+
+    @Test
+    public void testQueuedPrefetchesAreDropped() throws Exception {
+        //The prefetches stay queued, until the connection gets ready
+        this.peripheral.readyGate = new CountDownLatch(1);
+        this.executor.submit(new ListCommand(""));
+        this.listingPrefetcher.prefetch(Arrays.asList("LOGS", "DATA"));
+        this.listingPrefetcher.prefetch(Arrays.asList("DATA"));
+        this.peripheral.readyGate.countDown();
+        this.awaitPrefetches();
+
+        assertEquals(Arrays.asList("@LIST#", "@LIST:DATA#", "@LIST#"), this.peripheral.commands);
+    }
+
+    private void awaitPrefetches() throws Exception {
+        //Background commands keep their order, so the prefetches are done when this one is
+        ListCommand lastCommand = new ListCommand("");
+        lastCommand.setPriority(UartCommandPriority.BACKGROUND);
+        this.executor.submit(lastCommand).get(5, TimeUnit.SECONDS);
+    }
+}
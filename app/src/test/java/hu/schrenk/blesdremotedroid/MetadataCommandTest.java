@@ -0,0 +1,143 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.MetadataCache;
+import hu.schrenk.blesdremotedroid.ble.MetadataCommand;
+import hu.schrenk.blesdremotedroid.ble.MetadataFetcher;
+import hu.schrenk.blesdremotedroid.ble.RemoteFileInfo;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+import hu.schrenk.blesdremotedroid.ble.UartCommandPriority;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class MetadataCommandTest {
+
+    private SimulatedPeripheral peripheral;
+    private UartCommandExecutor executor;
+    private final List<List<RemoteFileInfo>> batches = Collections.synchronizedList(new ArrayList<List<RemoteFileInfo>>());
+    private MetadataCommand.RecordListener recordListener;
+    private final List<String> names = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        UartReceiver receiver = new UartReceiver();
+        this.peripheral = new SimulatedPeripheral(receiver);
+        this.peripheral.notificationSize = 20;
+        for (int i = 0; i < 300; i++) {
+            String name = "LOG" + i + ".CSV";
+            this.names.add(name);
+            this.peripheral.putFile("LOGS/" + name, new byte[i]);
+        }
+        this.executor = new UartCommandExecutor(this.peripheral, receiver);
+        this.recordListener = new MetadataCommand.RecordListener() {
+            @Override
+            public void onRecords(MetadataCommand command, List<RemoteFileInfo> fileInfos) {
+                batches.add(fileInfos);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    @Test
+    public void testBatchesFitIntoTheCommandBuffer() throws Exception {
+        List<MetadataCommand> commands = MetadataCommand.createBatches("LOGS", this.names);
+        //300 files take a handful of round trips instead of 300
+        assertTrue(commands.size() < 30);
+        int fileCount = 0;
+        for (MetadataCommand command : commands) {
+            fileCount += command.getNames().size();
+        }
+        assertEquals(300, fileCount);
+
+        for (MetadataCommand command : commands) {
+            List<RemoteFileInfo> fileInfos = this.executor.submit(command).get(5, TimeUnit.SECONDS);
+            assertEquals(command.getNames().size(), fileInfos.size());
+        }
+        for (String command : this.peripheral.commands) {
+            assertTrue(command.length() <= 256);
+        }
+
+        RemoteFileInfo fileInfo = commands.get(0).getFuture().getNow().get(7);
+        assertEquals("LOGS/LOG7.CSV", fileInfo.getName());
+        assertEquals(7, fileInfo.getSize());
+        assertEquals(SimulatedPeripheral.FILE_DATE, fileInfo.getModificationDate());
+    }
+
+    @Test
+    public void testRecordsArePostedAsTheyArrive() throws Exception {
+        List<String> requestedNames = new ArrayList<>(this.names.subList(0, 10));
+        requestedNames.add(3, "MISSING.CSV");
+        MetadataCommand command = new MetadataCommand("LOGS", requestedNames);
+        command.setRecordListener(this.recordListener);
+        List<RemoteFileInfo> fileInfos = this.executor.submit(command).get(5, TimeUnit.SECONDS);
+
+        //The missing file is left out
+        assertEquals(10, fileInfos.size());
+        assertEquals("LOGS/LOG3.CSV", fileInfos.get(3).getName());
+        assertTrue(this.batches.size() > 5);
+        List<RemoteFileInfo> postedFileInfos = new ArrayList<>();
+        for (List<RemoteFileInfo> batch : this.batches) {
+            postedFileInfos.addAll(batch);
+        }
+        assertEquals(fileInfos, postedFileInfos);
+    }
+
+    @Test
+    public void testFetcherSkipsCachedFiles() throws Exception {
+        MetadataCache metadataCache = new MetadataCache();
+        metadataCache.put(new RemoteFileInfo("LOGS/LOG0.CSV", 0, SimulatedPeripheral.FILE_DATE, SimulatedPeripheral.FILE_DATE));
+        MetadataFetcher metadataFetcher = new MetadataFetcher(this.executor, metadataCache, null);
+        metadataFetcher.fetch("LOGS", this.names.subList(0, 5));
+        this.awaitBackgroundCommands();
+
+        assertEquals(Collections.singletonList("@MINF:LOGS%LOG1.CSV%LOG2.CSV%LOG3.CSV%LOG4.CSV#"), this.peripheral.commands);
+        assertEquals(5, metadataCache.size());
+        assertEquals(4, metadataCache.get("LOGS/LOG4.CSV").getFileInfo().getSize());
+    }
+
+    @Test
+    public void testFetcherStopsWithoutBatchedMetadata() throws Exception {
+        this.peripheral.batchedMetadata = false;
+        MetadataCache metadataCache = new MetadataCache();
+        MetadataFetcher metadataFetcher = new MetadataFetcher(this.executor, metadataCache, null);
+        metadataFetcher.setReplyTimeout(100);
+        assertTrue(metadataFetcher.isSupported());
+        metadataFetcher.fetch("", Collections.singletonList("README.TXT"));
+        this.awaitBackgroundCommands();
+        assertFalse(metadataFetcher.isSupported());
+        assertNull(metadataCache.get("README.TXT"));
+
+        this.peripheral.commands.clear();
+        metadataFetcher.fetch("LOGS", this.names);
+        assertTrue(this.peripheral.commands.isEmpty());
+    }
+
+    private void awaitBackgroundCommands() throws Exception {
+        //Background commands keep their order, so the earlier ones are done when this one is
+        MetadataCommand lastCommand = new MetadataCommand("", Collections.<String>emptyList());
+        lastCommand.setPriority(UartCommandPriority.BACKGROUND);
+        lastCommand.setReplyTimeout(100);
+        try {
+            this.executor.submit(lastCommand).get(10, TimeUnit.SECONDS);
+        } catch (Exception ignored) {
+            //A device without batched metadata does not answer
+        }
+        this.peripheral.commands.remove("@MINF:#");
+    }
+}
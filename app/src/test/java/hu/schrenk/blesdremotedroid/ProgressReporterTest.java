@@ -0,0 +1,42 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Test;
+
+import hu.schrenk.blesdremotedroid.ble.ProgressReporter;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ProgressReporterTest {
+
+    @Test
+    public void testSlowTransferIsReportedAfterInterval() throws InterruptedException {
+        ProgressReporter progressReporter = new ProgressReporter(50, 1);
+        progressReporter.start(1000000000L); //A percent would take minutes over the link
+        assertTrue(progressReporter.update(0));
+        assertFalse(progressReporter.update(20));
+
+        Thread.sleep(60);
+        assertTrue(progressReporter.update(40));
+        assertFalse(progressReporter.update(40)); //No progress
+    }
+
+    @Test
+    public void testStepIsReportedBeforeInterval() {
+        ProgressReporter progressReporter = new ProgressReporter(3600000, 1);
+        progressReporter.start(1000);
+        assertTrue(progressReporter.update(0));
+        assertFalse(progressReporter.update(5));
+        assertTrue(progressReporter.update(10));
+        assertFalse(progressReporter.update(19));
+    }
+
+    @Test
+    public void testCompletionIsAlwaysReported() {
+        ProgressReporter progressReporter = new ProgressReporter(3600000, 0);
+        progressReporter.start(1000);
+        assertTrue(progressReporter.update(0));
+        assertFalse(progressReporter.update(999));
+        assertTrue(progressReporter.update(1000));
+    }
+}
@@ -0,0 +1,172 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.RemoteIndex;
+import hu.schrenk.blesdremotedroid.ble.RemoteIndexer;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+import hu.schrenk.blesdremotedroid.ble.UartCommandFuture;
+import hu.schrenk.blesdremotedroid.ble.UartConnectionException;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class RemoteIndexTest {
+
+    private File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        this.indexFile = File.createTempFile("remote", ".index");
+        this.indexFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        this.indexFile.delete();
+    }
+
+    @Test
+    public void testListingReplacesChildren() {
+        RemoteIndex index = new RemoteIndex(this.indexFile);
+        index.updateDirectory("", "LOGS/,README.TXT");
+        index.updateDirectory("LOGS", "../,2016/,2017.LOG");
+        index.updateDirectory("LOGS/2016", "../,JAN.LOG");
+        assertEquals(5, index.size());
+
+        //The 2016 directory is gone with its whole subtree
+        index.updateDirectory("LOGS", "../,2017.LOG,2018.LOG");
+        assertNull(index.get("LOGS/2016"));
+        assertNull(index.get("LOGS/2016/JAN.LOG"));
+        assertNotNull(index.get("LOGS/2018.LOG"));
+        assertEquals(4, index.size());
+
+        index.remove("LOGS");
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testSearch() {
+        RemoteIndex index = new RemoteIndex(this.indexFile);
+        index.updateDirectory("", "LOGS/,README.TXT");
+        index.updateDirectory("LOGS", "../,2017.LOG,readme.log");
+
+        List<RemoteIndex.Entry> results = index.search("read", true, 10);
+        assertEquals(2, results.size());
+        assertEquals("LOGS/readme.log", results.get(0).getPath());
+        assertEquals("LOGS", results.get(0).getParentPath());
+        assertEquals("README.TXT", results.get(1).getPath());
+
+        assertEquals(1, index.search("log", true, 10).size());
+        assertEquals(3, index.search("log", false, 10).size());
+        assertEquals(1, index.search("log", false, 1).size());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        RemoteIndex index = new RemoteIndex(this.indexFile);
+        index.updateDirectory("", "LOGS/,README.TXT");
+        index.updateDirectory("LOGS", "../,2017.LOG,2018.LOG");
+        index.putFile("LOGS/2017.LOG", 1234, SimulatedPeripheral.FILE_DATE);
+        index.setCrawlFinished(42);
+        index.save();
+        assertFalse(index.isModified());
+
+        RemoteIndex loadedIndex = RemoteIndex.load(this.indexFile);
+        assertEquals(4, loadedIndex.size());
+        assertEquals(42, loadedIndex.getCrawlFinished());
+        assertTrue(loadedIndex.get("LOGS").isDirectory());
+        assertEquals(1234, loadedIndex.get("LOGS/2017.LOG").getSize());
+        assertEquals(SimulatedPeripheral.FILE_DATE, loadedIndex.get("LOGS/2017.LOG").getModificationDate());
+        assertEquals(RemoteIndex.UNKNOWN_SIZE, loadedIndex.get("LOGS/2018.LOG").getSize());
+        assertNull(loadedIndex.get("LOGS/2018.LOG").getModificationDate());
+    }
+
+    @Test
+    public void testCrawl() throws Exception {
+        UartReceiver receiver = new UartReceiver();
+        SimulatedPeripheral peripheral = new SimulatedPeripheral(receiver);
+        peripheral.putListing("", "LOGS/,README.TXT");
+        peripheral.putListing("LOGS", "../,2017.LOG");
+        peripheral.putFile("README.TXT", new byte[100]);
+        peripheral.putFile("LOGS/2017.LOG", new byte[200]);
+        UartCommandExecutor executor = new UartCommandExecutor(peripheral, receiver);
+
+        RemoteIndex index = new RemoteIndex(this.indexFile);
+        RemoteIndexer indexer = new RemoteIndexer(executor, index, null);
+        indexer.setRequestInterval(10);
+        indexer.setFetchInfo(true);
+        try {
+            long start = System.currentTimeMillis();
+            assertEquals(3, (int)indexer.start().get(5, TimeUnit.SECONDS));
+            //2 listings and 2 infos, with the interval kept between them
+            assertEquals(4, peripheral.commands.size());
+            assertTrue(System.currentTimeMillis() - start >= 30);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(100, index.get("README.TXT").getSize());
+        assertEquals(200, index.get("LOGS/2017.LOG").getSize());
+        assertTrue(index.getCrawlFinished() > 0);
+        assertEquals(3, RemoteIndex.load(this.indexFile).size());
+    }
+
+    @Test
+    public void testCrawlIsNotFinishedWithoutConnection() throws Exception {
+        UartReceiver receiver = new UartReceiver();
+        SimulatedPeripheral peripheral = new SimulatedPeripheral(receiver);
+        peripheral.connected = false;
+        UartCommandExecutor executor = new UartCommandExecutor(peripheral, receiver);
+
+        RemoteIndex index = new RemoteIndex(this.indexFile);
+        RemoteIndexer indexer = new RemoteIndexer(executor, index, null);
+        indexer.setRequestInterval(10);
+        try {
+            indexer.start().get(5, TimeUnit.SECONDS);
+            fail("The crawl should fail without a connection.");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof UartConnectionException);
+        } finally {
+            executor.shutdown();
+        }
+        //The crawl is started again next time
+        assertEquals(0, index.getCrawlFinished());
+    }
+
+    @Test
+    public void testRestartWaitsForTheCancelledCrawl() throws Exception {
+        UartReceiver receiver = new UartReceiver();
+        SimulatedPeripheral peripheral = new SimulatedPeripheral(receiver);
+        peripheral.putListing("", "LOGS/,README.TXT");
+        peripheral.putListing("LOGS", "../,2017.LOG");
+        UartCommandExecutor executor = new UartCommandExecutor(peripheral, receiver);
+
+        RemoteIndex index = new RemoteIndex(this.indexFile);
+        RemoteIndexer indexer = new RemoteIndexer(executor, index, null);
+        indexer.setRequestInterval(10);
+        try {
+            UartCommandFuture<Integer> cancelledCrawl = indexer.start();
+            indexer.cancel();
+            UartCommandFuture<Integer> crawl = indexer.start();
+            assertTrue(crawl != cancelledCrawl);
+            assertEquals(3, (int)crawl.get(5, TimeUnit.SECONDS));
+            assertTrue(cancelledCrawl.isCancelled());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(3, RemoteIndex.load(this.indexFile).size());
+    }
+}
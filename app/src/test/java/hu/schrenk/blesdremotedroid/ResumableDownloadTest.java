@@ -0,0 +1,120 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.DownloadJournal;
+import hu.schrenk.blesdremotedroid.ble.GetFileCommand;
+import hu.schrenk.blesdremotedroid.ble.RemoteFileInfo;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class ResumableDownloadTest {
+
+    private static final String REMOTE_NAME = "LOGS/DATA.LOG";
+    private static final int FILE_SIZE = 100000;
+    private static final int DROP_AFTER = 40000;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    @Rule
+    public final SimulatedConnection connection = new SimulatedConnection();
+
+    private final SimulatedPeripheral peripheral = this.connection.peripheral;
+    private final UartCommandExecutor executor = this.connection.executor;
+
+    private File downloadFile;
+    private byte[] content;
+    private RemoteFileInfo remoteFileInfo;
+
+    @Before
+    public void setUp() {
+        this.downloadFile = new File(this.temporaryFolder.getRoot(), "DATA.LOG");
+
+        this.content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(this.content);
+        this.remoteFileInfo = new RemoteFileInfo(REMOTE_NAME, FILE_SIZE, "2017-03-09 10:00:00", "2017-03-09 11:00:00");
+
+        this.peripheral.notificationSize = 244;
+        this.peripheral.putFile(REMOTE_NAME, this.content);
+    }
+
+    @Test
+    public void testInterruptedDownloadIsResumed() throws Exception {
+        this.peripheral.dropAfter = DROP_AFTER;
+        this.downloadExpectingFailure(this.remoteFileInfo);
+
+        DownloadJournal journal = DownloadJournal.load(DownloadJournal.getJournalFile(this.downloadFile));
+        assertTrue(journal != null);
+        assertEquals(DROP_AFTER, journal.getConfirmedLength());
+        assertEquals(DROP_AFTER, DownloadJournal.getPartialFile(this.downloadFile).length());
+        assertFalse(this.downloadFile.exists());
+
+        //Reconnect
+        this.peripheral.connected = true;
+        GetFileCommand command = new GetFileCommand(REMOTE_NAME, this.downloadFile, this.remoteFileInfo);
+        File result = this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertEquals(DROP_AFTER, command.getRequestedOffset());
+        assertEquals("@GETF:" + REMOTE_NAME + "%" + DROP_AFTER + "%" + (FILE_SIZE - DROP_AFTER) + "#", this.lastCommand());
+        assertEquals(this.downloadFile, result);
+        assertTrue(Arrays.equals(this.content, SimulatedConnection.readFile(result)));
+        assertFalse(DownloadJournal.getPartialFile(this.downloadFile).exists());
+        assertFalse(DownloadJournal.getJournalFile(this.downloadFile).exists());
+    }
+
+    @Test
+    public void testChangedRemoteFileIsDownloadedFromZero() throws Exception {
+        this.peripheral.dropAfter = DROP_AFTER;
+        this.downloadExpectingFailure(this.remoteFileInfo);
+
+        this.peripheral.connected = true;
+        RemoteFileInfo changedFileInfo = new RemoteFileInfo(REMOTE_NAME, FILE_SIZE, "2017-03-09 10:00:00", "2017-03-10 08:00:00");
+        GetFileCommand command = new GetFileCommand(REMOTE_NAME, this.downloadFile, changedFileInfo);
+        File result = this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, command.getRequestedOffset());
+        assertEquals("@GETF:" + REMOTE_NAME + "#", this.lastCommand());
+        assertTrue(Arrays.equals(this.content, SimulatedConnection.readFile(result)));
+    }
+
+    @Test
+    public void testDeviceWithoutRangeSupport() throws Exception {
+        this.peripheral.dropAfter = DROP_AFTER;
+        this.downloadExpectingFailure(this.remoteFileInfo);
+
+        //The device ignores the range and sends the whole file
+        this.peripheral.connected = true;
+        this.peripheral.rangedDownloads = false;
+        File result = this.executor.submit(new GetFileCommand(REMOTE_NAME, this.downloadFile, this.remoteFileInfo)).get(10, TimeUnit.SECONDS);
+
+        assertTrue(Arrays.equals(this.content, SimulatedConnection.readFile(result)));
+        assertFalse(DownloadJournal.getJournalFile(this.downloadFile).exists());
+    }
+
+    private void downloadExpectingFailure(RemoteFileInfo remoteFileInfo) throws Exception {
+        try {
+            this.executor.submit(new GetFileCommand(REMOTE_NAME, this.downloadFile, remoteFileInfo)).get(10, TimeUnit.SECONDS);
+            fail("The download should fail, when the link is dropped.");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+
+    private String lastCommand() {
+        return this.peripheral.commands.get(this.peripheral.commands.size() - 1);
+    }
+}
@@ -0,0 +1,120 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.PutFileCommand;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+import hu.schrenk.blesdremotedroid.ble.UploadJournal;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class ResumableUploadTest {
+
+    private static final String REMOTE_NAME = "FIRMWARE/UPDATE.BIN";
+    private static final int FILE_SIZE = 50000;
+    private static final int DROP_AFTER = 30000;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    @Rule
+    public final SimulatedConnection connection = new SimulatedConnection();
+
+    private final SimulatedPeripheral peripheral = this.connection.peripheral;
+    private final UartCommandExecutor executor = this.connection.executor;
+
+    private File journalDirectory;
+    private File uploadFile;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        this.journalDirectory = new File(this.temporaryFolder.getRoot(), "journals");
+        this.uploadFile = new File(this.temporaryFolder.getRoot(), "UPDATE.BIN");
+
+        this.content = new byte[FILE_SIZE];
+        new Random(7).nextBytes(this.content);
+        SimulatedConnection.writeFile(this.uploadFile, this.content);
+    }
+
+    @Test
+    public void testInterruptedUploadIsResumedFromConfirmedOffset() throws Exception {
+        this.peripheral.dropAfter = DROP_AFTER;
+        this.uploadExpectingFailure();
+
+        //The last acknowledged offset is journaled, not the number of bytes sent
+        int confirmedOffset = DROP_AFTER / this.peripheral.uploadAckInterval * this.peripheral.uploadAckInterval;
+        UploadJournal journal = UploadJournal.load(this.journalDirectory, this.uploadFile);
+        assertTrue(journal != null);
+        assertEquals(confirmedOffset, journal.getConfirmedOffset());
+
+        this.peripheral.connected = true;
+        PutFileCommand command = this.createCommand();
+        this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertEquals(confirmedOffset, command.getAcceptedOffset());
+        assertTrue(this.peripheral.commands.contains("@PUTF:" + REMOTE_NAME + "%" + FILE_SIZE + "%" + confirmedOffset + "#"));
+        assertTrue(Arrays.equals(this.content, this.peripheral.getFile(REMOTE_NAME)));
+        assertFalse(UploadJournal.getJournalFile(this.journalDirectory, this.uploadFile).exists());
+    }
+
+    @Test
+    public void testChangedLocalFileIsUploadedFromZero() throws Exception {
+        this.peripheral.dropAfter = DROP_AFTER;
+        this.uploadExpectingFailure();
+
+        this.content[0]++;
+        SimulatedConnection.writeFile(this.uploadFile, this.content);
+        assertTrue(this.uploadFile.setLastModified(this.uploadFile.lastModified() + 2000));
+
+        this.peripheral.connected = true;
+        PutFileCommand command = this.createCommand();
+        this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, command.getAcceptedOffset());
+        assertTrue(Arrays.equals(this.content, this.peripheral.getFile(REMOTE_NAME)));
+    }
+
+    @Test
+    public void testDeviceWithoutResumeSupport() throws Exception {
+        this.peripheral.dropAfter = DROP_AFTER;
+        this.uploadExpectingFailure();
+
+        //The device answers the resume request with a plain OK
+        this.peripheral.connected = true;
+        this.peripheral.resumableUploads = false;
+        PutFileCommand command = this.createCommand();
+        this.executor.submit(command).get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, command.getAcceptedOffset());
+        assertTrue(Arrays.equals(this.content, this.peripheral.getFile(REMOTE_NAME)));
+    }
+
+    private PutFileCommand createCommand() {
+        PutFileCommand command = new PutFileCommand(this.uploadFile, REMOTE_NAME);
+        command.setJournalDirectory(this.journalDirectory);
+        return command;
+    }
+
+    private void uploadExpectingFailure() throws Exception {
+        try {
+            this.executor.submit(this.createCommand()).get(10, TimeUnit.SECONDS);
+            fail("The upload should fail, when the link is dropped.");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        assertEquals(DROP_AFTER, this.peripheral.getUploadReceived());
+    }
+}
@@ -0,0 +1,64 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.rules.ExternalResource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+
+/**
+ * The phone side of a {@link SimulatedPeripheral}: the receiver and the command executor of the
+ * connection. Used as a {@link org.junit.Rule}, the connection is shut down after each test, so
+ * a test only has to put its own payload on the peripheral.
+ */
+class SimulatedConnection extends ExternalResource {
+
+    final UartReceiver receiver = new UartReceiver();
+    final SimulatedPeripheral peripheral = new SimulatedPeripheral(this.receiver);
+    final UartCommandExecutor executor = new UartCommandExecutor(this.peripheral, this.receiver);
+    final SimulatedRadio radio;
+
+    SimulatedConnection() {
+        this(null);
+    }
+
+    /**
+     * @param radio the air between the phone and the peripheral, <code>null</code> for an
+     * instant link
+     */
+    SimulatedConnection(SimulatedRadio radio) {
+        this.radio = radio;
+        if (radio != null) {
+            this.peripheral.setRadio(radio);
+        }
+    }
+
+    @Override
+    protected void after() {
+        this.executor.shutdown();
+        if (this.radio != null) {
+            this.radio.shutdown();
+        }
+    }
+
+    static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int)file.length()];
+        try (FileInputStream fis = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                read += fis.read(data, read, data.length - read);
+            }
+        }
+        return data;
+    }
+
+    static void writeFile(File file, byte[] content) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(content);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.DeleteFileCommand;
+import hu.schrenk.blesdremotedroid.ble.GetFileCommand;
+import hu.schrenk.blesdremotedroid.ble.InfoCommand;
+import hu.schrenk.blesdremotedroid.ble.ListCommand;
+import hu.schrenk.blesdremotedroid.ble.PutFileCommand;
+import hu.schrenk.blesdremotedroid.ble.RemoteFileInfo;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+import hu.schrenk.blesdremotedroid.ble.UartWriteMode;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * End-to-end transfers through a {@link SimulatedRadio}, the throughput limits are the
+ * regression checks of the transfer paths. The times are taken from the radio, not from the
+ * wall clock.
+ */
+public class SimulatedLinkTest {
+
+    private static final String REMOTE_NAME = "LOGS/DATA.LOG";
+    private static final int FILE_SIZE = 40000;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    @Rule
+    public final SimulatedConnection connection = new SimulatedConnection(new SimulatedRadio());
+
+    private final SimulatedRadio radio = this.connection.radio;
+    private final UartReceiver receiver = this.connection.receiver;
+    private final SimulatedPeripheral peripheral = this.connection.peripheral;
+    private final UartCommandExecutor executor = this.connection.executor;
+
+    private File directory;
+    private byte[] content;
+
+    @Before
+    public void setUp() {
+        this.directory = this.temporaryFolder.getRoot();
+        this.content = new byte[FILE_SIZE];
+        new Random(5).nextBytes(this.content);
+    }
+
+    @Test
+    public void testDownloadThroughputFollowsBandwidth() throws Exception {
+        this.radio.bandwidth = 40000;
+        this.radio.latency = 10;
+        this.peripheral.putFile(REMOTE_NAME, this.content);
+
+        long start = this.radio.getRadioTime();
+        File result = this.download();
+        long elapsed = this.radio.getRadioTime() - start;
+
+        assertTrue(Arrays.equals(this.content, SimulatedConnection.readFile(result)));
+        //The content can not arrive faster than the air allows, but most of the bandwidth is used
+        long airTime = (long)FILE_SIZE * 1000 / this.radio.bandwidth;
+        assertTrue("Download took " + elapsed + " ms", elapsed >= airTime);
+        long rate = FILE_SIZE * 1000L / elapsed;
+        assertTrue("Download rate: " + rate + " B/s", rate > this.radio.bandwidth * 2 / 3);
+        assertTrue(this.receiver.getTelemetry().snapshot().getBytesReceived() > FILE_SIZE);
+    }
+
+    @Test
+    public void testUploadWithoutResponseIsFaster() throws Exception {
+        this.radio.bandwidth = 100000;
+        this.radio.latency = 5;
+
+        long acknowledged = this.upload("ACKED.BIN", UartWriteMode.ACKNOWLEDGED);
+        long withoutResponse = this.upload("UNACKED.BIN", UartWriteMode.WITHOUT_RESPONSE);
+
+        assertTrue(Arrays.equals(this.content, this.peripheral.getFile("ACKED.BIN")));
+        assertTrue(Arrays.equals(this.content, this.peripheral.getFile("UNACKED.BIN")));
+        //Every acknowledged chunk waits for a round trip, at least 2 latencies
+        int chunks = FILE_SIZE / this.radio.getPayloadSize();
+        assertTrue("Acknowledged upload took " + acknowledged + " ms", acknowledged >= chunks * 2 * this.radio.latency);
+        assertTrue("Upload without response took " + withoutResponse + " ms", withoutResponse < acknowledged / 2);
+    }
+
+    @Test
+    public void testLostPacketsAreRetransmitted() throws Exception {
+        this.radio.packetLoss = 0.1;
+        this.peripheral.putFile(REMOTE_NAME, this.content);
+
+        File result = this.download();
+        this.upload("UPLOAD.BIN", UartWriteMode.ACKNOWLEDGED);
+
+        assertTrue(this.radio.getRetransmissions() > 0);
+        assertTrue(Arrays.equals(this.content, SimulatedConnection.readFile(result)));
+        assertTrue(Arrays.equals(this.content, this.peripheral.getFile("UPLOAD.BIN")));
+    }
+
+    @Test
+    public void testCommandsOverJitteryLink() throws Exception {
+        this.radio.latency = 20;
+        this.radio.jitter = 30;
+        this.radio.mtu = 23;
+        this.peripheral.setRadio(this.radio);
+        this.peripheral.putFile(REMOTE_NAME, this.content);
+        this.peripheral.putFile("README.TXT", new byte[] { 'a' });
+
+        assertEquals("LOGS/,README.TXT", this.executor.submit(new ListCommand("")).get(10, TimeUnit.SECONDS));
+        RemoteFileInfo fileInfo = this.executor.submit(new InfoCommand(REMOTE_NAME)).get(10, TimeUnit.SECONDS);
+        assertEquals(FILE_SIZE, fileInfo.getSize());
+        assertEquals("README.TXT", this.executor.submit(new DeleteFileCommand("README.TXT")).get(10, TimeUnit.SECONDS));
+        assertTrue(this.peripheral.getFile("README.TXT") == null);
+        assertEquals("LOGS/", this.executor.submit(new ListCommand("")).get(10, TimeUnit.SECONDS));
+    }
+
+    private File download() throws Exception {
+        File downloadFile = new File(this.directory, "DATA.LOG");
+        return this.executor.submit(new GetFileCommand(REMOTE_NAME, downloadFile)).get(30, TimeUnit.SECONDS);
+    }
+
+    //Returns the radio time of the upload
+    private long upload(String remoteName, UartWriteMode writeMode) throws Exception {
+        File uploadFile = new File(this.directory, remoteName);
+        SimulatedConnection.writeFile(uploadFile, this.content);
+        PutFileCommand command = new PutFileCommand(uploadFile, remoteName);
+        command.setWriteMode(writeMode);
+        long start = this.radio.getRadioTime();
+        this.executor.submit(command).get(30, TimeUnit.SECONDS);
+        return this.radio.getRadioTime() - start;
+    }
+}
@@ -0,0 +1,520 @@
+package hu.schrenk.blesdremotedroid;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.CRC32;
+
+import hu.schrenk.blesdremotedroid.ble.BlockCompressor;
+import hu.schrenk.blesdremotedroid.ble.BlockDecompressor;
+import hu.schrenk.blesdremotedroid.ble.UartLink;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+import hu.schrenk.blesdremotedroid.ble.UartTxChannel;
+import hu.schrenk.blesdremotedroid.ble.UartWriteMode;
+import hu.schrenk.blesdremotedroid.ble.UartWriteQueue;
+
+/**
+ * Answers the UART commands like a BleSdRemote device, in notifications of the given size.
+ * The replies are delivered synchronously to the receiver, on the thread sending the command.
+ *
+ * With a {@link SimulatedRadio} the peripheral takes the place of the
+ * {@link hu.schrenk.blesdremotedroid.ble.UartGattCallback}: the commands and the data are written
+ * in chunks by a {@link UartWriteQueue}, and both the chunks and the notifications take their time
+ * on the radio.
+ */
+class SimulatedPeripheral implements UartLink {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final UartReceiver receiver;
+    private final Map<String, byte[]> files = new HashMap<>();
+    private final Map<String, String> listings = new HashMap<>();
+    private final Map<String, String> modificationDates = new HashMap<>();
+    private int modificationCount = 0;
+    //The connection gets ready, when the gate is opened
+    CountDownLatch readyGate;
+    static final String FILE_DATE = "2017-03-09 10:00:00";
+    final List<String> commands = new ArrayList<>();
+
+    int notificationSize = 20;
+    boolean connected = true;
+    boolean rangedDownloads = true;
+    boolean resumableUploads = true;
+    //Accepts the compressed transfers offered with a Z flag
+    boolean compression = false;
+    //Answers MINF, a device without it does not answer at all
+    boolean batchedMetadata = true;
+    //Accepts the block-framed transfers offered with a B flag
+    boolean verifiedBlocks = false;
+    //The lossy link of the block notifications: the ratio of the lost and the corrupted ones
+    double lossRate = 0;
+    double corruptionRate = 0;
+    final Random random = new Random(7);
+    //These blocks are lost, when they are sent the first time
+    final Set<Integer> lostBlocks = new HashSet<>();
+    //The number of block notifications sent, including the lost ones
+    int blocksSent = 0;
+    //The number of file content bytes on the wire in both directions
+    long contentBytesTransferred = 0;
+    //The received upload offset is acknowledged after this many bytes
+    int uploadAckInterval = 4096;
+    //The link is dropped after this many content bytes, if it is not negative
+    long dropAfter = -1;
+    //DELF replies are held back until this many are waiting, then they are sent in reverse order
+    int deleteReplyBatch = 1;
+    private final List<String> heldReplies = new ArrayList<>();
+
+    //The block-framed download in progress
+    private byte[] blockContent;
+    private int blockOffset;
+    private int blockLength;
+
+    //The upload in progress, the received content is kept after a dropped link
+    private ByteArrayOutputStream upload;
+    private String uploadName;
+    private int uploadSize;
+    private int lastAckOffset;
+    //The end of the file is confirmed, when the upload was accepted with an offset
+    private boolean uploadConfirmed;
+    private BlockDecompressor uploadDecompressor;
+    private boolean uploadAccepted;
+    //The radio link, the phone side of it writes like the UartGattCallback does
+    private SimulatedRadio radio;
+    private UartWriteQueue writeQueue;
+    private final Object sendLock = new Object();
+    private boolean sendingCommand;
+    private final ByteArrayOutputStream commandBytes = new ByteArrayOutputStream();
+
+    private final BlockDecompressor.Output uploadOutput = new BlockDecompressor.Output() {
+        @Override
+        public boolean write(byte[] data, int offset, int length) {
+            uploadAccepted = receiveUpload(data, offset, length);
+            return uploadAccepted;
+        }
+    };
+
+    SimulatedPeripheral(UartReceiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * Connects the peripheral through the radio, the notifications are sent in packets of its
+     * payload size.
+     */
+    void setRadio(SimulatedRadio radio) {
+        this.radio = radio;
+        this.notificationSize = radio.getPayloadSize();
+        this.writeQueue = new UartWriteQueue(new RadioTxChannel(), this.receiver.getTelemetry());
+        this.writeQueue.setChunkSize(radio.getPayloadSize());
+    }
+
+    void putFile(String name, byte[] content) {
+        this.files.put(name, content);
+    }
+
+    /**
+     * Replaces a file, and gives it a later modification date.
+     */
+    void modifyFile(String name, byte[] content) {
+        this.files.put(name, content);
+        this.modificationCount++;
+        this.modificationDates.put(name, String.format("2017-03-10 10:%02d:%02d", this.modificationCount / 60, this.modificationCount % 60));
+    }
+
+    @Override
+    public boolean awaitReady(long timeout) throws InterruptedException {
+        if (this.readyGate != null) {
+            this.readyGate.await();
+        }
+        return this.connected;
+    }
+
+    void putListing(String path, String listing) {
+        this.listings.put(path, listing);
+    }
+
+    @Override
+    public boolean sendCommand(String command) {
+        if (!this.connected) {
+            return false;
+        }
+        if (this.radio != null) {
+            byte[] bytes = command.getBytes(UTF_8);
+            return this.transmit(bytes, 0, bytes.length, UartWriteMode.ACKNOWLEDGED, true);
+        }
+        this.handleCommand(command);
+        return true;
+    }
+
+    private void handleCommand(String command) {
+        this.commands.add(command);
+        String body = command.substring(1, command.length() - 1);
+        if (body.equals("LIST")) {
+            this.reply("@" + this.getListing("") + "#");
+        } else if (body.startsWith("LIST:")) {
+            this.reply("@" + this.getListing(body.substring(5)) + "#");
+        } else if (body.startsWith("GETF:")) {
+            this.getFile(body.substring(5).split("%"));
+        } else if (body.startsWith("PUTF:")) {
+            this.putFile(body.substring(5).split("%"));
+        } else if (body.startsWith("INFO:")) {
+            this.fileInfo(body.substring(5));
+        } else if (body.startsWith("MINF:") && this.batchedMetadata) {
+            this.fileMetadata(body.substring(5).split("%"));
+        } else if (body.startsWith("DELF:")) {
+            this.deleteFile(body.substring(5));
+        } else if (body.startsWith("RSND:")) {
+            for (String sequence : body.substring(5).split("%")) {
+                this.sendBlock(Integer.parseInt(sequence));
+            }
+        }
+    }
+
+    @Override
+    public boolean sendData(byte[] data, int offset, int length, UartWriteMode writeMode) {
+        if (this.radio != null) {
+            return this.connected && this.transmit(data, offset, length, writeMode, false);
+        }
+        return this.handleData(data, offset, length);
+    }
+
+    private boolean handleData(byte[] data, int offset, int length) {
+        if (!this.connected || this.upload == null) {
+            return false;
+        }
+        this.contentBytesTransferred += length;
+        if (this.uploadDecompressor != null) {
+            this.uploadAccepted = true;
+            try {
+                this.uploadDecompressor.decode(data, offset, length, this.uploadOutput);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return this.uploadAccepted;
+        }
+        if (this.upload.size() == this.uploadSize) {
+            //The closing carriage return
+            this.contentBytesTransferred -= length;
+            this.modifyFile(this.uploadName, this.upload.toByteArray());
+            return true;
+        }
+        return this.receiveUpload(data, offset, length);
+    }
+
+    private boolean receiveUpload(byte[] data, int offset, int length) {
+        if (this.dropAfter >= 0 && this.upload.size() + length > this.dropAfter) {
+            this.upload.write(data, offset, (int)this.dropAfter - this.upload.size());
+            this.drop();
+            return false;
+        }
+        this.upload.write(data, offset, length);
+        if (this.upload.size() - this.lastAckOffset >= this.uploadAckInterval) {
+            this.lastAckOffset = this.upload.size();
+            this.reply("@ACK%" + this.lastAckOffset + "#");
+        }
+        if (this.upload.size() == this.uploadSize) {
+            this.modifyFile(this.uploadName, this.upload.toByteArray());
+            if (this.uploadConfirmed && this.lastAckOffset < this.uploadSize) {
+                this.lastAckOffset = this.uploadSize;
+                this.reply("@ACK%" + this.lastAckOffset + "#");
+            }
+        }
+        return true;
+    }
+
+    byte[] getFile(String name) {
+        return this.files.get(name);
+    }
+
+    /**
+     * Returns the number of bytes the device received from the last upload.
+     */
+    int getUploadReceived() {
+        return this.upload == null ? 0 : this.upload.size();
+    }
+
+    private void putFile(String[] arguments) {
+        int size = Integer.parseInt(arguments[1]);
+        boolean compressed = this.compression && arguments.length > 3 && "Z".equals(arguments[3]);
+        String flag = compressed ? "%Z" : "";
+        if (arguments.length > 2 && this.resumableUploads && arguments[0].equals(this.uploadName) && this.upload != null) {
+            //Continue from the requested offset, or from the received length if it is less
+            int offset = Math.min(Integer.parseInt(arguments[2]), this.upload.size());
+            byte[] received = this.upload.toByteArray();
+            this.upload.reset();
+            this.upload.write(received, 0, offset);
+            this.uploadSize = size;
+            this.lastAckOffset = offset;
+            this.uploadDecompressor = compressed ? new BlockDecompressor(size - offset) : null;
+            this.uploadConfirmed = true;
+            this.reply("@OK%" + offset + flag + "#");
+            return;
+        }
+        this.upload = new ByteArrayOutputStream();
+        this.uploadName = arguments[0];
+        this.uploadSize = size;
+        this.lastAckOffset = 0;
+        this.uploadDecompressor = compressed ? new BlockDecompressor(size) : null;
+        this.uploadConfirmed = compressed || this.resumableUploads;
+        this.reply(compressed ? "@OK%0%Z#" : this.uploadConfirmed ? "@OK%0#" : "@OK#");
+    }
+
+    //A listing put by the test, or the one of the files in the directory
+    private String getListing(String path) {
+        if (this.listings.containsKey(path)) {
+            return this.listings.get(path);
+        }
+        String prefix = path.isEmpty() ? "" : path + "/";
+        Set<String> entries = new TreeSet<>();
+        for (String name : this.files.keySet()) {
+            if (name.startsWith(prefix)) {
+                String relativeName = name.substring(prefix.length());
+                int separatorIndex = relativeName.indexOf('/');
+                entries.add(separatorIndex < 0 ? relativeName : relativeName.substring(0, separatorIndex + 1));
+            }
+        }
+        StringBuilder listing = new StringBuilder(path.isEmpty() ? "" : "../");
+        for (String entry : entries) {
+            listing.append(listing.length() > 0 ? "," : "").append(entry);
+        }
+        return listing.toString();
+    }
+
+    private void fileInfo(String name) {
+        this.reply("@" + this.getMetadata(name, name) + "#");
+    }
+
+    private void fileMetadata(String[] arguments) {
+        StringBuilder records = new StringBuilder();
+        for (int i = 1; i < arguments.length; i++) {
+            String path = arguments[0].isEmpty() ? arguments[i] : arguments[0] + "/" + arguments[i];
+            if (records.length() > 0) {
+                records.append(',');
+            }
+            records.append(this.files.containsKey(path) ? this.getMetadata(path, arguments[i]) : arguments[i] + "%KO");
+        }
+        this.reply("@" + records + "#");
+    }
+
+    private String getMetadata(String path, String name) {
+        byte[] content = this.files.get(path);
+        String modificationDate = this.modificationDates.containsKey(path) ? this.modificationDates.get(path) : FILE_DATE;
+        return name + "%" + (content == null ? 0 : content.length) + "%" + FILE_DATE + "%" + modificationDate;
+    }
+
+    private void deleteFile(String name) {
+        if (this.files.remove(name) != null) {
+            this.modificationDates.remove(name);
+            this.heldReplies.add("@OK%" + name + "#");
+        } else {
+            this.heldReplies.add("@KO%" + name + "#");
+        }
+        if (this.heldReplies.size() >= this.deleteReplyBatch) {
+            for (int i = this.heldReplies.size() - 1; i >= 0; i--) {
+                this.reply(this.heldReplies.get(i));
+            }
+            this.heldReplies.clear();
+        }
+    }
+
+    private void drop() {
+        this.connected = false;
+        this.dropAfter = -1;
+        this.receiver.connectionLost();
+    }
+
+    private void reply(String frame) {
+        byte[] bytes = frame.getBytes(UTF_8);
+        for (int offset = 0; offset < bytes.length; offset += this.notificationSize) {
+            this.notify(bytes, offset, Math.min(this.notificationSize, bytes.length - offset));
+        }
+    }
+
+    private void getFile(String[] arguments) {
+        byte[] content = this.files.get(arguments[0]);
+        int offset = 0;
+        int length = content.length;
+        String header = "@" + content.length + "#";
+        boolean compressed = false;
+        if (arguments.length > 2 && this.rangedDownloads) {
+            offset = Integer.parseInt(arguments[1]);
+            length = Integer.parseInt(arguments[2]);
+            String flags = arguments.length > 3 ? arguments[3] : "";
+            if (this.verifiedBlocks && flags.contains("B")) {
+                this.getFileBlocks(content, offset, length);
+                return;
+            }
+            compressed = this.compression && flags.contains("Z");
+            header = "@" + content.length + "%" + offset + "%" + length + (compressed ? "%Z" : "") + "#";
+        }
+        this.reply(header);
+        if (compressed) {
+            content = compress(content, offset, length);
+            offset = 0;
+            length = content.length;
+        }
+        this.contentBytesTransferred += length;
+
+        int sent = 0;
+        while (sent < length) {
+            int size = Math.min(this.notificationSize, length - sent);
+            if (this.dropAfter >= 0 && sent + size > this.dropAfter) {
+                this.notify(content, offset + sent, (int)this.dropAfter - sent);
+                this.drop();
+                return;
+            }
+            this.notify(content, offset + sent, size);
+            sent += size;
+        }
+    }
+
+    private void getFileBlocks(byte[] content, int offset, int length) {
+        this.blockContent = content;
+        this.blockOffset = offset;
+        this.blockLength = length;
+        int blockSize = this.getBlockSize();
+        this.reply("@" + content.length + "%" + offset + "%" + length + "%B%" + blockSize + "#");
+        for (int sequence = 0; sequence * blockSize < length; sequence++) {
+            this.sendBlock(sequence);
+        }
+    }
+
+    private int getBlockSize() {
+        return this.notificationSize - 8;
+    }
+
+    //Sends a block in one notification, through the lossy link
+    private void sendBlock(int sequence) {
+        int blockSize = this.getBlockSize();
+        int start = this.blockOffset + sequence * blockSize;
+        int payloadLength = Math.min(blockSize, this.blockLength - sequence * blockSize);
+        CRC32 crc32 = new CRC32();
+        crc32.update(this.blockContent, start, payloadLength);
+        byte[] block = new byte[8 + payloadLength];
+        writeInt(block, 0, sequence);
+        writeInt(block, 4, (int)crc32.getValue());
+        System.arraycopy(this.blockContent, start, block, 8, payloadLength);
+        this.blocksSent++;
+        this.contentBytesTransferred += payloadLength;
+
+        if (this.lostBlocks.remove(sequence) || this.random.nextDouble() < this.lossRate) {
+            return;
+        }
+        if (this.random.nextDouble() < this.corruptionRate) {
+            block[this.random.nextInt(block.length)] ^= 1 << this.random.nextInt(8);
+        }
+        this.notify(block, 0, block.length);
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte)(value >> 24);
+        data[offset + 1] = (byte)(value >> 16);
+        data[offset + 2] = (byte)(value >> 8);
+        data[offset + 3] = (byte)value;
+    }
+
+    private static byte[] compress(byte[] content, int offset, int length) {
+        BlockCompressor compressor = new BlockCompressor();
+        byte[] encodedBlock = new byte[BlockCompressor.MAX_ENCODED_SIZE];
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        for (int i = 0; i < length; i += BlockCompressor.BLOCK_SIZE) {
+            int encodedSize = compressor.encode(content, offset + i, Math.min(BlockCompressor.BLOCK_SIZE, length - i), encodedBlock);
+            encoded.write(encodedBlock, 0, encodedSize);
+        }
+        compressor.end();
+        return encoded.toByteArray();
+    }
+
+    private void notify(byte[] data, int offset, int length) {
+        if (length > 0) {
+            final byte[] notification = new byte[length];
+            System.arraycopy(data, offset, notification, 0, length);
+            if (this.radio == null) {
+                this.receiver.receive(notification, 0, length);
+                return;
+            }
+            this.radio.send(length, null, new Runnable() {
+                @Override
+                public void run() {
+                    receiver.receive(notification, 0, notification.length);
+                }
+            });
+        }
+    }
+
+    private boolean transmit(byte[] data, int offset, int length, UartWriteMode writeMode, boolean command) {
+        synchronized (this.sendLock) {
+            this.sendingCommand = command;
+            return this.writeQueue.write(data, offset, length, writeMode);
+        }
+    }
+
+    //Called on the radio thread, when a written chunk arrived
+    private boolean receiveChunk(byte[] chunk, boolean command) {
+        if (!command) {
+            return this.handleData(chunk, 0, chunk.length);
+        }
+        for (byte value : chunk) {
+            this.commandBytes.write(value);
+            if (value == '#') {
+                this.handleCommand(new String(this.commandBytes.toByteArray(), UTF_8));
+                this.commandBytes.reset();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends the chunks of the write queue through the radio. A write with response is completed
+     * by the response packet of the peripheral, a write without response when it left the air.
+     */
+    private class RadioTxChannel implements UartTxChannel {
+
+        private final Runnable writeSent = new Runnable() {
+            @Override
+            public void run() {
+                writeQueue.onWriteComplete(BluetoothGatt.GATT_SUCCESS);
+            }
+        };
+
+        @Override
+        public boolean write(byte[] chunk, final boolean withResponse) {
+            if (!connected) {
+                return false;
+            }
+            //The chunks of the write queue are reused
+            final byte[] packet = chunk.clone();
+            final boolean command = sendingCommand;
+            radio.send(packet.length, withResponse ? null : this.writeSent, new Runnable() {
+                @Override
+                public void run() {
+                    //The stack answers a command write, before the peripheral replies to the command
+                    final boolean accepted = command || receiveChunk(packet, false);
+                    if (withResponse) {
+                        radio.send(0, null, new Runnable() {
+                            @Override
+                            public void run() {
+                                writeQueue.onWriteComplete(accepted ? BluetoothGatt.GATT_SUCCESS : BluetoothGatt.GATT_FAILURE);
+                            }
+                        });
+                    }
+                    if (command) {
+                        receiveChunk(packet, true);
+                    }
+                }
+            });
+            return true;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package hu.schrenk.blesdremotedroid;
+
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import hu.schrenk.blesdremotedroid.ble.UartGattCallback;
+
+/**
+ * The air between the phone and a {@link SimulatedPeripheral}. The packets of both directions
+ * share the bandwidth, they are delivered in order after their air time, the latency and a random
+ * jitter. A lost packet is sent again in the next connection event, like the link layer does, so
+ * the loss slows the link down, but it does not lose data.
+ *
+ * The radio keeps its own account of the time the traffic takes, see {@link #getRadioTime()}, so
+ * the tests do not depend on the wall clock of a busy build machine.
+ *
+ * The packets are delivered on the thread of the radio, like the notifications of a real
+ * connection are delivered on the Bluetooth callback thread. The events of the sent packets have
+ * an other thread, so a sender waiting for the air does not hold up the deliveries.
+ */
+class SimulatedRadio {
+
+    //The ATT, L2CAP and link layer headers of a packet
+    static final int PACKET_OVERHEAD = 10;
+
+    int mtu = UartGattCallback.REQUESTED_MTU;
+    //Bytes per second on the air, 0 for an unlimited link
+    long bandwidth = 0;
+    long latency = 0; //ms
+    long jitter = 0; //ms
+    long connectionInterval = 15; //ms
+    //The ratio of the packets, which have to be sent again
+    double packetLoss = 0;
+    final Random random = new Random(11);
+
+    private final Timeline sentTimeline = new Timeline("SimulatedRadio-sent");
+    private final Timeline deliveredTimeline = new Timeline("SimulatedRadio-delivered");
+    private long airFree = 0; //The air is busy until this time, in nanoseconds
+    private long lastDelivery = 0;
+    private int packets = 0;
+    private int retransmissions = 0;
+    private long airTime = 0; //The air was busy this long, in nanoseconds
+    private int idleStarts = 0;
+
+    SimulatedRadio() {
+        this.sentTimeline.start();
+        this.deliveredTimeline.start();
+    }
+
+    /**
+     * Returns the payload size of a packet.
+     */
+    int getPayloadSize() {
+        return this.mtu - UartGattCallback.ATT_HEADER_SIZE;
+    }
+
+    synchronized int getPackets() {
+        return this.packets;
+    }
+
+    synchronized int getRetransmissions() {
+        return this.retransmissions;
+    }
+
+    /**
+     * Returns the time the traffic so far takes on the link, in milliseconds: the air time of
+     * the packets, retransmissions included, and a latency every time a packet was sent on an
+     * idle air, e.g. after waiting for a reply. The pauses of the test threads are not counted,
+     * unless they are longer than the packets already queued on the air.
+     */
+    synchronized long getRadioTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.airTime) + this.idleStarts * this.latency;
+    }
+
+    /**
+     * Sends a packet.
+     *
+     * @param length the payload length
+     * @param onSent called when the packet left the air, can be <code>null</code>
+     * @param onDelivered called when the packet arrived
+     */
+    synchronized void send(int length, Runnable onSent, Runnable onDelivered) {
+        long now = System.nanoTime();
+        long airTime = this.bandwidth == 0 ? 0 : (length + PACKET_OVERHEAD) * 1000000000L / this.bandwidth;
+        if (now >= this.airFree) {
+            this.idleStarts++;
+        }
+        long start = Math.max(now, this.airFree);
+        long sent = start + airTime;
+        while (this.packetLoss > 0 && this.random.nextDouble() < this.packetLoss) {
+            sent += TimeUnit.MILLISECONDS.toNanos(this.connectionInterval) + airTime;
+            this.retransmissions++;
+        }
+        this.airTime += sent - start;
+        this.airFree = sent;
+        this.packets++;
+
+        long jitter = this.jitter == 0 ? 0 : (long)(this.random.nextDouble() * TimeUnit.MILLISECONDS.toNanos(this.jitter));
+        //The jitter does not reorder the packets
+        long delivered = Math.max(this.lastDelivery, sent + TimeUnit.MILLISECONDS.toNanos(this.latency) + jitter);
+        this.lastDelivery = delivered;
+
+        //The times only grow, so the timelines are in order
+        if (onSent != null) {
+            this.sentTimeline.add(sent, onSent);
+        }
+        this.deliveredTimeline.add(delivered, onDelivered);
+    }
+
+    void shutdown() {
+        this.sentTimeline.interrupt();
+        this.deliveredTimeline.interrupt();
+    }
+
+    //Runs the events one after the other, each one at its time
+    private static class Timeline extends Thread {
+
+        private final LinkedBlockingQueue<Object[]> events = new LinkedBlockingQueue<>();
+
+        Timeline(String name) {
+            super(name);
+            this.setDaemon(true);
+        }
+
+        void add(long time, Runnable event) {
+            this.events.add(new Object[] { time, event });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!this.isInterrupted()) {
+                    Object[] event = this.events.take();
+                    long time = (Long)event[0];
+                    for (long remaining = time - System.nanoTime(); remaining > 0; remaining = time - System.nanoTime()) {
+                        LockSupport.parkNanos(remaining);
+                        if (this.isInterrupted()) {
+                            return;
+                        }
+                    }
+                    ((Runnable)event[1]).run();
+                }
+            } catch (InterruptedException e) {
+                //The radio was shut down
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.ListCommand;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class StreamingListTest {
+
+    private SimulatedPeripheral peripheral;
+    private UartCommandExecutor executor;
+    private final List<Batch> batches = Collections.synchronizedList(new ArrayList<Batch>());
+    private ListCommand.EntryListener entryListener;
+
+    private static class Batch {
+
+        private final String path;
+        private final List<String> entries;
+        private final int firstIndex;
+
+        Batch(String path, List<String> entries, int firstIndex) {
+            this.path = path;
+            this.entries = entries;
+            this.firstIndex = firstIndex;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        UartReceiver receiver = new UartReceiver();
+        this.peripheral = new SimulatedPeripheral(receiver);
+        this.peripheral.notificationSize = 20;
+        this.executor = new UartCommandExecutor(this.peripheral, receiver);
+        this.entryListener = new ListCommand.EntryListener() {
+            @Override
+            public void onEntries(ListCommand command, List<String> entries, int firstIndex) {
+                batches.add(new Batch(command.getPath(), entries, firstIndex));
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    @Test
+    public void testEntriesArePostedAsTheyArrive() throws Exception {
+        List<String> entries = new ArrayList<>();
+        entries.add("../");
+        entries.add("ÁRVÍZTŰRŐ TÜKÖRFÚRÓGÉP/");
+        for (int i = 0; i < 500; i++) {
+            entries.add("FILE" + i + ".TXT");
+        }
+        String listing = join(entries);
+        this.peripheral.putListing("BIG", listing);
+
+        ListCommand command = new ListCommand("BIG");
+        command.setStreaming(true);
+        command.setEntryListener(this.entryListener);
+        assertEquals(listing, this.executor.submit(command).get(5, TimeUnit.SECONDS));
+
+        //A batch for almost every notification, the first one within the first two notifications
+        assertTrue(this.batches.size() > 100);
+        Batch firstBatch = this.batches.get(0);
+        assertEquals(0, firstBatch.firstIndex);
+        assertEquals("BIG", firstBatch.path);
+        assertEquals("../", firstBatch.entries.get(0));
+
+        List<String> streamedEntries = new ArrayList<>();
+        for (Batch batch : this.batches) {
+            assertEquals(streamedEntries.size(), batch.firstIndex);
+            streamedEntries.addAll(batch.entries);
+        }
+        assertEquals(entries, streamedEntries);
+    }
+
+    @Test
+    public void testEmptyListing() throws Exception {
+        this.peripheral.putListing("EMPTY", "");
+
+        ListCommand command = new ListCommand("EMPTY");
+        command.setStreaming(true);
+        command.setEntryListener(this.entryListener);
+        assertEquals("", this.executor.submit(command).get(5, TimeUnit.SECONDS));
+        assertEquals(0, this.batches.size());
+    }
+
+    private static String join(List<String> entries) {
+        StringBuilder builder = new StringBuilder();
+        for (String entry : entries) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(entry);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,50 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.ListCommand;
+import hu.schrenk.blesdremotedroid.ble.MetadataCommand;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+import hu.schrenk.blesdremotedroid.ble.UartCommandFuture;
+import hu.schrenk.blesdremotedroid.ble.UartConnectionException;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class UartCommandExecutorTest {
+
+    @Test
+    public void testShutdownFailsRunningAndQueuedCommands() throws Exception {
+        UartReceiver receiver = new UartReceiver();
+        SimulatedPeripheral peripheral = new SimulatedPeripheral(receiver);
+        peripheral.batchedMetadata = false; //The running command is not answered
+        UartCommandExecutor executor = new UartCommandExecutor(peripheral, receiver);
+
+        MetadataCommand metadataCommand = new MetadataCommand("LOGS", Collections.singletonList("LOG0.CSV"));
+        metadataCommand.setReplyTimeout(60000);
+        UartCommandFuture<?> runningFuture = executor.submit(metadataCommand);
+        UartCommandFuture<?> queuedFuture = executor.submit(new ListCommand("LOGS"));
+        while (peripheral.commands.isEmpty()) {
+            Thread.sleep(10);
+        }
+
+        executor.shutdown();
+        assertFailedForShutdown(runningFuture);
+        assertFailedForShutdown(queuedFuture);
+        assertFailedForShutdown(executor.submit(new ListCommand("LOGS")));
+    }
+
+    private static void assertFailedForShutdown(UartCommandFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("The command was not failed.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UartConnectionException);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import hu.schrenk.blesdremotedroid.ble.UartFrameParser;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class UartFrameParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testSingleNotificationFrame() {
+        UartFrameParser parser = new UartFrameParser();
+        byte[] reply = "@OK%LOGS/09.TXT#".getBytes(UTF_8);
+        assertEquals(reply.length, parser.parse(reply, 0, reply.length));
+        assertTrue(parser.isFrameComplete());
+        assertEquals(2, parser.getFieldCount());
+        assertEquals("OK", parser.getField(0));
+        assertEquals("LOGS/09.TXT", parser.getField(1));
+        assertEquals("OK%LOGS/09.TXT", parser.getPayload());
+        assertEquals("", parser.getField(2));
+    }
+
+    @Test
+    public void testInfoReplySplitIntoNotifications() {
+        UartFrameParser parser = new UartFrameParser();
+        String[] packets = { "@DATALOG.CSV%1", "2345%2017-03-0", "9 17:27%2017-03-10 08:00#" };
+        for (String packet : packets) {
+            byte[] bytes = packet.getBytes(UTF_8);
+            parser.parse(bytes, 0, bytes.length);
+        }
+        assertTrue(parser.isFrameComplete());
+        assertEquals(4, parser.getFieldCount());
+        assertEquals("DATALOG.CSV", parser.getField(0));
+        assertEquals("12345", parser.getField(1));
+        assertEquals("2017-03-09 17:27", parser.getField(2));
+        assertEquals("2017-03-10 08:00", parser.getField(3));
+    }
+
+    @Test
+    public void testParserStopsAtFrameEnd() {
+        UartFrameParser parser = new UartFrameParser();
+        byte[] packet = "xx@1024#FILE CONTENT".getBytes(UTF_8);
+        int consumed = parser.parse(packet, 0, packet.length);
+        assertEquals(8, consumed);
+        assertTrue(parser.isFrameComplete());
+        assertEquals("1024", parser.getField(0));
+        assertEquals("FILE CONTENT", new String(packet, consumed, packet.length - consumed, UTF_8));
+    }
+
+    @Test
+    public void testNextFrameStartsClean() {
+        UartFrameParser parser = new UartFrameParser();
+        byte[] packet = "@OK%A.TXT#@OK%B.TXT#".getBytes(UTF_8);
+        int offset = parser.parse(packet, 0, packet.length);
+        assertEquals("A.TXT", parser.getField(1));
+        parser.parse(packet, offset, packet.length - offset);
+        assertTrue(parser.isFrameComplete());
+        assertEquals(2, parser.getFieldCount());
+        assertEquals("B.TXT", parser.getField(1));
+
+        parser.reset();
+        byte[] partial = "@OK%C.T".getBytes(UTF_8);
+        parser.parse(partial, 0, partial.length);
+        assertFalse(parser.isFrameComplete());
+        assertTrue(parser.isInFrame());
+        parser.reset();
+        assertFalse(parser.isInFrame());
+    }
+
+    @Test
+    public void testHugeListingInRandomNotifications() {
+        Random random = new Random(42);
+        for (int entries : new int[] { 1000, 10000, 40000 }) {
+            String listing = createListing(entries);
+            byte[] reply = ("@" + listing + "#").getBytes(UTF_8);
+
+            UartFrameParser parser = new UartFrameParser();
+            int offset = 0;
+            while (offset < reply.length) {
+                int packetSize = Math.min(reply.length - offset, 1 + random.nextInt(244));
+                int position = offset;
+                while (position < offset + packetSize) {
+                    position += parser.parse(reply, position, offset + packetSize - position);
+                }
+                offset += packetSize;
+            }
+
+            assertTrue(parser.isFrameComplete());
+            assertEquals(listing, parser.getPayload());
+        }
+    }
+
+    private static String createListing(int entries) {
+        StringBuilder listing = new StringBuilder("../");
+        for (int i = 0; i < entries; i++) {
+            listing.append(',');
+            if (i % 10 == 0) {
+                listing.append("DIR").append(i).append('/');
+            } else {
+                listing.append("LOG").append(i).append(".TXT");
+            }
+        }
+        return listing.toString();
+    }
+}
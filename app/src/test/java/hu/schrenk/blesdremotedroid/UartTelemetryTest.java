@@ -0,0 +1,112 @@
+package hu.schrenk.blesdremotedroid;
+
+import org.junit.Test;
+
+import hu.schrenk.blesdremotedroid.ble.LatencyHistogram;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+import hu.schrenk.blesdremotedroid.ble.UartTelemetry;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class UartTelemetryTest {
+
+    @Test
+    public void testPercentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(50050, histogram.getMean());
+        assertEquals(100000, histogram.getMax());
+        assertWithin(50000, histogram.getPercentile(0.5));
+        assertWithin(99000, histogram.getPercentile(0.99));
+        assertEquals(100000, histogram.getPercentile(1));
+
+        histogram.record(7);
+        assertEquals(7, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void testNotificationIntervalsAreMeasuredWithinAReply() {
+        FakeClockTelemetry telemetry = new FakeClockTelemetry();
+        telemetry.setStallThreshold(500);
+        UartReceiver receiver = new UartReceiver(telemetry);
+
+        receiver.setActiveCommand(null);
+        receiver.receive(new byte[20], 0, 20);
+        telemetry.advance(10);
+        receiver.receive(new byte[20], 0, 20);
+        telemetry.advance(800);
+        receiver.receive(new byte[10], 0, 10);
+
+        //The time before the reply of the next command is not an interval
+        telemetry.advance(5000);
+        receiver.setActiveCommand(null);
+        receiver.receive(new byte[20], 0, 20);
+
+        UartTelemetry.Snapshot snapshot = telemetry.snapshot();
+        assertEquals(70, snapshot.getBytesReceived());
+        assertEquals(4, snapshot.getNotifications());
+        assertEquals(2, snapshot.getNotificationInterval().getCount());
+        assertWithin(800000, snapshot.getNotificationInterval().getMax());
+        assertEquals(1, snapshot.getReceiveStalls());
+        assertEquals(70 * 1000 / 5810, snapshot.getReceiveRate());
+    }
+
+    @Test
+    public void testLiveRateIsMeasuredBetweenSnapshots() {
+        FakeClockTelemetry telemetry = new FakeClockTelemetry();
+        UartReceiver receiver = new UartReceiver(telemetry);
+
+        receiver.receive(new byte[200], 0, 200);
+        telemetry.advance(1000);
+        UartTelemetry.Snapshot previous = telemetry.snapshot();
+        receiver.receive(new byte[200], 0, 200);
+        receiver.receive(new byte[200], 0, 200);
+        telemetry.advance(500);
+        UartTelemetry.Snapshot snapshot = telemetry.snapshot();
+
+        assertEquals(800, snapshot.getReceiveRate(previous));
+        assertEquals(400, snapshot.getReceiveRate());
+        assertEquals(0, snapshot.getSendRate(previous));
+    }
+
+    @Test
+    public void testJsonContainsTheMetrics() {
+        FakeClockTelemetry telemetry = new FakeClockTelemetry();
+        UartReceiver receiver = new UartReceiver(telemetry);
+        receiver.receive(new byte[20], 0, 20);
+        telemetry.advance(2000);
+
+        String json = telemetry.snapshot().toJson();
+        assertTrue(json, json.startsWith("{\"elapsed\":2000,"));
+        assertTrue(json, json.contains("\"bytesReceived\":20,"));
+        assertTrue(json, json.contains("\"writeLatency\":{\"count\":0,"));
+        assertTrue(json, json.contains("\"connectionState\":\"CONNECTING\""));
+        assertTrue(json, json.endsWith("\"READY\":0}}"));
+
+        telemetry.reset();
+        assertEquals(0, telemetry.snapshot().getBytesReceived());
+    }
+
+    //Percentiles are the upper bound of a bucket, which is at most 1/8 wider than its lower bound
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " ~ " + actual, actual >= expected && actual <= expected + expected / 8);
+    }
+
+    private static class FakeClockTelemetry extends UartTelemetry {
+
+        private long now = 1;
+
+        void advance(long millis) {
+            this.now += millis * 1000000L;
+        }
+
+        @Override
+        protected long nanoTime() {
+            return this.now;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package hu.schrenk.blesdremotedroid;
+
+import android.bluetooth.BluetoothGatt;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import hu.schrenk.blesdremotedroid.ble.UartTxChannel;
+import hu.schrenk.blesdremotedroid.ble.UartWriteMode;
+import hu.schrenk.blesdremotedroid.ble.UartWriteQueue;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Counts the bytes allocated by the current thread during a steady upload.
+ */
+public class UartWriteQueueAllocationTest {
+
+    private static final int UPLOAD_BLOCK_SIZE = 512;
+    private static final int UPLOAD_BLOCKS = 2000;
+
+    //Tolerates a few one-off allocations of the JVM, but not one per chunk
+    private static final long ALLOCATION_TOLERANCE = 4096;
+
+    @Test
+    public void testAcknowledgedUploadDoesNotAllocatePerChunk() {
+        this.assertNoAllocationPerChunk(UartWriteMode.ACKNOWLEDGED, 20);
+        this.assertNoAllocationPerChunk(UartWriteMode.ACKNOWLEDGED, 244);
+    }
+
+    @Test
+    public void testUploadWithoutResponseDoesNotAllocatePerChunk() {
+        this.assertNoAllocationPerChunk(UartWriteMode.WITHOUT_RESPONSE, 20);
+        this.assertNoAllocationPerChunk(UartWriteMode.WITHOUT_RESPONSE, 244);
+    }
+
+    private void assertNoAllocationPerChunk(UartWriteMode mode, int chunkSize) {
+        CountingTxChannel channel = new CountingTxChannel();
+        UartWriteQueue writeQueue = new UartWriteQueue(channel);
+        writeQueue.setChunkSize(chunkSize);
+        channel.writeQueue = writeQueue;
+
+        byte[] block = new byte[UPLOAD_BLOCK_SIZE];
+        int lastBlockSize = 300;
+
+        //Warm up: fills the buffer pool and lets the JIT compile the send path
+        for (int i = 0; i < UPLOAD_BLOCKS; i++) {
+            writeQueue.write(block, 0, block.length, mode);
+            writeQueue.write(block, 0, lastBlockSize, mode);
+        }
+        channel.chunks = 0;
+
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < UPLOAD_BLOCKS; i++) {
+            writeQueue.write(block, 0, block.length, mode);
+            writeQueue.write(block, 0, lastBlockSize, mode);
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        assertTrue(channel.chunks > UPLOAD_BLOCKS * 2);
+        assertTrue(mode + " chunk size " + chunkSize + ": " + allocated + " bytes allocated for " + channel.chunks + " chunks",
+                allocated < ALLOCATION_TOLERANCE);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static class CountingTxChannel implements UartTxChannel {
+
+        UartWriteQueue writeQueue;
+        int chunks = 0;
+
+        @Override
+        public boolean write(byte[] chunk, boolean withResponse) {
+            chunks++;
+            writeQueue.onWriteComplete(BluetoothGatt.GATT_SUCCESS);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package hu.schrenk.blesdremotedroid;
+
+import android.bluetooth.BluetoothGatt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import hu.schrenk.blesdremotedroid.ble.UartTelemetry;
+import hu.schrenk.blesdremotedroid.ble.UartTxChannel;
+import hu.schrenk.blesdremotedroid.ble.UartWriteMode;
+import hu.schrenk.blesdremotedroid.ble.UartWriteQueue;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class UartWriteQueueTest {
+
+    private static final int GATT_WRITE_FAILURE = 0x80;
+
+    @Test
+    public void testChunksAreSentWhenAcknowledged() {
+        FakeTxChannel channel = new FakeTxChannel();
+        UartWriteQueue writeQueue = new UartWriteQueue(channel);
+        channel.writeQueue = writeQueue;
+
+        byte[] data = "@PUTF:LOGS/2017/03/09.TXT%12345#".getBytes();
+        assertTrue(writeQueue.write(data));
+        assertEquals(2, channel.chunks.size());
+        assertEquals(20, channel.chunks.get(0).length);
+        assertTrue(java.util.Arrays.equals(data, channel.received.toByteArray()));
+    }
+
+    @Test
+    public void testAcknowledgeFromAnotherThread() {
+        FakeTxChannel channel = new FakeTxChannel();
+        channel.asynchronousAck = true;
+        UartWriteQueue writeQueue = new UartWriteQueue(channel);
+        channel.writeQueue = writeQueue;
+
+        byte[] data = new byte[2000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+        long start = System.currentTimeMillis();
+        assertTrue(writeQueue.write(data));
+        //The former implementation slept 100 ms after each of the 100 chunks
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(100, channel.chunks.size());
+        assertTrue(java.util.Arrays.equals(data, channel.received.toByteArray()));
+    }
+
+    @Test
+    public void testLateAcknowledgeIsIgnored() {
+        FakeTxChannel channel = new FakeTxChannel();
+        channel.lateAcks = 2;
+        UartWriteQueue writeQueue = new UartWriteQueue(channel);
+        writeQueue.setAckTimeout(50);
+        channel.writeQueue = writeQueue;
+
+        //The late acknowledge of the first attempt does not confirm the second one
+        assertTrue(writeQueue.write("@LIST#".getBytes()));
+        assertEquals(3, channel.chunks.size());
+        assertEquals(2, writeQueue.getTelemetry().snapshot().getWriteTimeouts());
+    }
+
+    @Test
+    public void testLateCompletionOfAbortedBurstIsIgnored() {
+        FakeTxChannel channel = new FakeTxChannel();
+        channel.lateAcks = 2;
+        UartWriteQueue writeQueue = new UartWriteQueue(channel);
+        writeQueue.setAckTimeout(50);
+        channel.writeQueue = writeQueue;
+
+        assertFalse(writeQueue.write(new byte[20], 0, 20, UartWriteMode.WITHOUT_RESPONSE));
+        assertTrue(writeQueue.write("@LIST#".getBytes()));
+        assertEquals(3, channel.chunks.size());
+        assertEquals(2, writeQueue.getTelemetry().snapshot().getWriteTimeouts());
+    }
+
+    @Test
+    public void testFailedWriteIsRetried() {
+        FakeTxChannel channel = new FakeTxChannel();
+        channel.failedAcks = 2;
+        UartWriteQueue writeQueue = new UartWriteQueue(channel);
+        channel.writeQueue = writeQueue;
+
+        assertTrue(writeQueue.write("@LIST#".getBytes()));
+        assertEquals(3, channel.chunks.size());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetries() {
+        FakeTxChannel channel = new FakeTxChannel();
+        channel.droppedAcks = Integer.MAX_VALUE;
+        UartWriteQueue writeQueue = new UartWriteQueue(channel);
+        writeQueue.setAckTimeout(10);
+        writeQueue.setMaxRetries(2);
+        channel.writeQueue = writeQueue;
+
+        assertFalse(writeQueue.write("@LIST#".getBytes()));
+        assertEquals(3, channel.chunks.size());
+    }
+
+    @Test
+    public void testWindowGrowsWithoutResponse() {
+        FakeTxChannel channel = new FakeTxChannel();
+        channel.asynchronousAck = true;
+        UartWriteQueue writeQueue = new UartWriteQueue(channel);
+        writeQueue.setMaxWindow(4);
+        channel.writeQueue = writeQueue;
+
+        byte[] data = new byte[4000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i * 7);
+        }
+        assertTrue(writeQueue.write(data, 0, data.length, UartWriteMode.WITHOUT_RESPONSE));
+        assertTrue(java.util.Arrays.equals(data, channel.received.toByteArray()));
+        assertEquals(4, writeQueue.getWindow());
+        assertFalse(channel.withResponse);
+    }
+
+    @Test
+    public void testWindowShrinksWhenWritesAreRefused() {
+        FakeTxChannel channel = new FakeTxChannel();
+        UartWriteQueue writeQueue = new UartWriteQueue(channel);
+        writeQueue.setMaxWindow(4);
+        channel.writeQueue = writeQueue;
+
+        byte[] data = new byte[2000];
+        assertTrue(writeQueue.write(data, 0, data.length, UartWriteMode.WITHOUT_RESPONSE));
+        assertEquals(4, writeQueue.getWindow());
+
+        channel.refusedWrites = 2;
+        assertTrue(writeQueue.write(data, 0, 40, UartWriteMode.WITHOUT_RESPONSE));
+        assertTrue(writeQueue.getWindow() < 4);
+        assertEquals(2040, channel.received.size()); //Refused chunks are written again
+    }
+
+    @Test
+    public void testFailedWriteWithoutResponseAbortsTransfer() {
+        FakeTxChannel channel = new FakeTxChannel();
+        UartWriteQueue writeQueue = new UartWriteQueue(channel);
+        writeQueue.setMaxWindow(4);
+        channel.writeQueue = writeQueue;
+
+        byte[] data = new byte[2000];
+        assertTrue(writeQueue.write(data, 0, data.length, UartWriteMode.WITHOUT_RESPONSE));
+        assertEquals(4, writeQueue.getWindow());
+
+        channel.failedAcks = 1;
+        assertFalse(writeQueue.write(data, 0, 100, UartWriteMode.WITHOUT_RESPONSE));
+        assertEquals(2, writeQueue.getWindow());
+    }
+
+    @Test
+    public void testTelemetryCountsWritesAndRetries() {
+        FakeTxChannel channel = new FakeTxChannel();
+        channel.lateAcks = 1;
+        channel.refusedWrites = 1;
+        UartWriteQueue writeQueue = new UartWriteQueue(channel);
+        writeQueue.setAckTimeout(20);
+        channel.writeQueue = writeQueue;
+
+        assertTrue(writeQueue.write("@PUTF:LOGS/2017/03/09.TXT%12345#".getBytes()));
+        assertTrue(writeQueue.write(new byte[100], 0, 100, UartWriteMode.WITHOUT_RESPONSE));
+
+        UartTelemetry.Snapshot snapshot = writeQueue.getTelemetry().snapshot();
+        assertEquals(132, snapshot.getBytesSent());
+        assertEquals(7, snapshot.getChunksSent());
+        assertEquals(7, snapshot.getWriteLatency().getCount());
+        //The refused write and the timed out one were both attempted again
+        assertEquals(2, snapshot.getWriteRetries());
+        assertEquals(1, snapshot.getWriteRefusals());
+        assertEquals(1, snapshot.getWriteTimeouts());
+    }
+
+    private static class FakeTxChannel implements UartTxChannel {
+
+        UartWriteQueue writeQueue;
+        boolean asynchronousAck = false;
+        int droppedAcks = 0;
+        //These acknowledges arrive only before the next write
+        int lateAcks = 0;
+        private final List<Integer> heldAcks = new ArrayList<>();
+        int failedAcks = 0;
+        int refusedWrites = 0;
+        boolean withResponse;
+
+        final List<byte[]> chunks = new ArrayList<>();
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        @Override
+        public boolean write(byte[] chunk, boolean withResponse) {
+            if (refusedWrites > 0) {
+                refusedWrites--;
+                return false;
+            }
+            this.withResponse = withResponse;
+            for (int status : heldAcks) {
+                writeQueue.onWriteComplete(status);
+            }
+            heldAcks.clear();
+            chunks.add(chunk.clone());
+            if (droppedAcks > 0) {
+                droppedAcks--;
+                return true;
+            }
+            final int status;
+            if (failedAcks > 0) {
+                failedAcks--;
+                status = GATT_WRITE_FAILURE;
+            } else {
+                received.write(chunk, 0, chunk.length);
+                status = BluetoothGatt.GATT_SUCCESS;
+            }
+            if (lateAcks > 0) {
+                lateAcks--;
+                heldAcks.add(status);
+            } else if (asynchronousAck) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeQueue.onWriteComplete(status);
+                    }
+                }).start();
+            } else {
+                writeQueue.onWriteComplete(status);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package android.bluetooth;
+
+import android.os.Parcelable;
+
+public class BluetoothDevice implements Parcelable {
+
+    public String getName() {
+        return null;
+    }
+
+    public String getAddress() {
+        return null;
+    }
+}
@@ -0,0 +1,35 @@
+package android.bluetooth;
+
+import java.util.UUID;
+
+public class BluetoothGatt {
+
+    public static final int STATE_DISCONNECTED = 0;
+    public static final int STATE_CONNECTED = 2;
+    public static final int GATT_SUCCESS = 0;
+    public static final int GATT_FAILURE = 257;
+
+    public boolean discoverServices() {
+        return true;
+    }
+
+    public BluetoothGattService getService(UUID uuid) {
+        return null;
+    }
+
+    public boolean requestMtu(int mtu) {
+        return true;
+    }
+
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return true;
+    }
+
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return true;
+    }
+
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package android.bluetooth;
+
+import java.util.UUID;
+
+public class BluetoothGattCharacteristic {
+
+    public static final int WRITE_TYPE_NO_RESPONSE = 1;
+    public static final int WRITE_TYPE_DEFAULT = 2;
+
+    private byte[] value;
+
+    public byte[] getValue() {
+        return this.value;
+    }
+
+    public boolean setValue(byte[] value) {
+        this.value = value;
+        return true;
+    }
+
+    public void setWriteType(int writeType) {
+    }
+
+    public BluetoothGattDescriptor getDescriptor(UUID uuid) {
+        return null;
+    }
+}
@@ -0,0 +1,20 @@
+package android.bluetooth;
+
+import java.util.UUID;
+
+public class BluetoothGattDescriptor {
+
+    public static final byte[] ENABLE_NOTIFICATION_VALUE = {0x01, 0x00};
+
+    public boolean setValue(byte[] value) {
+        return true;
+    }
+
+    public UUID getUuid() {
+        return null;
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic() {
+        return null;
+    }
+}
@@ -0,0 +1,10 @@
+package android.bluetooth;
+
+import java.util.UUID;
+
+public class BluetoothGattService {
+
+    public BluetoothGattCharacteristic getCharacteristic(UUID uuid) {
+        return null;
+    }
+}
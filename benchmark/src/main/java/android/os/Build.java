@@ -0,0 +1,14 @@
+package android.os;
+
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = VERSION_CODES.N;
+    }
+
+    public static class VERSION_CODES {
+        public static final int KITKAT = 19;
+        public static final int LOLLIPOP = 21;
+        public static final int N = 24;
+    }
+}
@@ -0,0 +1,26 @@
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public final class Bundle {
+
+    private final Map<String, Object> values = new HashMap<>();
+
+    public void putString(String key, String value) {
+        this.values.put(key, value);
+    }
+
+    public String getString(String key) {
+        return (String)this.values.get(key);
+    }
+
+    public void putInt(String key, int value) {
+        this.values.put(key, value);
+    }
+
+    public int getInt(String key) {
+        Object value = this.values.get(key);
+        return value == null ? 0 : (Integer)value;
+    }
+}
@@ -0,0 +1,53 @@
+package android.os;
+
+/**
+ * Drops the sent messages, the benchmarks run the commands without a UI thread.
+ */
+public class Handler {
+
+    public Handler() {
+    }
+
+    public Handler(Looper looper) {
+    }
+
+    public void handleMessage(Message msg) {
+    }
+
+    public final Message obtainMessage(int what) {
+        return this.obtainMessage(what, null);
+    }
+
+    public final Message obtainMessage(int what, Object obj) {
+        Message message = new Message();
+        message.what = what;
+        message.obj = obj;
+        return message;
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2) {
+        return this.obtainMessage(what, arg1, arg2, null);
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+        Message message = this.obtainMessage(what, obj);
+        message.arg1 = arg1;
+        message.arg2 = arg2;
+        return message;
+    }
+
+    public boolean sendMessage(Message msg) {
+        return true;
+    }
+
+    public final boolean post(Runnable r) {
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+    }
+}
@@ -0,0 +1,11 @@
+package android.os;
+
+public final class Looper {
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return null;
+    }
+}
@@ -0,0 +1,21 @@
+package android.os;
+
+public final class Message {
+
+    public int what;
+    public int arg1;
+    public int arg2;
+    public Object obj;
+    private Bundle data;
+
+    public Bundle getData() {
+        if (this.data == null) {
+            this.data = new Bundle();
+        }
+        return this.data;
+    }
+
+    public void setData(Bundle data) {
+        this.data = data;
+    }
+}
@@ -0,0 +1,10 @@
+package hu.schrenk.blesdremotedroid;
+
+/**
+ * The release configuration of the app, the hot path logging is compiled out.
+ */
+public final class BuildConfig {
+
+    public static final boolean DEBUG = false;
+    public static final boolean BLE_HOT_PATH_LOGGING = false;
+}
@@ -0,0 +1,92 @@
+package hu.schrenk.blesdremotedroid.benchmark;
+
+import android.util.Log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.BleLog;
+
+/**
+ * Compares the per packet cost of the former progress logging with the {@link BleLog} calls.
+ * Run it with <code>-prof gc</code> to see the bytes allocated per packet, a switched off
+ * category must not build any string.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BleLogBenchmark {
+
+    private static final String TAG = "BleLogBenchmark";
+    private static final int PACKET_SIZE = 244;
+    private static final long FILE_SIZE = 200000L * PACKET_SIZE;
+
+    private long done = 0;
+
+    /**
+     * The download category is switched off.
+     */
+    @State(Scope.Thread)
+    public static class CategoryOff {
+
+        @Setup
+        public void setUp() {
+            BleLog.setLevel(BleLog.Category.DOWNLOAD, BleLog.OFF);
+        }
+
+        @TearDown
+        public void tearDown() {
+            BleLog.reset();
+        }
+    }
+
+    /**
+     * The download category has its default sampling rate.
+     */
+    @State(Scope.Thread)
+    public static class CategorySampled {
+
+        @Setup
+        public void setUp() {
+            BleLog.reset();
+        }
+    }
+
+    @Benchmark
+    public int concatenated() {
+        return Log.i(TAG, this.nextPacket() + "/" + FILE_SIZE);
+    }
+
+    @Benchmark
+    public long categoryOff(CategoryOff categoryOff) {
+        long packet = this.nextPacket();
+        BleLog.progress(BleLog.Category.DOWNLOAD, TAG, packet, FILE_SIZE);
+        return packet;
+    }
+
+    @Benchmark
+    public long sampled(CategorySampled categorySampled) {
+        long packet = this.nextPacket();
+        BleLog.progress(BleLog.Category.DOWNLOAD, TAG, packet, FILE_SIZE);
+        return packet;
+    }
+
+    private long nextPacket() {
+        this.done = (this.done + PACKET_SIZE) % FILE_SIZE;
+        return this.done;
+    }
+}
@@ -0,0 +1,68 @@
+package hu.schrenk.blesdremotedroid.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.util.ByteUtils;
+
+/**
+ * Measures the byte array helpers on a notification, which has the frame end in its last byte.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ByteUtilsBenchmark {
+
+    @Param({"20", "244"})
+    public int notificationSize;
+
+    private byte[] notification;
+    private byte[] chunk;
+
+    @Setup
+    public void setUp() {
+        byte[] content = Payloads.fileContent(this.notificationSize);
+        content[content.length - 1] = '#';
+        this.notification = content;
+        this.chunk = new byte[this.notificationSize];
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return ByteUtils.contains(this.notification, (byte)'#');
+    }
+
+    @Benchmark
+    public int indexOf() {
+        return ByteUtils.indexOf(this.notification, (byte)'#');
+    }
+
+    @Benchmark
+    public byte[] subByteArray() {
+        return ByteUtils.subByteArray(this.notification, this.notificationSize / 2);
+    }
+
+    @Benchmark
+    public int slice() {
+        return ByteUtils.slice(this.notification, 0, this.notificationSize, this.chunk);
+    }
+
+    @Benchmark
+    public byte[] truncByteArray() {
+        return ByteUtils.truncByteArray(this.notification, this.notificationSize / 2);
+    }
+}
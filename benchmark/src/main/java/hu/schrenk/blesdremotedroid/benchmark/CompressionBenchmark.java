@@ -0,0 +1,105 @@
+package hu.schrenk.blesdremotedroid.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import hu.schrenk.blesdremotedroid.ble.BlockCompressor;
+import hu.schrenk.blesdremotedroid.ble.BlockDecompressor;
+
+/**
+ * Compares raw and compressed transfers of one block over a link of the given bandwidth. A
+ * compressed transfer costs the encoding, the air time of the encoded bytes and the decoding,
+ * the effective throughput is {@link BlockCompressor#BLOCK_SIZE} divided by the score.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final int FILE_SIZE = 1024 * 1024;
+
+    @Param({"2048", "8192", "20480", "61440"})
+    public int bandwidth; //bytes/s
+
+    @Param({"log", "random"})
+    public String content;
+
+    private byte[] data;
+    private int offset = 0;
+    private BlockCompressor compressor;
+    private final byte[] encodedBlock = new byte[BlockCompressor.MAX_ENCODED_SIZE];
+    private long sink = 0;
+    private final BlockDecompressor.Output output = new BlockDecompressor.Output() {
+        @Override
+        public boolean write(byte[] data, int offset, int length) {
+            sink += data[offset];
+            return true;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        if ("log".equals(this.content)) {
+            this.data = Payloads.log(FILE_SIZE);
+        } else {
+            this.data = new byte[FILE_SIZE];
+            new Random(5).nextBytes(this.data);
+        }
+        this.compressor = new BlockCompressor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.compressor.end();
+    }
+
+    @Benchmark
+    public int raw() {
+        int length = this.nextBlock();
+        this.transmit(length);
+        return length;
+    }
+
+    @Benchmark
+    public long compressed() throws IOException {
+        int length = this.nextBlock();
+        int encodedLength = this.compressor.encode(this.data, this.offset, length, this.encodedBlock);
+        this.transmit(encodedLength);
+        BlockDecompressor decompressor = new BlockDecompressor(length);
+        decompressor.decode(this.encodedBlock, 0, encodedLength, this.output);
+        decompressor.end();
+        return this.sink;
+    }
+
+    //Every call takes the next block, so the score covers the whole file, not a single block
+    private int nextBlock() {
+        this.offset += BlockCompressor.BLOCK_SIZE;
+        if (this.offset >= this.data.length) {
+            this.offset = 0;
+        }
+        return Math.min(BlockCompressor.BLOCK_SIZE, this.data.length - this.offset);
+    }
+
+    //Waits for the air time of the bytes
+    private void transmit(int length) {
+        LockSupport.parkNanos(length * 1000000000L / this.bandwidth);
+    }
+}
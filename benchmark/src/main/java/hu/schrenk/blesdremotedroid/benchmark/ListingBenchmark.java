@@ -0,0 +1,53 @@
+package hu.schrenk.blesdremotedroid.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.FileSystemNode;
+
+/**
+ * Measures building the browser list from a listing reply: parsing the entries, then sorting
+ * them for display.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ListingBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int entries;
+
+    private String listing;
+
+    @Setup
+    public void setUp() {
+        this.listing = Payloads.listing(this.entries);
+    }
+
+    @Benchmark
+    public List<FileSystemNode> parse() {
+        return FileSystemNode.parseListing(this.listing);
+    }
+
+    @Benchmark
+    public List<FileSystemNode> parseAndSort() {
+        List<FileSystemNode> nodes = FileSystemNode.parseListing(this.listing);
+        FileSystemNode.sort(nodes);
+        return nodes;
+    }
+}
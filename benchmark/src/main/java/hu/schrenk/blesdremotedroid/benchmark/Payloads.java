@@ -0,0 +1,128 @@
+package hu.schrenk.blesdremotedroid.benchmark;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import hu.schrenk.blesdremotedroid.ble.UartGattCallback;
+
+/**
+ * Builds the replies of a BleSdRemote device, split into notifications like on the air.
+ */
+final class Payloads {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The notification payload of the default 23 bytes ATT MTU.
+     */
+    static final int DEFAULT_NOTIFICATION_SIZE = UartGattCallback.UART_TX_MAX_CHARACTERS;
+
+    /**
+     * The notification payload of the negotiated MTU.
+     */
+    static final int NEGOTIATED_NOTIFICATION_SIZE = UartGattCallback.REQUESTED_MTU - UartGattCallback.ATT_HEADER_SIZE;
+
+    private Payloads() {
+    }
+
+    /**
+     * Returns a listing of a log directory, e.g. <code>../,2017_03/,LOG_00042.TXT</code>. Every
+     * tenth entry is a directory, the entries are in the unsorted order of the FAT.
+     *
+     * @param entryCount
+     */
+    static String listing(int entryCount) {
+        List<String> entries = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            if (i % 10 == 0) {
+                entries.add(String.format("%04d_%02d/", 2000 + i / 120, i / 10 % 12 + 1));
+            } else {
+                entries.add(String.format("LOG_%05d.TXT", i));
+            }
+        }
+        Collections.shuffle(entries, new Random(42));
+        StringBuilder listing = new StringBuilder("../");
+        for (String entry : entries) {
+            listing.append(',').append(entry);
+        }
+        return listing.toString();
+    }
+
+    /**
+     * Returns compressible file content, like the text logs on the card.
+     *
+     * @param size
+     */
+    static byte[] fileContent(int size) {
+        byte[] content = new byte[size];
+        byte[] line = "2017-03-09 10:00:00 T=21.5C H=45% P=1013hPa\r\n".getBytes(UTF_8);
+        for (int i = 0; i < size; i++) {
+            content[i] = line[i % line.length];
+        }
+        return content;
+    }
+
+    /**
+     * Returns a CSV log of a data logger, with varying measurements, so it compresses like the
+     * real logs.
+     *
+     * @param size
+     */
+    static byte[] log(int size) {
+        Random random = new Random(11);
+        StringBuilder log = new StringBuilder("time,temperature,humidity,pressure\n");
+        long time = 1489053600L;
+        while (log.length() < size) {
+            log.append(time).append(',')
+                    .append(20 + random.nextInt(5)).append('.').append(random.nextInt(10)).append(',')
+                    .append(40 + random.nextInt(20)).append(',')
+                    .append(1000 + random.nextInt(30)).append('\n');
+            time += 10;
+        }
+        return log.substring(0, size).getBytes(UTF_8);
+    }
+
+    /**
+     * Splits the data into notifications.
+     *
+     * @param data
+     * @param notificationSize
+     */
+    static byte[][] split(byte[] data, int notificationSize) {
+        int count = (data.length + notificationSize - 1) / notificationSize;
+        byte[][] notifications = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * notificationSize;
+            notifications[i] = new byte[Math.min(notificationSize, data.length - offset)];
+            System.arraycopy(data, offset, notifications[i], 0, notifications[i].length);
+        }
+        return notifications;
+    }
+
+    /**
+     * Returns a reply frame split into notifications.
+     *
+     * @param payload the payload between the frame markers
+     * @param notificationSize
+     */
+    static byte[][] frame(String payload, int notificationSize) {
+        return split(("@" + payload + "#").getBytes(UTF_8), notificationSize);
+    }
+
+    /**
+     * Returns a raw download: the header frame in its own notification, then the content.
+     *
+     * @param content
+     * @param notificationSize
+     */
+    static byte[][] download(byte[] content, int notificationSize) {
+        byte[][] notifications = split(content, notificationSize);
+        byte[][] reply = new byte[notifications.length + 1][];
+        reply[0] = ("@" + content.length + "#").getBytes(UTF_8);
+        System.arraycopy(notifications, 0, reply, 1, notifications.length);
+        return reply;
+    }
+}
@@ -0,0 +1,41 @@
+package hu.schrenk.blesdremotedroid.benchmark;
+
+import hu.schrenk.blesdremotedroid.ble.UartLink;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+import hu.schrenk.blesdremotedroid.ble.UartWriteMode;
+
+/**
+ * Answers every command with the prepared notifications. They are passed to the receiver
+ * synchronously, the same way <code>UartGattCallback.onCharacteristicChanged</code> does.
+ */
+class ReplayLink implements UartLink {
+
+    private final UartReceiver receiver;
+    private byte[][] reply = new byte[0][];
+
+    ReplayLink(UartReceiver receiver) {
+        this.receiver = receiver;
+    }
+
+    void setReply(byte[][] reply) {
+        this.reply = reply;
+    }
+
+    @Override
+    public boolean awaitReady(long timeout) {
+        return true;
+    }
+
+    @Override
+    public boolean sendCommand(String command) {
+        for (byte[] notification : this.reply) {
+            this.receiver.receive(notification, 0, notification.length);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean sendData(byte[] data, int offset, int length, UartWriteMode writeMode) {
+        return true;
+    }
+}
@@ -0,0 +1,107 @@
+package hu.schrenk.blesdremotedroid.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.GetFileCommand;
+import hu.schrenk.blesdremotedroid.ble.InfoCommand;
+import hu.schrenk.blesdremotedroid.ble.ListCommand;
+import hu.schrenk.blesdremotedroid.ble.RemoteFileInfo;
+import hu.schrenk.blesdremotedroid.ble.UartCommandExecutor;
+import hu.schrenk.blesdremotedroid.ble.UartReceiver;
+
+/**
+ * Measures the handling of the LIST, INFO and GETF replies, from the notifications passed to the
+ * {@link UartReceiver} to the completed command result. <code>onCharacteristicChanged</code> of
+ * the GATT callback does nothing else, than passing the notification to the receiver.
+ *
+ * The commands are run by a {@link UartCommandExecutor}, so the hand-over to its thread is
+ * measured as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReplyHandlingBenchmark {
+
+    @Param({"20", "244"})
+    public int notificationSize;
+
+    @Param({"10000"})
+    public int listingEntries;
+
+    @Param({"1048576"})
+    public int downloadSize;
+
+    private UartCommandExecutor executor;
+    private ReplayLink link;
+    private byte[][] listingReply;
+    private byte[][] infoReply;
+    private byte[][] downloadReply;
+    private File downloadFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        UartReceiver receiver = new UartReceiver();
+        this.link = new ReplayLink(receiver);
+        this.executor = new UartCommandExecutor(this.link, receiver);
+
+        this.listingReply = Payloads.frame(Payloads.listing(this.listingEntries), this.notificationSize);
+        this.infoReply = Payloads.frame("LOGS/LOG_00042.TXT%1048576%2017-03-09 10:00:00%2017-03-09 18:30:00", this.notificationSize);
+        this.downloadReply = Payloads.download(Payloads.fileContent(this.downloadSize), this.notificationSize);
+        this.downloadFile = File.createTempFile("download", ".txt");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.executor.shutdown();
+        if (!this.downloadFile.delete()) {
+            this.downloadFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public String list() throws Exception {
+        this.link.setReply(this.listingReply);
+        return this.executor.submit(new ListCommand("LOGS")).get();
+    }
+
+    @Benchmark
+    public String listStreaming() throws Exception {
+        this.link.setReply(this.listingReply);
+        ListCommand command = new ListCommand("LOGS");
+        command.setStreaming(true);
+        return this.executor.submit(command).get();
+    }
+
+    @Benchmark
+    public RemoteFileInfo info() throws Exception {
+        this.link.setReply(this.infoReply);
+        return this.executor.submit(new InfoCommand("LOGS/LOG_00042.TXT")).get();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @BenchmarkMode(Mode.Throughput)
+    public File download() throws Exception {
+        this.link.setReply(this.downloadReply);
+        return this.executor.submit(new GetFileCommand("LOGS/LOG_00042.TXT", this.downloadFile)).get();
+    }
+}
@@ -0,0 +1,56 @@
+package hu.schrenk.blesdremotedroid.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import hu.schrenk.blesdremotedroid.ble.BluetoothDeviceData;
+
+/**
+ * Measures the decoding of the scan records, which runs for every advertisement during a scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ScanRecordBenchmark {
+
+    //Flags, the UART service UUID, the name and the TX power, padded to the 62 bytes of a scan record
+    private final byte[] uartRecord = {
+            0x02, 0x01, 0x06,
+            0x11, 0x07, (byte)0x9E, (byte)0xCA, (byte)0xDC, 0x24, 0x0E, (byte)0xE5, (byte)0xA9, (byte)0xE0,
+            (byte)0x93, (byte)0xF3, (byte)0xA3, (byte)0xB5, 0x01, 0x00, 0x40, 0x6E,
+            0x0C, 0x09, 'B', 'l', 'e', 'S', 'd', 'R', 'e', 'm', 'o', 't', 'e',
+            0x02, 0x0A, 0x04,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    //An iBeacon advertisement of an other device around
+    private final byte[] beaconRecord = {
+            0x02, 0x01, 0x06, 0x1A, (byte)0xFF, 0x4C, 0x00, 0x02, 0x15,
+            (byte)0xE2, (byte)0xC5, 0x6D, (byte)0xB5, (byte)0xDF, (byte)0xFB, 0x48, (byte)0xD2,
+            (byte)0xB0, 0x60, (byte)0xD0, (byte)0xF5, (byte)0xA7, 0x10, (byte)0x96, (byte)0xE0,
+            0x00, 0x01, 0x00, 0x02, (byte)0xC5,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    @Benchmark
+    public int decodeUart() {
+        return new BluetoothDeviceData(null, -60, this.uartRecord).getType();
+    }
+
+    @Benchmark
+    public int decodeBeacon() {
+        return new BluetoothDeviceData(null, -80, this.beaconRecord).getType();
+    }
+}